@@ -16,38 +16,103 @@ package com.google.callbuilder;
 import com.google.callbuilder.Unification.Atom;
 import com.google.callbuilder.Unification.Sequence;
 import com.google.callbuilder.Unification.Unifiable;
+import com.google.callbuilder.Unification.Variable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
 
 /**
  * Maintains a mapping of elements that must be resolved ({@link TypeElement}s and
- * {@link TypeParameterElements}) to objects the {@link Unification} class works with. Can also
+ * {@link TypeParameterElement}s) to objects the {@link Unification} class works with. Can also
  * convert the result of a successful unification into the type string that the variable expresses.
+ *
+ * <p>A single registry is shared by every inference problem in a processing round, so each type is
+ * only encoded once per round. A registry must not outlive its round (see
+ * {@link TypeInferenceCache#startRound()}), since it holds the compiler's elements and type
+ * mirrors of that round. Type variables are encoded as atoms like any other type; the type
+ * variables of a style method become fresh {@link Variable}s for each problem by replacing those
+ * atoms (see {@link #freshVariables(StyleMethod)}). Instances are thread-safe, so types can be
+ * converted back to strings while builders are rendered in parallel.
  */
 final class AtomAndVarRegistry {
   /**
    * Mapping from Atom objects to the string representation of the item in code to which they
    * correspond.
    */
-  private final Map<Atom, String> atomsToCode = new HashMap<>();
+  private final ConcurrentMap<Atom, String> atomsToCode = new ConcurrentHashMap<>();
+
+  /**
+   * Atoms for types other than type variables, by their string representation in code. Together
+   * with {@link #typeVariableAtoms}, this is the inverse of {@link #atomsToCode}.
+   */
+  private final ConcurrentMap<String, Atom> codeToAtoms = new ConcurrentHashMap<>();
+
+  /**
+   * Atoms for type variables, by name. These are kept apart from {@link #codeToAtoms} so that
+   * replacing a method's type variable with a {@link Variable} never replaces a class that happens
+   * to have the same name.
+   */
+  private final ConcurrentMap<String, Atom> typeVariableAtoms = new ConcurrentHashMap<>();
+
+  /**
+   * Atoms for declared types by element, so that each qualified name is only built once.
+   */
+  private final ConcurrentMap<TypeElement, Atom> elementAtoms = new ConcurrentHashMap<>();
+
+  /**
+   * Encodings of types by identity. Within a round, the compiler hands out the same
+   * {@link TypeMirror} every time the type of a given element is requested, so this catches the
+   * parameters and return types of styles that are used by many fields. Types that are equal but
+   * not identical are encoded again, which gives an equal encoding.
+   */
+  private final Map<TypeMirror, Unifiable> encodings =
+      Collections.synchronizedMap(new IdentityHashMap<TypeMirror, Unifiable>());
+
+  /**
+   * Encodings of the types in style method signatures by identity. The same {@link StyleType}
+   * objects are used by every field with the same style.
+   */
+  private final Map<StyleType, Unifiable> styleEncodings =
+      Collections.synchronizedMap(new IdentityHashMap<StyleType, Unifiable>());
 
   /**
-   * The inverse of {@link #atomsToCode}.
+   * Results of {@link #toType(Unifiable)} for sequences without variables.
    */
-  private final Map<String, Atom> codeToAtoms = new HashMap<>();
+  private final ConcurrentMap<Sequence, String> groundTypes = new ConcurrentHashMap<>();
+
+  /**
+   * Creates the sequences of encoded types, so every encoding of the same type is the same object.
+   */
+  private final TermFactory terms = new TermFactory();
 
   String toType(Unifiable resolution) {
     if (resolution instanceof Atom) {
       return atomsToCode.get(resolution);
     }
     Sequence sequence = (Sequence) resolution;
+    if (!sequence.isGround()) {
+      return sequenceToType(sequence);
+    }
+    String type = groundTypes.get(sequence);
+    if (type == null) {
+      type = sequenceToType(sequence);
+      groundTypes.put(sequence, type);
+    }
+    return type;
+  }
+
+  private String sequenceToType(Sequence sequence) {
     StringBuilder typeReference = new StringBuilder()
         .append(toType(sequence.items().get(0)));
     if (sequence.items().size() > 1) {
@@ -62,26 +127,101 @@ final class AtomAndVarRegistry {
     return typeReference.toString();
   }
 
-  private Atom atom(String codeRepresentation) {
-    Atom atom = codeToAtoms.get(codeRepresentation);
+  private Atom atom(ConcurrentMap<String, Atom> atoms, String codeRepresentation) {
+    Atom atom = atoms.get(codeRepresentation);
+    if (atom == null) {
+      // Make the new atom convertible before publishing it, in case another thread is racing to
+      // create the same one.
+      Atom created = new Atom();
+      atomsToCode.put(created, codeRepresentation);
+      atom = atoms.putIfAbsent(codeRepresentation, created);
+      if (atom == null) {
+        atom = created;
+      } else {
+        atomsToCode.remove(created);
+      }
+    }
+    return atom;
+  }
+
+  private Atom atom(TypeElement element) {
+    Atom atom = elementAtoms.get(element);
     if (atom == null) {
-      atom = new Atom();
-      atomsToCode.put(atom, codeRepresentation);
-      codeToAtoms.put(codeRepresentation, atom);
+      atom = atom(codeToAtoms, element.getQualifiedName().toString());
+      elementAtoms.putIfAbsent(element, atom);
     }
     return atom;
   }
 
-  Unifiable encode(TypeMirror type, Map<String, ? extends Unifiable> overridenTypeVariables) {
+  /**
+   * Returns a new variable for each type parameter of {@code method}, keyed by the atom that the
+   * type parameter is encoded as. Passing the result to
+   * {@link #encode(StyleType, Map)} treats those type parameters as variables in unification.
+   */
+  Map<Atom, Variable> freshVariables(StyleMethod method) {
+    Map<Atom, Variable> variables = new HashMap<>();
+    for (String typeParameter : method.typeParameters()) {
+      variables.put(atom(typeVariableAtoms, typeParameter), new Variable());
+    }
+    return variables;
+  }
+
+  /**
+   * Encodes {@code type}, treating every type variable in it as a fixed type.
+   */
+  Unifiable encode(TypeMirror type) {
+    Unifiable encoding = encodings.get(type);
+    if (encoding == null) {
+      encoding = encodeUncached(type);
+      encodings.put(type, encoding);
+    }
+    return encoding;
+  }
+
+  /**
+   * Encodes {@code type} from the signature of a style method, replacing the type variables that
+   * appear as keys in {@code typeVariables} with their values. This gives the same atoms as
+   * {@link #encode(TypeMirror)} for the same types.
+   */
+  Unifiable encode(StyleType type, Map<Atom, ? extends Unifiable> typeVariables) {
+    Unifiable encoding = styleEncodings.get(type);
+    if (encoding == null) {
+      encoding = encodeUncached(type);
+      styleEncodings.put(type, encoding);
+    }
+    return typeVariables.isEmpty() ? encoding : replace(encoding, typeVariables);
+  }
+
+  private Unifiable encodeUncached(StyleType type) {
+    switch (type.kind()) {
+      case DECLARED:
+        List<Unifiable> types = new ArrayList<>();
+        types.add(atom(codeToAtoms, type.name()));
+        for (StyleType typeArgument : type.typeArguments()) {
+          types.add(encode(typeArgument, Collections.<Atom, Unifiable>emptyMap()));
+        }
+        return terms.sequence(types);
+      case TYPE_VARIABLE:
+        return atom(typeVariableAtoms, type.name());
+      case OTHER:
+        return atom(codeToAtoms, type.name());
+      default:
+        throw new RuntimeException("type is not supported for use in CallBuilder: " + type.name());
+    }
+  }
+
+  private Unifiable encodeUncached(TypeMirror type) {
     switch (type.getKind()) {
       case DECLARED:
         List<Unifiable> types = new ArrayList<>();
         DeclaredType declaredType = (DeclaredType) type;
-        types.add(atom(CallBuilderProcessor.qualifiedName(declaredType)));
+        types.add(atom((TypeElement) declaredType.asElement()));
         for (TypeMirror typeArgument : declaredType.getTypeArguments()) {
-          types.add(encode(typeArgument, overridenTypeVariables));
+          types.add(encode(typeArgument));
         }
-        return new Sequence(types);
+        return terms.sequence(types);
+      case TYPEVAR:
+        return atom(typeVariableAtoms, type.toString());
       case ARRAY:
       case BOOLEAN:
       case BYTE:
@@ -91,14 +231,36 @@ final class AtomAndVarRegistry {
       case INT:
       case LONG:
       case SHORT:
-      case TYPEVAR:
-        String stringRep = type.toString();
-        if (overridenTypeVariables.containsKey(stringRep)) {
-          return overridenTypeVariables.get(stringRep);
-        }
-        return atom(stringRep);
+        return atom(codeToAtoms, type.toString());
       default:
         throw new RuntimeException("type is not supported for use in CallBuilder: " + type);
     }
   }
+
+  /**
+   * Returns {@code term} with the atoms that appear as keys in {@code replacements} replaced by
+   * their values, or {@code term} itself if it contains none of them.
+   */
+  private Unifiable replace(Unifiable term, Map<Atom, ? extends Unifiable> replacements) {
+    if (term instanceof Atom) {
+      Unifiable replacement = replacements.get(term);
+      return (replacement != null) ? replacement : term;
+    }
+    if (!(term instanceof Sequence)) {
+      return term;
+    }
+    List<Unifiable> items = ((Sequence) term).items();
+    List<Unifiable> replaced = null;
+    for (int i = 0; i < items.size(); i++) {
+      Unifiable item = items.get(i);
+      Unifiable replacedItem = replace(item, replacements);
+      if (replaced == null && replacedItem != item) {
+        replaced = new ArrayList<>(items.subList(0, i));
+      }
+      if (replaced != null) {
+        replaced.add(replacedItem);
+      }
+    }
+    return (replaced != null) ? terms.sequence(replaced) : term;
+  }
 }
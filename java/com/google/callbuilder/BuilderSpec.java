@@ -0,0 +1,555 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.lang.model.element.ExecutableElement;
+
+/**
+ * Everything needed to render the builder for one annotated element, extracted from the compiler's
+ * model ahead of time. Apart from {@link #element()}, which is only kept so it can be passed to the
+ * {@code Filer}, a spec holds plain strings and {@link TypeInference}s, so rendering it does not
+ * need to happen on the thread that runs the processor.
+ */
+final class BuilderSpec {
+  /**
+   * Information about the context of the builder. This only applies to non-static, non-constructor
+   * methods for which a builder is being generated. If an @{@link CallBuilder}-annotated method is
+   * not static, then the generated builder must choose on which object to call the method. This is
+   * passed as a constructor argument to the builder.
+   */
+  static final class Context {
+    private final String type;
+    private final String builderFieldName;
+    private final String constructorParameterName;
+
+    Context(String type, String builderFieldName, String constructorParameterName) {
+      this.type = Preconditions.checkNotNull(type);
+      this.builderFieldName = Preconditions.checkNotNull(builderFieldName);
+      this.constructorParameterName = Preconditions.checkNotNull(constructorParameterName);
+    }
+
+    String type() {
+      return type;
+    }
+
+    String builderFieldName() {
+      return builderFieldName;
+    }
+
+    String constructorParameterName() {
+      return constructorParameterName;
+    }
+  }
+
+  /**
+   * The names used by the thread-confined pool of a reusable builder.
+   */
+  static final class Pool {
+    private final String fieldName;
+    private final String acquiredFieldName;
+    private final String variableName;
+    private final String wildcardType;
+
+    Pool(String fieldName, String acquiredFieldName, String variableName, String wildcardType) {
+      this.fieldName = Preconditions.checkNotNull(fieldName);
+      this.acquiredFieldName = Preconditions.checkNotNull(acquiredFieldName);
+      this.variableName = Preconditions.checkNotNull(variableName);
+      this.wildcardType = Preconditions.checkNotNull(wildcardType);
+    }
+
+    /**
+     * The name of the static {@code ThreadLocal} field that holds each thread's pooled builder.
+     */
+    String fieldName() {
+      return fieldName;
+    }
+
+    /**
+     * The name of the boolean field that is set while the builder is acquired.
+     */
+    String acquiredFieldName() {
+      return acquiredFieldName;
+    }
+
+    /**
+     * The name of the builder variable in the {@code acquire} and {@code release} methods.
+     */
+    String variableName() {
+      return variableName;
+    }
+
+    /**
+     * The type of the builder with a wildcard for each type parameter, such as
+     * {@code FooBuilder<?, ?>}.
+     */
+    String wildcardType() {
+      return wildcardType;
+    }
+  }
+
+  /**
+   * The names used by the {@code Batch} class of a builder, apart from the names of its columns,
+   * which are the names of the fields.
+   */
+  static final class Batch {
+    private final String sizeFieldName;
+    private final String capacityFieldName;
+    private final String expectedRowsName;
+    private final String rowName;
+    private final String resultsName;
+    private final String resultType;
+
+    Batch(String sizeFieldName, String capacityFieldName, String expectedRowsName, String rowName,
+        String resultsName, String resultType) {
+      this.sizeFieldName = Preconditions.checkNotNull(sizeFieldName);
+      this.capacityFieldName = Preconditions.checkNotNull(capacityFieldName);
+      this.expectedRowsName = Preconditions.checkNotNull(expectedRowsName);
+      this.rowName = Preconditions.checkNotNull(rowName);
+      this.resultsName = Preconditions.checkNotNull(resultsName);
+      this.resultType = Preconditions.checkNotNull(resultType);
+    }
+
+    /**
+     * The name of the field that holds the number of rows that have been added.
+     */
+    String sizeFieldName() {
+      return sizeFieldName;
+    }
+
+    /**
+     * The name of the field that holds the length of every column.
+     */
+    String capacityFieldName() {
+      return capacityFieldName;
+    }
+
+    /**
+     * The name of the constructor parameter that sizes the columns.
+     */
+    String expectedRowsName() {
+      return expectedRowsName;
+    }
+
+    /**
+     * The name of the loop variable in {@code buildAll()}.
+     */
+    String rowName() {
+      return rowName;
+    }
+
+    /**
+     * The name of the list of results in {@code buildAll()}.
+     */
+    String resultsName() {
+      return resultsName;
+    }
+
+    /**
+     * The element type of the list returned by {@code buildAll()}, which is the return type of
+     * the build method, boxed if it is primitive.
+     */
+    String resultType() {
+      return resultType;
+    }
+  }
+
+  /**
+   * A modifier method on a field style, which is exposed on the builder for each field with that
+   * style.
+   */
+  static final class Modifier {
+    private final String name;
+    private final List<String> nonFieldParameterNames;
+
+    Modifier(String name, List<String> nonFieldParameterNames) {
+      this.name = Preconditions.checkNotNull(name);
+      this.nonFieldParameterNames =
+          Collections.unmodifiableList(new ArrayList<>(nonFieldParameterNames));
+    }
+
+    String name() {
+      return name;
+    }
+
+    /**
+     * The names of the modifier's parameters, not counting the first one, which is the field being
+     * modified.
+     */
+    List<String> nonFieldParameterNames() {
+      return nonFieldParameterNames;
+    }
+  }
+
+  /**
+   * A field of the builder, which corresponds to one parameter of the annotated element.
+   */
+  static final class Field {
+    private final String name;
+    private final String finishType;
+    private final boolean primitive;
+    private final boolean required;
+    private final String initialValue;
+    private final boolean copyable;
+    private final @Nullable String styleClass;
+    private final @Nullable String copyMethod;
+    private final @Nullable TypeInference inference;
+    private final List<Modifier> modifiers;
+
+    private Field(String name, String finishType, boolean primitive, boolean required,
+        String initialValue, boolean copyable, @Nullable String styleClass,
+        @Nullable String copyMethod, @Nullable TypeInference inference, List<Modifier> modifiers) {
+      this.name = Preconditions.checkNotNull(name);
+      this.finishType = Preconditions.checkNotNull(finishType);
+      this.primitive = primitive;
+      this.required = required;
+      this.initialValue = Preconditions.checkNotNull(initialValue);
+      this.copyable = copyable;
+      this.styleClass = styleClass;
+      this.copyMethod = copyMethod;
+      this.inference = inference;
+      this.modifiers = Collections.unmodifiableList(new ArrayList<>(modifiers));
+    }
+
+    static Field plain(String name, String finishType, boolean primitive, boolean required,
+        String initialValue) {
+      return new Field(name, finishType, primitive, required, initialValue,
+          true, null, null, null, Collections.<Modifier>emptyList());
+    }
+
+    static Field styled(String name, String finishType, boolean primitive, String styleClass,
+        @Nullable String copyMethod, TypeInference inference, List<Modifier> modifiers) {
+      return new Field(name, finishType, primitive, false, styleClass + ".start()",
+          copyMethod != null, Preconditions.checkNotNull(styleClass), copyMethod,
+          Preconditions.checkNotNull(inference), modifiers);
+    }
+
+    String name() {
+      return name;
+    }
+
+    /**
+     * The type of the parameter on the annotated element, which is what the style's
+     * {@code finish} method must return.
+     */
+    String finishType() {
+      return finishType;
+    }
+
+    /**
+     * Whether {@link #finishType()} is a primitive type.
+     */
+    boolean primitive() {
+      return primitive;
+    }
+
+    /**
+     * Whether the field must be set before the builder is built, if the builder checks that. Only
+     * fields without a style can be required, since a styled field always has the value its
+     * style's {@code start} method returns.
+     */
+    boolean required() {
+      return required;
+    }
+
+    /**
+     * The expression that gives the field the value it has in a new builder.
+     */
+    String initialValue() {
+      return initialValue;
+    }
+
+    /**
+     * Whether the field can be copied into a template and back. Fields without a style are copied
+     * by assignment, and styled fields through their style's {@link #copyMethod()}.
+     */
+    boolean copyable() {
+      return copyable;
+    }
+
+    /**
+     * The name of the {@link BuilderStyle.Copy} method of the field's style, or {@code null} if the
+     * field has no style or its style has no such method.
+     */
+    @Nullable String copyMethod() {
+      return copyMethod;
+    }
+
+    /**
+     * The qualified name of the field's style class, or {@code null} if the field has no style.
+     */
+    @Nullable String styleClass() {
+      return styleClass;
+    }
+
+    @Nullable TypeInference inference() {
+      return inference;
+    }
+
+    /**
+     * The modifiers of the field's style, in the order used by {@link TypeInference}.
+     */
+    List<Modifier> modifiers() {
+      return modifiers;
+    }
+  }
+
+  /**
+   * The names used by the {@code buildAsync} and static {@code buildAll} methods of a builder, and
+   * by the private methods that prepare a call for them.
+   */
+  static final class Async {
+    private final String prepareMethodName;
+    private final String callMethodName;
+    private final String executorName;
+    private final String buildersName;
+    private final String maxConcurrencyName;
+    private final String callsName;
+    private final String builderName;
+    private final String resultType;
+
+    Async(String prepareMethodName, String callMethodName, String executorName,
+        String buildersName, String maxConcurrencyName, String callsName, String builderName,
+        String resultType) {
+      this.prepareMethodName = Preconditions.checkNotNull(prepareMethodName);
+      this.callMethodName = Preconditions.checkNotNull(callMethodName);
+      this.executorName = Preconditions.checkNotNull(executorName);
+      this.buildersName = Preconditions.checkNotNull(buildersName);
+      this.maxConcurrencyName = Preconditions.checkNotNull(maxConcurrencyName);
+      this.callsName = Preconditions.checkNotNull(callsName);
+      this.builderName = Preconditions.checkNotNull(builderName);
+      this.resultType = Preconditions.checkNotNull(resultType);
+    }
+
+    /**
+     * The name of the instance method that finishes every field and returns the prepared call.
+     */
+    String prepareMethodName() {
+      return prepareMethodName;
+    }
+
+    /**
+     * The name of the static method that makes the {@code Callable} for a prepared call from the
+     * context and the finished arguments.
+     */
+    String callMethodName() {
+      return callMethodName;
+    }
+
+    /**
+     * The name of the {@code Executor} parameter of {@code buildAsync}.
+     */
+    String executorName() {
+      return executorName;
+    }
+
+    /**
+     * The name of the parameter of {@code buildAll} that holds the builders.
+     */
+    String buildersName() {
+      return buildersName;
+    }
+
+    /**
+     * The name of the parameter of {@code buildAll} that bounds how many calls run at once.
+     */
+    String maxConcurrencyName() {
+      return maxConcurrencyName;
+    }
+
+    /**
+     * The name of the list of prepared calls in {@code buildAll}.
+     */
+    String callsName() {
+      return callsName;
+    }
+
+    /**
+     * The name of the loop variable in {@code buildAll}.
+     */
+    String builderName() {
+      return builderName;
+    }
+
+    /**
+     * The result type of the prepared calls, which is the return type of the build method, boxed
+     * if it is primitive, or {@code java.lang.Void}.
+     */
+    String resultType() {
+      return resultType;
+    }
+  }
+
+  private final ExecutableElement element;
+  private final String packageName;
+  private final String className;
+  private final String alligator;
+  private final String alligatorWithBounds;
+  private final @Nullable Context context;
+  private final List<Field> fields;
+  private final List<String> presenceFieldNames;
+  private final boolean checkRequired;
+  private final @Nullable Pool pool;
+  private final boolean freezable;
+  private final @Nullable Batch batch;
+  private final @Nullable Async async;
+  private final String returnType;
+  private final boolean returnsVoid;
+  private final String methodName;
+  private final String invocation;
+
+  BuilderSpec(ExecutableElement element, String packageName, String className, String alligator,
+      String alligatorWithBounds, @Nullable Context context, List<Field> fields,
+      List<String> presenceFieldNames, boolean checkRequired, @Nullable Pool pool,
+      boolean freezable, @Nullable Batch batch, @Nullable Async async, String returnType,
+      boolean returnsVoid, String methodName, String invocation) {
+    this.element = Preconditions.checkNotNull(element);
+    this.packageName = Preconditions.checkNotNull(packageName);
+    this.className = Preconditions.checkNotNull(className);
+    this.alligator = Preconditions.checkNotNull(alligator);
+    this.alligatorWithBounds = Preconditions.checkNotNull(alligatorWithBounds);
+    this.context = context;
+    this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+    this.presenceFieldNames = Collections.unmodifiableList(new ArrayList<>(presenceFieldNames));
+    this.checkRequired = checkRequired;
+    this.pool = pool;
+    this.freezable = freezable;
+    this.batch = batch;
+    this.async = async;
+    this.returnType = Preconditions.checkNotNull(returnType);
+    this.returnsVoid = returnsVoid;
+    this.methodName = Preconditions.checkNotNull(methodName);
+    this.invocation = Preconditions.checkNotNull(invocation);
+  }
+
+  /**
+   * The annotated element, which is the originating element of the generated source.
+   */
+  ExecutableElement element() {
+    return element;
+  }
+
+  /**
+   * The package of the generated builder, or the empty string for the default package.
+   */
+  String packageName() {
+    return packageName;
+  }
+
+  String className() {
+    return className;
+  }
+
+  String canonicalName() {
+    return packageName.isEmpty() ? className : (packageName + "." + className);
+  }
+
+  /**
+   * The type parameters to place on the builder, without the "extends ..." bounds.
+   */
+  String alligator() {
+    return alligator;
+  }
+
+  /**
+   * The type parameters to place on the builder, with the "extends ..." bounds.
+   */
+  String alligatorWithBounds() {
+    return alligatorWithBounds;
+  }
+
+  @Nullable Context context() {
+    return context;
+  }
+
+  List<Field> fields() {
+    return fields;
+  }
+
+  /**
+   * The names of the {@code long} fields of the builder that record which of {@link #fields()}
+   * have been set. Field {@code i} is bit {@code i % 64} of the presence field {@code i / 64}.
+   */
+  List<String> presenceFieldNames() {
+    return presenceFieldNames;
+  }
+
+  /**
+   * Whether the build method checks that every {@link Field#required() required} field was set.
+   */
+  boolean checkRequired() {
+    return checkRequired;
+  }
+
+  /**
+   * The pool of the builder if it is reusable, or {@code null} if it is not.
+   */
+  @Nullable Pool pool() {
+    return pool;
+  }
+
+  /**
+   * Whether the builder has a {@code freeze()} method and a {@code Template} class. Every field of
+   * such a builder is {@link Field#copyable() copyable}.
+   */
+  boolean freezable() {
+    return freezable;
+  }
+
+  /**
+   * The names used by the builder's {@code Batch} class, or {@code null} if it has none.
+   */
+  @Nullable Batch batch() {
+    return batch;
+  }
+
+  /**
+   * The names used by the builder's asynchronous and parallel build methods, or {@code null} if it
+   * has none.
+   */
+  @Nullable Async async() {
+    return async;
+  }
+
+  /**
+   * The return type of the generated build method.
+   */
+  String returnType() {
+    return returnType;
+  }
+
+  boolean returnsVoid() {
+    return returnsVoid;
+  }
+
+  /**
+   * The name of the generated build method.
+   */
+  String methodName() {
+    return methodName;
+  }
+
+  /**
+   * The return expression of the generated build method, minus the argument list.
+   */
+  String invocation() {
+    return invocation;
+  }
+}
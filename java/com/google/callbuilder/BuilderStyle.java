@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class that is meant to be used as the style of a {@link BuilderField}. When the class is
+ * compiled with {@code StyleDescriptorProcessor} on the processor path, its start, finish and
+ * modifier methods are checked and described in a resource next to its class file. Compilations
+ * that use the style from the class path then read that resource instead of examining the
+ * members of the class. Styles without this annotation work the same way, only without the
+ * resource.
+ */
+@Target({ElementType.TYPE})
+public @interface BuilderStyle {
+  /**
+   * Marks the copy hook of a style class, which gives each builder made from the template of a
+   * {@link CallBuilder#freezable() freezable} builder its own accumulator. The method must be
+   * public and static, take the accumulator as its only parameter, and return a new accumulator of
+   * the type {@code start()} returns, with the same contents. It is not a modifier. Methods without
+   * this annotation are never the copy hook, whatever their name, and can be used on styles that
+   * are not annotated with {@code BuilderStyle}.
+   */
+  @Target({ElementType.METHOD})
+  @interface Copy {}
+}
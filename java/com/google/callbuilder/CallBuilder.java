@@ -21,4 +21,43 @@ public @interface CallBuilder {
   String className() default "";
   String methodName() default "build";
   String contextName() default "context";
+
+  /**
+   * Whether the generated build method throws an {@link IllegalStateException} if a parameter that
+   * is not annotated {@code @Nullable} and has no style was never set.
+   */
+  boolean checkRequired() default false;
+
+  /**
+   * Whether the generated builder can be used for more than one call. Such a builder has a
+   * {@code reset()} method, which returns it to the state of a new builder, and static
+   * {@code acquire} and {@code release} methods, which keep one reset builder for each thread.
+   */
+  boolean reusable() default false;
+
+  /**
+   * Whether the generated builder has a {@code freeze()} method, which returns an immutable
+   * {@code Template} of the builder's current state. Each call to {@code Template.newBuilder()}
+   * returns a new builder in that state, so only the arguments that vary need to be set on it. The
+   * style of every styled parameter must have a {@code copy} method.
+   */
+  boolean freezable() default false;
+
+  /**
+   * Whether the generated builder has a nested {@code Batch} class, which buffers the arguments of
+   * many calls in one array per parameter and makes all of the calls in one loop. Primitive
+   * arguments are kept in primitive arrays, so they are never boxed. Styled parameters are set to
+   * their final values rather than through the style's modifiers.
+   */
+  boolean batch() default false;
+
+  /**
+   * Whether the generated builder has a {@code buildAsync(Executor)} method, which returns a
+   * {@code CompletableFuture} of the result, and a static {@code buildAll(builders,
+   * maxConcurrency)} method, which makes the calls of many builders with at most
+   * {@code maxConcurrency} of them running at once and returns the results in order. Both finish
+   * the builders' fields on the calling thread, so a builder can be changed or released as soon
+   * as they return. The calls of {@code buildAll} run on virtual threads if the runtime has them.
+   */
+  boolean async() default false;
 }
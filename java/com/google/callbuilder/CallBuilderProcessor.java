@@ -15,19 +15,29 @@ package com.google.callbuilder;
 
 import static javax.lang.model.element.Modifier.STATIC;
 
-import com.google.callbuilder.util.Preconditions;
+import com.google.callbuilder.ProcessorStatistics.Phase;
+import com.google.callbuilder.SourceEmitter.Template;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
@@ -37,13 +47,119 @@ import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.TypeParameterElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
 
 public class CallBuilderProcessor extends AbstractProcessor {
+  /**
+   * When this option is set to {@code true}, the processor reports the hit and miss counts of its
+   * caches as a note once processing is over.
+   */
+  static final String CACHE_STATS_OPTION = "callbuilder.cacheStats";
+
+  /**
+   * The number of threads on which to render builders. With the default of 1, each builder is
+   * rendered and written before the next one is analyzed. With a higher value, all builders of a
+   * round are analyzed on the compiler thread, rendered on a fork-join pool of this size, and then
+   * written on the compiler thread in the same order as before, so the output is identical.
+   */
+  static final String PARALLELISM_OPTION = "callbuilder.parallelism";
+
+  /**
+   * A path to which the processor writes a summary of its {@link #statistics()} once processing is
+   * over, including the builders that took the longest to generate.
+   */
+  static final String STATS_FILE_OPTION = "callbuilder.statsFile";
+
+  /**
+   * A directory in which the processor keeps the source of every builder it generates, keyed by a
+   * hash of everything the source depends on. Builders whose inputs have not changed since they
+   * were stored are copied from the directory instead of being generated again. The directory can
+   * be shared by any number of compilations, including concurrent ones.
+   */
+  static final String CACHE_DIR_OPTION = "callbuilder.cacheDir";
+
+  /**
+   * The number of builders listed in the file written for {@link #STATS_FILE_OPTION}.
+   */
+  private static final int STATS_FILE_BUILDERS = 20;
+
+  private final ProcessorStatistics statistics = new ProcessorStatistics();
+  private final ClassLoader descriptorLoader;
+  private FieldStyleCache fieldStyleCache;
+  private TypeInferenceCache typeInferenceCache;
+  private @Nullable GenerationCache generationCache;
+  private int parallelism;
+  private @Nullable ForkJoinPool pool;
+
+  public CallBuilderProcessor() {
+    this(CallBuilderProcessor.class.getClassLoader());
+  }
+
+  /**
+   * Creates a processor that reads the {@link StyleDescriptor}s of styles from
+   * {@code descriptorLoader} instead of the class loader of the processor.
+   */
+  CallBuilderProcessor(ClassLoader descriptorLoader) {
+    this.descriptorLoader = descriptorLoader;
+  }
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    fieldStyleCache = new FieldStyleCache(statistics, descriptorLoader,
+        processingEnv.getMessager(), processingEnv.getElementUtils());
+    typeInferenceCache = new TypeInferenceCache(statistics);
+    parallelism = parallelismOption();
+    String cacheDir = processingEnv.getOptions().get(CACHE_DIR_OPTION);
+    if (cacheDir != null) {
+      generationCache = new GenerationCache(
+          new File(cacheDir).toPath(), processingEnv.getElementUtils(), fieldStyleCache);
+    }
+  }
+
+  private int parallelismOption() {
+    String value = processingEnv.getOptions().get(PARALLELISM_OPTION);
+    if (value == null) {
+      return 1;
+    }
+    try {
+      int parsed = Integer.parseInt(value.trim());
+      if (parsed >= 1) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below.
+    }
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, String.format(
+        "-A%s must be a positive integer but was '%s'; rendering builders sequentially",
+        PARALLELISM_OPTION, value));
+    return 1;
+  }
+
+  @Override
+  public Set<String> getSupportedOptions() {
+    Set<String> options = new HashSet<>();
+    options.add(CACHE_DIR_OPTION);
+    options.add(CACHE_STATS_OPTION);
+    options.add(PARALLELISM_OPTION);
+    options.add(STATS_FILE_OPTION);
+    return options;
+  }
+
+  /**
+   * Returns the time this processor has spent in each of its phases and the amount of work it has
+   * done so far. The returned object keeps being updated as processing continues.
+   */
+  public ProcessorStatistics statistics() {
+    return statistics;
+  }
+
   @Override
   public Set<String> getSupportedAnnotationTypes() {
     Set<String> types = new HashSet<>();
@@ -58,6 +174,16 @@ public class CallBuilderProcessor extends AbstractProcessor {
 
   @Override
   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    fieldStyleCache.addSourceTypes(roundEnv.getRootElements());
+    typeInferenceCache.startRound();
+    if (roundEnv.processingOver()) {
+      reportCacheStats();
+      writeStatsFile();
+      if (pool != null) {
+        pool.shutdown();
+        pool = null;
+      }
+    }
     boolean claimed = (annotations.size() == 1
         && annotations.iterator().next().getQualifiedName().toString().equals(
             CallBuilder.class.getName()));
@@ -69,11 +195,52 @@ public class CallBuilderProcessor extends AbstractProcessor {
     }
   }
 
+  private void reportCacheStats() {
+    if (Boolean.parseBoolean(processingEnv.getOptions().get(CACHE_STATS_OPTION))) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, String.format(
+          "CallBuilder FieldStyle cache: %d hits, %d misses",
+          fieldStyleCache.hits(), fieldStyleCache.misses()));
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, String.format(
+          "CallBuilder TypeInference cache: %d hits, %d misses",
+          typeInferenceCache.hits(), typeInferenceCache.misses()));
+      if (generationCache != null) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, String.format(
+            "CallBuilder generation cache: %d hits, %d misses",
+            generationCache.hits(), generationCache.misses()));
+      }
+    }
+  }
+
+  private void writeStatsFile() {
+    String path = processingEnv.getOptions().get(STATS_FILE_OPTION);
+    if (path == null) {
+      return;
+    }
+    String summary = String.format("%s%n"
+        + "FieldStyle cache: %d hits, %d misses%n"
+        + "Style descriptors loaded: %d%n"
+        + "TypeInference cache: %d hits, %d misses%n",
+        statistics.summary(STATS_FILE_BUILDERS),
+        fieldStyleCache.hits(), fieldStyleCache.misses(), fieldStyleCache.descriptorsLoaded(),
+        typeInferenceCache.hits(), typeInferenceCache.misses());
+    if (generationCache != null) {
+      summary += String.format("Generation cache: %d hits, %d misses%n",
+          generationCache.hits(), generationCache.misses());
+    }
+    try (Writer wrt = new OutputStreamWriter(
+        Files.newOutputStream(new File(path).toPath()), StandardCharsets.UTF_8)) {
+      wrt.write(summary);
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, String.format(
+          "Could not write CallBuilder statistics to %s: %s", path, e));
+    }
+  }
+
   static String capitalizeFirst(String s) {
     return s.substring(0, 1).toUpperCase() + s.substring(1);
   }
 
-  List<String> simpleNames(Iterable<? extends Element> elements) {
+  static List<String> simpleNames(Iterable<? extends Element> elements) {
     List<String> names = new ArrayList<>();
     for (Element el : elements) {
       names.add(el.getSimpleName().toString());
@@ -81,19 +248,6 @@ public class CallBuilderProcessor extends AbstractProcessor {
     return names;
   }
 
-  private static String lines(String... separated) {
-    StringBuilder joined = new StringBuilder();
-    for (String line : separated) {
-      joined.append(line);
-      joined.append('\n');
-    }
-    return joined.toString();
-  }
-
-  private static void writef(Writer writer, String format, Object... args) throws IOException {
-    writer.write(String.format(format, (Object[]) args));
-  }
-
   private List<ExecutableElement> callbuilderElements(RoundEnvironment roundEnv) {
     Collection<? extends Element> unfiltered =
         roundEnv.getElementsAnnotatedWith(CallBuilder.class);
@@ -103,30 +257,6 @@ public class CallBuilderProcessor extends AbstractProcessor {
     return elements;
   }
 
-  /**
-   * Information about the context of the builder. This only applies to non-static, non-constructor
-   * methods for which a builder is being generated. If an @{@link CallBuilder}-annotated method is
-   * not static, then the generated builder must choose on which object to call the method. This is
-   * passed as a constructor argument to the builder.
-   */
-  private static final class Context {
-    private final TypeMirror type;
-    private final String builderFieldName;
-
-    Context(TypeMirror type, String builderFieldName) {
-      this.type = Preconditions.checkNotNull(type);
-      this.builderFieldName = Preconditions.checkNotNull(builderFieldName);
-    }
-
-    public TypeMirror getType() {
-      return type;
-    }
-
-    public String getBuilderFieldName() {
-      return builderFieldName;
-    }
-  }
-
   private static StringBuilder joinOn(
       StringBuilder builder, String delimiter, Iterable<?> elements) {
     int added = 0;
@@ -144,22 +274,22 @@ public class CallBuilderProcessor extends AbstractProcessor {
   private static final class TypeParameters {
     private final List<TypeParameterElement> classParameters;
     private final List<TypeParameterElement> methodParameters;
-    private final @Nullable Context context;
+    private final boolean hasContext;
     private final boolean isConstructor;
 
     TypeParameters(List<? extends TypeParameterElement> classParameters,
         List<? extends TypeParameterElement> methodParameters,
-        @Nullable Context context,
+        boolean hasContext,
         boolean isConstructor) {
       this.classParameters = Collections.unmodifiableList(new ArrayList<>(classParameters));
       this.methodParameters = Collections.unmodifiableList(new ArrayList<>(methodParameters));
-      this.context = context;
+      this.hasContext = hasContext;
       this.isConstructor = isConstructor;
     }
 
     private List<TypeParameterElement> allParameters() {
       List<TypeParameterElement> allParameters = new ArrayList<>();
-      if ((context != null) || isConstructor) {
+      if (hasContext || isConstructor) {
         allParameters.addAll(classParameters);
       }
       allParameters.addAll(methodParameters);
@@ -200,157 +330,1107 @@ public class CallBuilderProcessor extends AbstractProcessor {
       }
       return alligator.append(">").toString();
     }
+
+    /**
+     * A wildcard for each type parameter of the builder, such as "<?, ?>".
+     */
+    String wildcards() {
+      int count = allParameters().size();
+      if (count == 0) {
+        return "";
+      }
+      StringBuilder wildcards = new StringBuilder("<?");
+      for (int i = 1; i < count; i++) {
+        wildcards.append(", ?");
+      }
+      return wildcards.append(">").toString();
+    }
   }
 
+  private static final Template PACKAGE = Template.of(
+      "package %s;",
+      "");
+  private static final Template CLASS_HEADER = Template.of(
+      "@javax.annotation.Generated(\"%s\")",
+      "public final class %s%s {");
+  private static final Template CONTEXT = Template.of(
+      "  private %s%s %s;");
+  private static final Template CONSTRUCTOR_HEADER = Template.of(
+      "  public %s(%s) {");
+  private static final Template CONSTRUCTOR_CONTEXT = Template.of(
+      "    %s = %s;");
+  private static final Template CLOSE_METHOD = Template.of(
+      "  }");
+  private static final Template PRESENCE_FIELD = Template.of(
+      "  private long %s;");
+  private static final Template UNINITIALIZED_FIELD = Template.of(
+      "  private %s %s;");
+  private static final Template STYLED_FIELD = Template.of(
+      "  private %s %s = %s;");
+  private static final Template MODIFIER = Template.of(
+      "  public %s%s %s%s(%s) {",
+      "    this.%s = %s.%s(%s);",
+      "    this.%s |= %s;",
+      "    return this;",
+      "  }");
+  private static final Template SETTER = Template.of(
+      "  private %s %s;",
+      "  public %s%s set%s(%s %s) {",
+      "    this.%s = %s;",
+      "    this.%s |= %s;",
+      "    return this;",
+      "  }");
+  private static final Template IS_SET = Template.of(
+      "  public boolean is%sSet() {",
+      "    return (%s & %s) != 0;",
+      "  }");
+  private static final Template ASSIGN_FIELD = Template.of(
+      "    this.%s = %s;");
+  private static final Template RESET_HEADER = Template.of(
+      "  public %s%s reset() {");
+  private static final Template RESET_FOOTER = Template.of(
+      "    return this;",
+      "  }");
+  private static final Template POOL = Template.of(
+      "  private static final ThreadLocal<%s> %s = new ThreadLocal<%s>();",
+      "  private boolean %s;");
+  private static final Template ACQUIRE_HEADER = Template.of(
+      "  public static %s%s%s acquire(%s) {",
+      "    %s%s%s %s = %s%s.get();",
+      "    if (%s == null) {",
+      "      %s = new %s%s(%s);",
+      "      %s.set(%s);",
+      "    } else if (%s.%s) {",
+      "      return new %s%s(%s);",
+      "    }",
+      "    %s.%s = true;");
+  private static final Template ACQUIRE_CONTEXT = Template.of(
+      "    %s.%s = %s;");
+  private static final Template ACQUIRE_FOOTER = Template.of(
+      "    return %s;",
+      "  }");
+  private static final Template RELEASE_HEADER = Template.of(
+      "  public static void release(%s %s) {");
+  private static final Template RELEASE_CONTEXT = Template.of(
+      "    %s.%s = null;");
+  private static final Template RELEASE_FOOTER = Template.of(
+      "    %s.reset().%s = false;",
+      "  }");
+  private static final Template TEMPLATE_HEADER = Template.of(
+      "  public static final class Template%s {");
+  private static final Template TEMPLATE_FIELD = Template.of(
+      "    private final %s %s;");
+  private static final Template TEMPLATE_CONSTRUCTOR_HEADER = Template.of(
+      "    private Template(%s%s builder) {");
+  private static final Template TEMPLATE_ASSIGN_FIELD = Template.of(
+      "      this.%s = %s;");
+  private static final Template TEMPLATE_FOOTER = Template.of(
+      "    }",
+      "    public %s%s newBuilder() {",
+      "      return new %s%s(this);",
+      "    }",
+      "  }");
+  private static final Template FROM_TEMPLATE_HEADER = Template.of(
+      "  private %s(Template%s template) {");
+  private static final Template FREEZE = Template.of(
+      "  public Template%s freeze() {",
+      "    return new Template%s(this);",
+      "  }");
+  private static final Template BATCH_HEADER = Template.of(
+      "  public static final class Batch%s {",
+      "    private int %s;",
+      "    private int %s;");
+  private static final Template BATCH_FIELD = Template.of(
+      "    private %s %s;");
+  private static final Template BATCH_CONSTRUCTOR_HEADER = Template.of(
+      "    public Batch(%sint %s) {",
+      "      this.%s = (int) Math.min(Math.max(%s, 0) + 1L, Integer.MAX_VALUE - 8);");
+  private static final Template BATCH_ASSIGN_FIELD = Template.of(
+      "      this.%s = %s;");
+  private static final Template BATCH_CLOSE_METHOD = Template.of(
+      "    }");
+  private static final Template BATCH_SETTER = Template.of(
+      "    public Batch%s set%s(%s %s) {",
+      "      this.%s[this.%s] = %s;",
+      "      return this;",
+      "    }");
+  private static final Template BATCH_ADD_ROW_HEADER = Template.of(
+      "    public Batch%s addRow() {",
+      "      if (++this.%s == this.%s) {",
+      "        if (this.%s == Integer.MAX_VALUE - 8) {",
+      "          this.%s--;",
+      "          throw new IllegalStateException(\"Batch cannot hold more rows\");",
+      "        }",
+      "        this.%s = (int) Math.min(this.%s + 1L + (this.%s >> 1), Integer.MAX_VALUE - 8);");
+  private static final Template BATCH_GROW_COLUMN = Template.of(
+      "        this.%s = java.util.Arrays.copyOf(this.%s, this.%s);");
+  private static final Template BATCH_ADD_ROW_FOOTER = Template.of(
+      "      }",
+      "      return this;",
+      "    }",
+      "    public int size() {",
+      "      return this.%s;",
+      "    }",
+      "    public Batch%s clear() {");
+  private static final Template BATCH_CLEAR_COLUMN = Template.of(
+      "      java.util.Arrays.fill(this.%s, 0, this.%s + 1, %s);");
+  private static final Template BATCH_CLEAR_FOOTER = Template.of(
+      "      this.%s = 0;",
+      "      return this;",
+      "    }");
+  private static final Template BATCH_BUILD_ALL = Template.of(
+      "    @SuppressWarnings(\"unchecked\")",
+      "    public java.util.List<%s> buildAll() {",
+      "      java.util.List<%s> %s = new java.util.ArrayList<%s>(this.%s);",
+      "      for (int %s = 0; %s < this.%s; %s++) {",
+      "        %s.add(%s(%s));",
+      "      }",
+      "      return %s;",
+      "    }",
+      "  }");
+  private static final Template BATCH_BUILD_ALL_VOID = Template.of(
+      "    @SuppressWarnings(\"unchecked\")",
+      "    public void buildAll() {",
+      "      for (int %s = 0; %s < this.%s; %s++) {",
+      "        %s(%s);",
+      "      }",
+      "    }",
+      "  }");
+  private static final Template PREPARE_HEADER = Template.of(
+      "  private java.util.concurrent.Callable<%s> %s() {");
+  private static final Template PREPARE_FOOTER = Template.of(
+      "    return %s(%s);",
+      "  }");
+  private static final Template CALL_HEADER = Template.of(
+      "  private static %sjava.util.concurrent.Callable<%s> %s(%s) {",
+      "    return new java.util.concurrent.Callable<%s>() {",
+      "      @Override",
+      "      public %s call() {");
+  private static final Template CALL_INVOCATION = Template.of(
+      "        return %s(%s);");
+  private static final Template CALL_VOID_INVOCATION = Template.of(
+      "        %s(%s);",
+      "        return null;");
+  private static final Template CALL_FOOTER = Template.of(
+      "      }",
+      "    };",
+      "  }");
+  private static final Template BUILD_ASYNC = Template.of(
+      "  public java.util.concurrent.CompletableFuture<%s> buildAsync(",
+      "      java.util.concurrent.Executor %s) {",
+      "    return com.google.callbuilder.ParallelCalls.submit(%s(), %s);",
+      "  }",
+      "  public static %s%s buildAll(",
+      "      java.lang.Iterable<? extends %s%s> %s, int %s) {",
+      "    java.util.List<java.util.concurrent.Callable<%s>> %s =",
+      "        new java.util.ArrayList<java.util.concurrent.Callable<%s>>();",
+      "    for (%s%s %s : %s) {",
+      "      %s.add(%s.%s());",
+      "    }",
+      "    %scom.google.callbuilder.ParallelCalls.invokeAll(%s, %s);",
+      "  }");
+  private static final Template BUILD_METHOD = Template.of(
+      "  public %s %s() {");
+  private static final Template REQUIRED_CHECK = Template.of(
+      "    if (%s) {",
+      "      throw new IllegalStateException(\"Missing required parameters:\"%s);",
+      "    }");
+  private static final Template BUILD_INVOCATION = Template.of(
+      "    %s%s(%s);",
+      "  }",
+      "}");
+
+  /**
+   * Initial capacity of the buffer into which each builder is rendered. The buffer is reused for
+   * every builder rendered on the same thread, so it only grows as far as the largest generated
+   * class.
+   */
+  private static final int INITIAL_SOURCE_CAPACITY = 8192;
+
+  private final SourceEmitter emitter = new SourceEmitter(INITIAL_SOURCE_CAPACITY);
+
   private void process(RoundEnvironment roundEnv) {
     Elements elementUtils = processingEnv.getElementUtils();
 
-    for (ExecutableElement el : callbuilderElements(roundEnv)) {
-      boolean isConstructor = el.getSimpleName().toString().equals("<init>");
-      TypeElement enclosingType = (TypeElement) el.getEnclosingElement();
-      UniqueSymbols uniqueSymbols = new UniqueSymbols.Builder()
-          .addAllUserDefined(simpleNames(el.getParameters()))
-          .build();
-      Context context = null;
-      if (!isConstructor && !el.getModifiers().contains(STATIC)) {
-        context = new Context(enclosingType.asType(), uniqueSymbols.get(""));
+    List<ExecutableElement> elements;
+    ProcessorStatistics.Span discovery = statistics.start(Phase.DISCOVERY);
+    try {
+      elements = callbuilderElements(roundEnv);
+    } finally {
+      discovery.end();
+    }
+
+    List<BuilderSpec> specs = new ArrayList<>();
+    // The generation cache key of each spec, or null if there is no generation cache.
+    List<String> keys = new ArrayList<>();
+    try {
+      for (ExecutableElement el : elements) {
+        statistics.addElement();
+        String key = null;
+        if (generationCache != null) {
+          String canonicalName = canonicalName(el);
+          String cached;
+          ProcessorStatistics.Span lookup =
+              statistics.start(Phase.GENERATION_CACHE, canonicalName);
+          try {
+            key = generationCache.key(el);
+            cached = generationCache.get(key);
+          } finally {
+            lookup.end();
+          }
+          if (cached != null) {
+            write(canonicalName, el, cached);
+            continue;
+          }
+        }
+        BuilderSpec spec = spec(elementUtils, el);
+        if (spec != null) {
+          specs.add(spec);
+          keys.add(key);
+        }
+      }
+
+      if (parallelism > 1 && specs.size() > 1) {
+        List<String> sources = renderInParallel(specs);
+        for (int i = 0; i < specs.size(); i++) {
+          BuilderSpec spec = specs.get(i);
+          write(spec.canonicalName(), spec.element(), sources.get(i));
+          store(keys.get(i), spec, sources.get(i));
+        }
+      } else {
+        for (int i = 0; i < specs.size(); i++) {
+          BuilderSpec spec = specs.get(i);
+          emitter.reset();
+          render(spec, emitter, statistics);
+          write(spec, emitter);
+          if (keys.get(i) != null) {
+            store(keys.get(i), spec, emitter.toString());
+          }
+        }
       }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Stores the source of a builder in the generation cache under {@code key}, unless {@code key} is
+   * {@code null}. Failing to store it only costs time in later compilations, so it is reported as a
+   * warning.
+   */
+  private void store(@Nullable String key, BuilderSpec spec, String source) {
+    if (key == null) {
+      return;
+    }
+    ProcessorStatistics.Span span =
+        statistics.start(Phase.GENERATION_CACHE, spec.canonicalName());
+    try {
+      generationCache.put(key, source);
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, String.format(
+          "Could not store the CallBuilder output for %s in %s: %s",
+          spec.canonicalName(), processingEnv.getOptions().get(CACHE_DIR_OPTION), e));
+    } finally {
+      span.end();
+    }
+  }
+
+  /**
+   * Returns the simple name of the builder generated for {@code el}.
+   */
+  private static String className(ExecutableElement el, CallBuilder ann) {
+    if (!ann.className().isEmpty()) {
+      return ann.className();
+    } else if (el.getSimpleName().toString().equals("<init>")) {
+      return el.getEnclosingElement().getSimpleName() + "Builder";
+    } else {
+      return capitalizeFirst(el.getSimpleName().toString()) + "Builder";
+    }
+  }
+
+  /**
+   * Returns the canonical name of the builder generated for {@code el}.
+   */
+  private static String canonicalName(ExecutableElement el) {
+    String packageName = packageNameOf(el);
+    String className = className(el, el.getAnnotation(CallBuilder.class));
+    return packageName.isEmpty() ? className : (packageName + "." + className);
+  }
+
+  /**
+   * Extracts everything needed to render the builder for {@code el}. This is where all access to
+   * the compiler's model happens, so it must run on the thread that calls the processor. Returns
+   * {@code null} if an error that prevents generating the builder was reported.
+   */
+  private @Nullable BuilderSpec spec(Elements elementUtils, ExecutableElement el) {
+    boolean isConstructor = el.getSimpleName().toString().equals("<init>");
+    TypeElement enclosingType = (TypeElement) el.getEnclosingElement();
+    UniqueSymbols uniqueSymbols = new UniqueSymbols.Builder()
+        .addAllUserDefined(simpleNames(el.getParameters()))
+        .build();
+    CallBuilder ann = el.getAnnotation(CallBuilder.class);
+    BuilderSpec.Context context = null;
+    if (!isConstructor && !el.getModifiers().contains(STATIC)) {
+      context = new BuilderSpec.Context(
+          enclosingType.asType().toString(), uniqueSymbols.get(""), ann.contextName());
+    }
 
-      TypeParameters typeParameters = new TypeParameters(
-          enclosingType.getTypeParameters(),
-          el.getTypeParameters(),
-          context,
-          isConstructor);
-
-      CallBuilder ann = el.getAnnotation(CallBuilder.class);
-      String className;
-      if (!ann.className().isEmpty()) {
-        className = ann.className();
-      } else if (isConstructor) {
-        className = enclosingType.getSimpleName() + "Builder";
+    List<String> presenceFieldNames = new ArrayList<>();
+    for (int i = 0; i < el.getParameters().size(); i += Long.SIZE) {
+      presenceFieldNames.add(uniqueSymbols.get("presence"));
+    }
+
+    TypeParameters typeParameters = new TypeParameters(
+        enclosingType.getTypeParameters(),
+        el.getTypeParameters(),
+        context != null,
+        isConstructor);
+    String alligator = typeParameters.alligator();
+
+    String className = className(el, ann);
+    BuilderSpec.Pool pool = null;
+    if (ann.reusable()) {
+      pool = new BuilderSpec.Pool(uniqueSymbols.get("pool"), uniqueSymbols.get("acquired"),
+          uniqueSymbols.get("builder"), className + typeParameters.wildcards());
+    }
+    String packageName = packageNameOf(el);
+    String canonicalName = packageName.isEmpty() ? className : (packageName + "." + className);
+    List<BuilderSpec.Field> fields;
+    ProcessorStatistics.Span fieldInfo = statistics.start(Phase.FIELD_INFO, canonicalName);
+    try {
+      fields = fields(elementUtils, el);
+    } finally {
+      fieldInfo.end();
+    }
+    if (fields == null) {
+      return null;
+    }
+    statistics.addFields(fields.size());
+    if (ann.freezable() && !allCopyable(el, fields)) {
+      return null;
+    }
+
+    TypeMirror generatedMethodReturn;
+    String invocation;
+    if (isConstructor) {
+      generatedMethodReturn = enclosingType.asType();
+      invocation = "new " + enclosingType.getQualifiedName() + alligator;
+    } else {
+      generatedMethodReturn = el.getReturnType();
+      invocation = ((context != null)
+          ? context.builderFieldName()
+          : enclosingType.getQualifiedName()) + "." + el.getSimpleName();
+    }
+
+    BuilderSpec.Batch batch = null;
+    if (ann.batch()) {
+      batch = new BuilderSpec.Batch(uniqueSymbols.get("size"), uniqueSymbols.get("capacity"),
+          uniqueSymbols.get("expectedRows"), uniqueSymbols.get("row"),
+          uniqueSymbols.get("results"), resultType(generatedMethodReturn));
+    }
+    BuilderSpec.Async async = null;
+    if (ann.async()) {
+      async = new BuilderSpec.Async(uniqueSymbols.get("prepare"), uniqueSymbols.get("call"),
+          uniqueSymbols.get("executor"), uniqueSymbols.get("builders"),
+          uniqueSymbols.get("maxConcurrency"), uniqueSymbols.get("calls"),
+          uniqueSymbols.get("builder"), resultType(generatedMethodReturn));
+    }
+
+    return new BuilderSpec(el, packageName, className, alligator,
+        typeParameters.alligatorWithBounds(), context, fields,
+        presenceFieldNames, ann.checkRequired(), pool,
+        ann.freezable(), batch, async,
+        generatedMethodReturn.toString(), generatedMethodReturn.getKind() == TypeKind.VOID,
+        ann.methodName(), invocation);
+  }
+
+  /**
+   * Returns the type that holds a result of {@code type} as an object: the boxed type if
+   * {@code type} is primitive, {@code java.lang.Void} if it is {@code void}, and {@code type}
+   * itself otherwise.
+   */
+  private String resultType(TypeMirror type) {
+    if (type.getKind() == TypeKind.VOID) {
+      return Void.class.getName();
+    }
+    if (type.getKind().isPrimitive()) {
+      return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).asType().toString();
+    }
+    return type.toString();
+  }
+
+  /**
+   * Returns whether every field can be copied into a template, reporting an error on the parameter
+   * of each field that cannot.
+   */
+  private boolean allCopyable(ExecutableElement el, List<BuilderSpec.Field> fields) {
+    boolean allCopyable = true;
+    for (int i = 0; i < fields.size(); i++) {
+      BuilderSpec.Field field = fields.get(i);
+      if (!field.copyable()) {
+        allCopyable = false;
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format(
+            "style class %s has no @BuilderStyle.Copy method, which freezable builders need",
+            field.styleClass()), el.getParameters().get(i));
+      }
+    }
+    return allCopyable;
+  }
+
+  /**
+   * Reads the builder fields of {@code el}, looking up the style and encoding the type inference
+   * problems of each styled field. Returns {@code null} if a parameter names a style class that is
+   * not a usable style, whose problems have already been reported.
+   */
+  private @Nullable List<BuilderSpec.Field> fields(Elements elementUtils, ExecutableElement el) {
+    List<BuilderSpec.Field> fields = new ArrayList<>();
+    for (FieldInfo field : FieldInfo.fromAll(elementUtils, fieldStyleCache, el.getParameters())) {
+      if (field.invalidStyle()) {
+        return null;
+      }
+      FieldStyle fieldStyle = field.style();
+      if (fieldStyle != null) {
+        List<BuilderSpec.Modifier> modifiers = new ArrayList<>();
+        for (StyleMethod modifier : fieldStyle.modifiers()) {
+          List<String> parameterNames = modifier.parameterNames();
+          modifiers.add(new BuilderSpec.Modifier(
+              modifier.name(), parameterNames.subList(1, parameterNames.size())));
+        }
+        fields.add(BuilderSpec.Field.styled(field.name(), field.finishType(),
+            field.parameter().asType().getKind().isPrimitive(),
+            qualifiedName(fieldStyle.styleClass()),
+            (fieldStyle.copy() != null) ? fieldStyle.copy().name() : null,
+            typeInferenceCache.forField(fieldStyle, field.parameter()),
+            modifiers));
       } else {
-        className = capitalizeFirst(el.getSimpleName().toString()) + "Builder";
+        TypeMirror type = field.parameter().asType();
+        fields.add(BuilderSpec.Field.plain(field.name(), field.finishType(),
+            type.getKind().isPrimitive(), !field.nullable(), initialValue(type)));
       }
-      String packageName = packageNameOf(el);
-      String generatedCanonicalName =
-          packageName.isEmpty() ? className : (packageName + "." + className);
-      try {
-        JavaFileObject file = processingEnv.getFiler().createSourceFile(generatedCanonicalName, el);
-        try (Writer wrt = file.openWriter()) {
-          if (!packageName.isEmpty()) {
-            writef(wrt, lines(
-                "package %s;",
-                ""),
-                packageName);
-          }
+    }
+    return fields;
+  }
 
-          writef(wrt, lines(
-              "@javax.annotation.Generated(\"%s\")"),
-              CallBuilderProcessor.class.getName());
-          writef(wrt, lines(
-              "public final class %s%s {"),
-              className, typeParameters.alligatorWithBounds());
-
-          if (context != null) {
-            String constructorParameterName = ann.contextName();
-            writef(wrt, lines(
-                "  private final %s %s;",
-                "  public %s(%s %s) {",
-                "    %s = %s;",
-                "  }"),
-                context.getType(), context.getBuilderFieldName(),
-                className, context.getType(), constructorParameterName,
-                context.getBuilderFieldName(), constructorParameterName);
-          }
+  /**
+   * Returns the value that a field of the given type has before it is assigned.
+   */
+  private static String initialValue(TypeMirror type) {
+    if (type.getKind() == TypeKind.BOOLEAN) {
+      return "false";
+    }
+    return type.getKind().isPrimitive() ? "0" : "null";
+  }
+
+  /**
+   * Renders the source of the builder described by {@code spec}. This does not touch the
+   * compiler's model, so it may run on any thread.
+   */
+  static void render(BuilderSpec spec, SourceEmitter emitter, ProcessorStatistics statistics) {
+    ProcessorStatistics.Span span = statistics.start(Phase.RENDER, spec.canonicalName());
+    try {
+      renderUntimed(spec, emitter, statistics);
+    } finally {
+      span.end();
+    }
+  }
 
-          List<FieldInfo> fields = FieldInfo.fromAll(elementUtils, el.getParameters());
-
-          for (FieldInfo field : fields) {
-            if (field.style() != null) {
-              FieldStyle fieldStyle = field.style();
-              TypeInference inference = TypeInference.forField(fieldStyle, field.parameter());
-              if (inference != null) {
-                writef(wrt, lines("  private %s %s = %s.start();"),
-                    inference.builderFieldType(), field.name(),
-                    qualifiedName(fieldStyle.styleClass()));
-                for (ExecutableElement modifier : fieldStyle.modifiers()) {
-                  List<? extends VariableElement> parameters = modifier.getParameters();
-                  List<String> nonFieldParameterNames =
-                      simpleNames(parameters.subList(1, parameters.size()));
-                  List<String> nonFieldParameterTypes =
-                      inference.modifierParameterTypes(modifier);
-                  if (nonFieldParameterTypes != null) {
-                    writef(wrt, lines(
-                            "  public %s%s %s%s(%s) {",
-                            "    this.%s = %s.%s(this.%s, %s);",
-                            "    return this;",
-                            "  }"),
-                        className, typeParameters.alligator(),
-                        modifier.getSimpleName(), capitalizeFirst(field.name()),
-                        parameterList(nonFieldParameterTypes, nonFieldParameterNames),
-
-                        field.name(),
-                        qualifiedName(fieldStyle.styleClass()), modifier.getSimpleName(),
-                        field.name(), joinOn(new StringBuilder(), ", ", nonFieldParameterNames));
-                  }
-                  // TODO: report warning if could not inference parameter types for some modifier.
-                  // TODO: support generic type parameters on the *generated* modifier
-                }
-              }
-              // TODO: report error if TypeInference could not be obtained.
+  private static void renderUntimed(
+      BuilderSpec spec, SourceEmitter emitter, ProcessorStatistics statistics) {
+    String className = spec.className();
+    String alligator = spec.alligator();
+
+    if (!spec.packageName().isEmpty()) {
+      emitter.emit(PACKAGE, spec.packageName());
+    }
+
+    emitter.emit(CLASS_HEADER,
+        CallBuilderProcessor.class.getName(),
+        className, spec.alligatorWithBounds());
+
+    BuilderSpec.Context context = spec.context();
+    if (context != null) {
+      emitter.emit(CONTEXT,
+          (spec.pool() != null) ? "" : "final ", context.type(), context.builderFieldName());
+      if (!spec.freezable()) {
+        emitConstructor(spec, emitter);
+      }
+    }
+
+    List<String> presenceFieldNames = spec.presenceFieldNames();
+    for (String presenceFieldName : presenceFieldNames) {
+      emitter.emit(PRESENCE_FIELD, presenceFieldName);
+    }
+
+    List<BuilderSpec.Field> fields = spec.fields();
+    for (int fieldIndex = 0; fieldIndex < fields.size(); fieldIndex++) {
+      BuilderSpec.Field field = fields.get(fieldIndex);
+      String presenceField = presenceFieldNames.get(fieldIndex / Long.SIZE);
+      String presenceBit = presenceBit(fieldIndex);
+      TypeInference inference = field.inference();
+      if (inference != null) {
+        String builderFieldType = inference.builderFieldType();
+        if (builderFieldType != null) {
+          if (spec.freezable()) {
+            // Initialized by the public constructor, so that builders made from a template do not
+            // start an accumulator only to replace it with a copy.
+            emitter.emit(UNINITIALIZED_FIELD,
+                builderFieldType, field.name());
+          } else {
+            emitter.emit(STYLED_FIELD,
+                builderFieldType, field.name(), field.initialValue());
+          }
+          List<BuilderSpec.Modifier> modifiers = field.modifiers();
+          for (int i = 0; i < modifiers.size(); i++) {
+            BuilderSpec.Modifier modifier = modifiers.get(i);
+            List<String> nonFieldParameterTypes;
+            ProcessorStatistics.Span modifierTypes = statistics.start(Phase.MODIFIER_TYPES);
+            try {
+              nonFieldParameterTypes = inference.modifierParameterTypes(i);
+            } finally {
+              modifierTypes.end();
+            }
+            if (nonFieldParameterTypes == null) {
+              statistics.addModifierDropped();
             } else {
-              writef(wrt, lines(
-                  "  private %s %s;",
-                  "  public %s%s set%s(%s %s) {",
-                  "    this.%s = %s;",
-                  "    return this;",
-                  "  }"),
-                  field.finishType(), field.name(),
-
-                  className, typeParameters.alligator(),
-                  capitalizeFirst(field.name()), field.finishType(), field.name(),
-
-                  field.name(), field.name());
+              statistics.addModifierGenerated();
+              // A modifier may take nothing but the accumulator.
+              List<String> arguments = new ArrayList<>();
+              arguments.add("this." + field.name());
+              arguments.addAll(modifier.nonFieldParameterNames());
+              emitter.emit(MODIFIER,
+                  className, alligator,
+                  modifier.name(), capitalizeFirst(field.name()),
+                  parameterList(nonFieldParameterTypes, modifier.nonFieldParameterNames()),
+
+                  field.name(),
+                  field.styleClass(), modifier.name(), SourceEmitter.joined(", ", arguments),
+
+                  presenceField, presenceBit);
             }
+            // TODO: report warning if could not inference parameter types for some modifier.
+            // TODO: support generic type parameters on the *generated* modifier
           }
+          emitter.emit(IS_SET,
+              capitalizeFirst(field.name()), presenceField, presenceBit);
+        } else {
+          statistics.addStyledFieldDropped();
+        }
+        // TODO: report error if TypeInference could not be obtained.
+      } else {
+        emitter.emit(SETTER,
+            field.finishType(), field.name(),
 
-          TypeMirror generatedMethodReturn;
-          if (isConstructor) {
-            generatedMethodReturn = enclosingType.asType();
-          } else {
-            generatedMethodReturn = el.getReturnType();
+            className, alligator,
+            capitalizeFirst(field.name()), field.finishType(), field.name(),
+
+            field.name(), field.name(),
+
+            presenceField, presenceBit);
+        emitter.emit(IS_SET,
+            capitalizeFirst(field.name()), presenceField, presenceBit);
+      }
+    }
+
+    if (spec.freezable()) {
+      emitConstructor(spec, emitter);
+      emitTemplate(spec, emitter);
+    }
+    if (spec.pool() != null) {
+      emitReuse(spec, emitter);
+    }
+    if (spec.batch() != null) {
+      emitBatch(spec, emitter);
+    }
+    if (spec.async() != null) {
+      emitAsync(spec, emitter);
+    }
+
+    emitter.emit(BUILD_METHOD,
+        spec.returnType(), spec.methodName());
+    if (spec.checkRequired()) {
+      emitRequiredCheck(spec, emitter);
+    }
+    emitter.emit(BUILD_INVOCATION,
+        spec.returnsVoid() ? "" : "return ",
+        spec.invocation(), finishInvocations(spec.fields()));
+  }
+
+  /**
+   * Returns whether the builder has a field for {@code field}. Styled fields whose builder field
+   * type could not be inferred are left out of the builder.
+   */
+  private static boolean hasBuilderField(BuilderSpec.Field field) {
+    TypeInference inference = field.inference();
+    return (inference == null) || (inference.builderFieldType() != null);
+  }
+
+  /**
+   * The type of the builder field for {@code field}, which must {@link #hasBuilderField have one}.
+   */
+  private static String builderFieldType(BuilderSpec.Field field) {
+    TypeInference inference = field.inference();
+    return (inference == null) ? field.finishType() : inference.builderFieldType();
+  }
+
+  /**
+   * Emits the public constructor, which takes the context if there is one. The constructor of a
+   * freezable builder also starts the accumulators of its styled fields.
+   */
+  private static void emitConstructor(BuilderSpec spec, SourceEmitter emitter) {
+    BuilderSpec.Context context = spec.context();
+    emitter.emit(CONSTRUCTOR_HEADER,
+        spec.className(),
+        (context != null) ? context.type() + " " + context.constructorParameterName() : "");
+    if (context != null) {
+      emitter.emit(CONSTRUCTOR_CONTEXT,
+          context.builderFieldName(), context.constructorParameterName());
+    }
+    if (spec.freezable()) {
+      for (BuilderSpec.Field field : spec.fields()) {
+        if (field.styleClass() != null && hasBuilderField(field)) {
+          emitter.emit(ASSIGN_FIELD, field.name(), field.initialValue());
+        }
+      }
+    }
+    emitter.emit(CLOSE_METHOD);
+  }
+
+  /**
+   * Returns an expression that copies {@code field} out of the builder or template
+   * {@code source}.
+   */
+  private static String copyOf(BuilderSpec.Field field, String source) {
+    String value = source + "." + field.name();
+    return (field.styleClass() != null)
+        ? field.styleClass() + "." + field.copyMethod() + "(" + value + ")"
+        : value;
+  }
+
+  /**
+   * Emits the {@code Template} class of a freezable builder, the private constructor that makes a
+   * builder from a template, and {@code freeze()}. A template holds a copy of every field,
+   * including the presence fields and the context. Styled fields are copied through their style
+   * both when a template is made and when a builder is made from it, so neither shares an
+   * accumulator with any builder.
+   */
+  private static void emitTemplate(BuilderSpec spec, SourceEmitter emitter) {
+    String className = spec.className();
+    String alligator = spec.alligator();
+    BuilderSpec.Context context = spec.context();
+
+    emitter.emit(TEMPLATE_HEADER, spec.alligatorWithBounds());
+    if (context != null) {
+      emitter.emit(TEMPLATE_FIELD, context.type(), context.builderFieldName());
+    }
+    for (String presenceFieldName : spec.presenceFieldNames()) {
+      emitter.emit(TEMPLATE_FIELD, "long", presenceFieldName);
+    }
+    for (BuilderSpec.Field field : spec.fields()) {
+      if (hasBuilderField(field)) {
+        emitter.emit(TEMPLATE_FIELD, builderFieldType(field), field.name());
+      }
+    }
+
+    emitter.emit(TEMPLATE_CONSTRUCTOR_HEADER, className, alligator);
+    if (context != null) {
+      emitter.emit(TEMPLATE_ASSIGN_FIELD,
+          context.builderFieldName(), "builder." + context.builderFieldName());
+    }
+    for (String presenceFieldName : spec.presenceFieldNames()) {
+      emitter.emit(TEMPLATE_ASSIGN_FIELD, presenceFieldName, "builder." + presenceFieldName);
+    }
+    for (BuilderSpec.Field field : spec.fields()) {
+      if (hasBuilderField(field)) {
+        emitter.emit(TEMPLATE_ASSIGN_FIELD, field.name(), copyOf(field, "builder"));
+      }
+    }
+    emitter.emit(TEMPLATE_FOOTER,
+        className, alligator,
+        className, alligator);
+
+    emitter.emit(FROM_TEMPLATE_HEADER, className, alligator);
+    if (context != null) {
+      emitter.emit(ASSIGN_FIELD,
+          context.builderFieldName(), "template." + context.builderFieldName());
+    }
+    for (String presenceFieldName : spec.presenceFieldNames()) {
+      emitter.emit(ASSIGN_FIELD, presenceFieldName, "template." + presenceFieldName);
+    }
+    for (BuilderSpec.Field field : spec.fields()) {
+      if (hasBuilderField(field)) {
+        emitter.emit(ASSIGN_FIELD, field.name(), copyOf(field, "template"));
+      }
+    }
+    emitter.emit(CLOSE_METHOD);
+
+    emitter.emit(FREEZE, alligator, alligator);
+  }
+
+  /**
+   * Returns the value to which {@link java.util.Arrays#fill} sets the elements of a column of
+   * {@code field}, which is the value the column's elements have when it is created.
+   */
+  private static String columnFillValue(BuilderSpec.Field field) {
+    if (!field.primitive()) {
+      return "null";
+    }
+    switch (field.finishType()) {
+      case "boolean":
+        return "false";
+      case "byte":
+      case "char":
+      case "short":
+        return "(" + field.finishType() + ") 0";
+      default:
+        return "0";
+    }
+  }
+
+  /**
+   * Emits the {@code Batch} class of a builder. It has one array, or column, per field, which
+   * holds primitive values in a primitive array and anything else in an {@code Object[]}, so the
+   * arguments of each call are spread across the columns at the same row. Every column has the
+   * same length, which is always greater than the number of rows, so the row being set always
+   * fits and {@code addRow()} only checks the length once for all columns. The columns start with
+   * one slot more than the expected number of rows, for the row being set, so a batch of exactly
+   * that many rows never grows. They grow by half, up to the largest array the JVM allows.
+   */
+  private static void emitBatch(BuilderSpec spec, SourceEmitter emitter) {
+    String alligator = spec.alligator();
+    BuilderSpec.Batch batch = spec.batch();
+    BuilderSpec.Context context = spec.context();
+    String size = batch.sizeFieldName();
+    String capacity = batch.capacityFieldName();
+
+    emitter.emit(BATCH_HEADER, spec.alligatorWithBounds(), size, capacity);
+    if (context != null) {
+      emitter.emit(BATCH_FIELD, "final " + context.type(), context.builderFieldName());
+    }
+    for (BuilderSpec.Field field : spec.fields()) {
+      emitter.emit(BATCH_FIELD, columnElementType(field) + "[]", field.name());
+    }
+
+    emitter.emit(BATCH_CONSTRUCTOR_HEADER,
+        (context != null) ? context.type() + " " + context.constructorParameterName() + ", " : "",
+        batch.expectedRowsName(),
+        capacity, batch.expectedRowsName());
+    if (context != null) {
+      emitter.emit(BATCH_ASSIGN_FIELD,
+          context.builderFieldName(), context.constructorParameterName());
+    }
+    for (BuilderSpec.Field field : spec.fields()) {
+      emitter.emit(BATCH_ASSIGN_FIELD,
+          field.name(), "new " + columnElementType(field) + "[this." + capacity + "]");
+    }
+    emitter.emit(BATCH_CLOSE_METHOD);
+
+    for (BuilderSpec.Field field : spec.fields()) {
+      emitter.emit(BATCH_SETTER,
+          alligator, capitalizeFirst(field.name()), field.finishType(), field.name(),
+          field.name(), size, field.name());
+    }
+
+    emitter.emit(BATCH_ADD_ROW_HEADER,
+        alligator, size, capacity, capacity, size, capacity, capacity, capacity);
+    for (BuilderSpec.Field field : spec.fields()) {
+      emitter.emit(BATCH_GROW_COLUMN, field.name(), field.name(), capacity);
+    }
+    emitter.emit(BATCH_ADD_ROW_FOOTER, size, alligator);
+    for (BuilderSpec.Field field : spec.fields()) {
+      // Also clears the row that was being set, which is not counted in the size.
+      emitter.emit(BATCH_CLEAR_COLUMN, field.name(), size, columnFillValue(field));
+    }
+    emitter.emit(BATCH_CLEAR_FOOTER, size);
+
+    String row = batch.rowName();
+    if (spec.returnsVoid()) {
+      emitter.emit(BATCH_BUILD_ALL_VOID,
+          row, row, size, row,
+          spec.invocation(), columnArguments(spec.fields(), row));
+    } else {
+      String results = batch.resultsName();
+      emitter.emit(BATCH_BUILD_ALL,
+          batch.resultType(),
+          batch.resultType(), results, batch.resultType(), size,
+          row, row, size, row,
+          results, spec.invocation(), columnArguments(spec.fields(), row),
+          results);
+    }
+  }
+
+  /**
+   * The element type of the column of {@code field} in a {@code Batch} class.
+   */
+  private static String columnElementType(BuilderSpec.Field field) {
+    return field.primitive() ? field.finishType() : "java.lang.Object";
+  }
+
+  /**
+   * Emits the {@code buildAsync} and static {@code buildAll} methods, which run calls that were
+   * prepared on the calling thread. Preparing a call checks the required fields and finishes
+   * every field, then passes the context and the finished arguments to a static method that
+   * returns a {@code Callable}. That method's parameters have the names of the builder's fields,
+   * so the call inside it is the same expression as in the build method, but it only refers to
+   * values captured when the call was prepared, never to the builder.
+   */
+  private static void emitAsync(BuilderSpec spec, SourceEmitter emitter) {
+    String className = spec.className();
+    String alligator = spec.alligator();
+    BuilderSpec.Async async = spec.async();
+    BuilderSpec.Context context = spec.context();
+    String resultType = async.resultType();
+
+    emitter.emit(PREPARE_HEADER, resultType, async.prepareMethodName());
+    if (spec.checkRequired()) {
+      emitRequiredCheck(spec, emitter);
+    }
+    emitter.emit(PREPARE_FOOTER,
+        async.callMethodName(), callArguments(context, spec.fields()));
+
+    List<String> parameterTypes = new ArrayList<>();
+    List<String> parameterNames = new ArrayList<>();
+    List<String> fieldNames = new ArrayList<>();
+    if (context != null) {
+      parameterTypes.add("final " + context.type());
+      parameterNames.add(context.builderFieldName());
+    }
+    for (BuilderSpec.Field field : spec.fields()) {
+      parameterTypes.add("final " + field.finishType());
+      parameterNames.add(field.name());
+      fieldNames.add(field.name());
+    }
+    String typeParameters = spec.alligatorWithBounds();
+    emitter.emit(CALL_HEADER,
+        typeParameters.isEmpty() ? "" : typeParameters + " ",
+        resultType, async.callMethodName(), parameterList(parameterTypes, parameterNames),
+        resultType,
+        resultType);
+    SourceEmitter.Fragment arguments = SourceEmitter.joined(", ", fieldNames);
+    if (spec.returnsVoid()) {
+      emitter.emit(CALL_VOID_INVOCATION, spec.invocation(), arguments);
+    } else {
+      emitter.emit(CALL_INVOCATION, spec.invocation(), arguments);
+    }
+    emitter.emit(CALL_FOOTER);
+
+    String builders = async.buildersName();
+    String calls = async.callsName();
+    String builder = async.builderName();
+    emitter.emit(BUILD_ASYNC,
+        resultType,
+        async.executorName(),
+        async.prepareMethodName(), async.executorName(),
+
+        typeParameters.isEmpty() ? "" : typeParameters + " ",
+        spec.returnsVoid() ? "void" : "java.util.List<" + resultType + ">",
+        className, alligator, builders, async.maxConcurrencyName(),
+        resultType, calls,
+        resultType,
+        className, alligator, builder, builders,
+        calls, builder, async.prepareMethodName(),
+        spec.returnsVoid() ? "" : "return ", calls, async.maxConcurrencyName());
+  }
+
+  /**
+   * Returns the arguments of the static method that makes a prepared call: the context, if there
+   * is one, followed by the finished value of each field.
+   */
+  private static SourceEmitter.Fragment callArguments(
+      @Nullable final BuilderSpec.Context context, final List<BuilderSpec.Field> fields) {
+    final SourceEmitter.Fragment finished = finishInvocations(fields);
+    return new SourceEmitter.Fragment() {
+      @Override
+      public void appendTo(StringBuilder out) {
+        if (context != null) {
+          out.append(context.builderFieldName());
+          if (!fields.isEmpty()) {
+            out.append(", ");
           }
+        }
+        finished.appendTo(out);
+      }
+    };
+  }
 
-          // invocation: the return expression of the generated method, minus the argument list.
-          String invocation;
-          if (isConstructor) {
-            invocation = String.format("new %s%s",
-                enclosingType.getQualifiedName(),
-                typeParameters.alligator());
-          } else {
-            invocation = String.format("%s.%s",
-                (context != null)
-                    ? context.getBuilderFieldName()
-                    : enclosingType.getQualifiedName(),
-                el.getSimpleName());
+  /**
+   * Emits the {@code reset()} method of a reusable builder, and the static {@code acquire} and
+   * {@code release} methods that keep one builder per thread. The pooled builder stays in its
+   * {@code ThreadLocal} and is flagged while it is acquired, so acquiring reads the
+   * {@code ThreadLocal} once and releasing does not touch it. Acquiring while the thread's builder
+   * is in use, as nested code might, returns a new builder that is not pooled.
+   */
+  private static void emitReuse(BuilderSpec spec, SourceEmitter emitter) {
+    String className = spec.className();
+    String alligator = spec.alligator();
+    BuilderSpec.Pool pool = spec.pool();
+    BuilderSpec.Context context = spec.context();
+
+    emitter.emit(RESET_HEADER, className, alligator);
+    for (String presenceFieldName : spec.presenceFieldNames()) {
+      emitter.emit(ASSIGN_FIELD, presenceFieldName, "0");
+    }
+    for (BuilderSpec.Field field : spec.fields()) {
+      if (hasBuilderField(field)) {
+        emitter.emit(ASSIGN_FIELD, field.name(), field.initialValue());
+      }
+    }
+    emitter.emit(RESET_FOOTER);
+
+    String builderType = className + alligator;
+    String variable = pool.variableName();
+    boolean generic = !alligator.isEmpty();
+    String contextArgument = (context != null) ? context.constructorParameterName() : "";
+    emitter.emit(POOL,
+        pool.wildcardType(), pool.fieldName(), pool.wildcardType(),
+        pool.acquiredFieldName());
+    emitter.emit(ACQUIRE_HEADER,
+        generic ? spec.alligatorWithBounds() + " " : "", className, alligator,
+        (context != null) ? context.type() + " " + contextArgument : "",
+
+        generic ? "@SuppressWarnings(\"unchecked\") " : "", className, alligator, variable,
+        generic ? "(" + builderType + ") " : "", pool.fieldName(),
+
+        variable,
+        variable, className, alligator, contextArgument,
+        pool.fieldName(), variable,
+        variable, pool.acquiredFieldName(),
+        className, alligator, contextArgument,
+
+        variable, pool.acquiredFieldName());
+    if (context != null) {
+      emitter.emit(ACQUIRE_CONTEXT,
+          variable, context.builderFieldName(), context.constructorParameterName());
+    }
+    emitter.emit(ACQUIRE_FOOTER, variable);
+
+    emitter.emit(RELEASE_HEADER, pool.wildcardType(), variable);
+    if (context != null) {
+      // Do not keep the context reachable from the pool.
+      emitter.emit(RELEASE_CONTEXT, variable, context.builderFieldName());
+    }
+    emitter.emit(RELEASE_FOOTER, variable, pool.acquiredFieldName());
+  }
+
+  /**
+   * Returns the literal for the bit that records whether field {@code fieldIndex} was set, within
+   * its presence field.
+   */
+  private static String presenceBit(int fieldIndex) {
+    return "0x" + Long.toHexString(1L << (fieldIndex % Long.SIZE)) + "L";
+  }
+
+  /**
+   * Emits a check that every required field of {@code spec} was set. All presence fields are
+   * compared against masks of their required bits, so a builder that passes the check does no
+   * other work. The message naming the missing fields is only built when the check fails.
+   */
+  private static void emitRequiredCheck(BuilderSpec spec, SourceEmitter emitter) {
+    List<BuilderSpec.Field> fields = spec.fields();
+    long[] masks = new long[spec.presenceFieldNames().size()];
+    final List<String> missingFields = new ArrayList<>();
+    for (int i = 0; i < fields.size(); i++) {
+      if (fields.get(i).required()) {
+        masks[i / Long.SIZE] |= 1L << (i % Long.SIZE);
+        missingFields.add(fields.get(i).name());
+      }
+    }
+    if (missingFields.isEmpty()) {
+      return;
+    }
+
+    List<String> conditions = new ArrayList<>();
+    for (int word = 0; word < masks.length; word++) {
+      if (masks[word] != 0) {
+        String mask = "0x" + Long.toHexString(masks[word]) + "L";
+        conditions.add(String.format(
+            "(%s & %s) != %s", spec.presenceFieldNames().get(word), mask, mask));
+      }
+    }
+    emitter.emit(REQUIRED_CHECK,
+        SourceEmitter.joined(" || ", conditions),
+        new SourceEmitter.Fragment() {
+          @Override
+          public void appendTo(StringBuilder out) {
+            for (String name : missingFields) {
+              out.append("\n          + (is").append(capitalizeFirst(name))
+                  .append("Set() ? \"\" : \" ").append(name).append("\")");
+            }
           }
+        });
+  }
 
-          writef(wrt, lines(
-              "  public %s %s() {",
-              "    %s%s(%s);",
-              "  }",
-              "}"),
-              generatedMethodReturn, ann.methodName(),
+  private void write(BuilderSpec spec, SourceEmitter source) throws IOException {
+    ProcessorStatistics.Span span = statistics.start(Phase.WRITE, spec.canonicalName());
+    try (Writer wrt = openWriter(spec.canonicalName(), spec.element())) {
+      source.writeTo(wrt);
+    } finally {
+      span.end();
+    }
+  }
+
+  private void write(String canonicalName, Element element, String source) throws IOException {
+    ProcessorStatistics.Span span = statistics.start(Phase.WRITE, canonicalName);
+    try (Writer wrt = openWriter(canonicalName, element)) {
+      wrt.write(source);
+    } finally {
+      span.end();
+    }
+  }
 
-              (generatedMethodReturn.getKind() == TypeKind.VOID) ? "" : "return ",
-              invocation, finishInvocations(fields));
+  private Writer openWriter(String canonicalName, Element element) throws IOException {
+    // The annotated element is the only originating element. Everything else the builder
+    // depends on, including the style classes, is reachable from it, which is what lets
+    // build tools such as Gradle treat this processor as isolating.
+    JavaFileObject file =
+        processingEnv.getFiler().createSourceFile(canonicalName, element);
+    return file.openWriter();
+  }
+
+  /**
+   * Renders each spec on the fork-join pool, returning the sources in the same order as the specs.
+   */
+  private List<String> renderInParallel(List<BuilderSpec> specs) {
+    if (pool == null) {
+      pool = new ForkJoinPool(parallelism);
+    }
+    List<Callable<String>> tasks = new ArrayList<>();
+    for (final BuilderSpec spec : specs) {
+      tasks.add(new Callable<String>() {
+        @Override
+        public String call() {
+          SourceEmitter threadEmitter = THREAD_EMITTER.get();
+          threadEmitter.reset();
+          render(spec, threadEmitter, statistics);
+          return threadEmitter.toString();
         }
-      } catch (IOException e) {
+      });
+    }
+
+    List<String> sources = new ArrayList<>();
+    for (Future<String> rendered : pool.invokeAll(tasks)) {
+      try {
+        sources.add(rendered.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
       }
     }
+    return sources;
   }
 
+  private static final ThreadLocal<SourceEmitter> THREAD_EMITTER =
+      new ThreadLocal<SourceEmitter>() {
+        @Override
+        protected SourceEmitter initialValue() {
+          return new SourceEmitter(INITIAL_SOURCE_CAPACITY);
+        }
+      };
+
   /**
    * Returns the name of the package that the given element is in. If the element is in the default
    * (unnamed) package then the name is the empty string. Taken from AutoValue source code.
@@ -365,34 +1445,68 @@ public class CallBuilderProcessor extends AbstractProcessor {
     }
   }
 
-  private static String parameterList(List<String> parameterTypes, List<String> parameterNames) {
-    StringBuilder list = new StringBuilder();
-    for (int i = 0; i < parameterTypes.size(); i++) {
-      if (i != 0) {
-        list.append(", ");
+  static SourceEmitter.Fragment parameterList(
+      final List<String> parameterTypes, final List<String> parameterNames) {
+    return new SourceEmitter.Fragment() {
+      @Override
+      public void appendTo(StringBuilder out) {
+        for (int i = 0; i < parameterTypes.size(); i++) {
+          if (i != 0) {
+            out.append(", ");
+          }
+          out.append(parameterTypes.get(i)).append(' ').append(parameterNames.get(i));
+        }
       }
-      list.append(parameterTypes.get(i)).append(" ").append(parameterNames.get(i));
-    }
-    return list.toString();
+    };
   }
 
   static String qualifiedName(DeclaredType type) {
     return ((TypeElement) type.asElement()).getQualifiedName().toString();
   }
 
-  private static String finishInvocations(Iterable<FieldInfo> fields) {
-    StringBuilder invocations = new StringBuilder();
-    for (FieldInfo field : fields) {
-      if (invocations.length() != 0) {
-        invocations.append(", ");
+  /**
+   * Returns the arguments of the call for the given row of a {@code Batch} class. Like
+   * {@link #finishInvocations}, this passes one argument per field in order, but the argument is
+   * read from the field's column. Elements of {@code Object[]} columns are cast back to the
+   * parameter type, which is unchecked for generic types.
+   */
+  private static SourceEmitter.Fragment columnArguments(
+      final Iterable<BuilderSpec.Field> fields, final String row) {
+    return new SourceEmitter.Fragment() {
+      @Override
+      public void appendTo(StringBuilder out) {
+        String separator = "";
+        for (BuilderSpec.Field field : fields) {
+          out.append(separator);
+          separator = ", ";
+          if (!field.primitive()) {
+            out.append('(').append(field.finishType()).append(") ");
+          }
+          out.append(field.name()).append('[').append(row).append(']');
+        }
       }
-      if (field.style() != null) {
-        invocations.append(String.format("%s.finish(%s)",
-            qualifiedName(field.style().styleClass()), field.name()));
-      } else {
-        invocations.append(field.name());
+    };
+  }
+
+  private static SourceEmitter.Fragment finishInvocations(
+      final Iterable<BuilderSpec.Field> fields) {
+    return new SourceEmitter.Fragment() {
+      @Override
+      public void appendTo(StringBuilder out) {
+        String separator = "";
+        for (BuilderSpec.Field field : fields) {
+          out.append(separator);
+          separator = ", ";
+          if (field.styleClass() != null) {
+            out.append(field.styleClass())
+                .append(".finish(")
+                .append(field.name())
+                .append(')');
+          } else {
+            out.append(field.name());
+          }
+        }
       }
-    }
-    return invocations.toString();
+    };
   }
 }
@@ -31,16 +31,20 @@ import javax.lang.model.util.Elements;
 final class FieldInfo extends ValueType {
   private final VariableElement parameter;
   private final @Nullable FieldStyle style;
+  private final boolean invalidStyle;
 
-  FieldInfo(VariableElement parameter, @Nullable FieldStyle style) {
+  FieldInfo(VariableElement parameter, @Nullable FieldStyle style, boolean invalidStyle) {
+    super(true);
     this.parameter = Preconditions.checkNotNull(parameter);
     this.style = style;
+    this.invalidStyle = invalidStyle;
   }
 
   @Override
   protected void addFields(FieldReceiver fields) {
     fields.add("parameter", parameter);
     fields.add("style", style);
+    fields.add("invalidStyle", invalidStyle);
   }
 
   /**
@@ -54,6 +58,14 @@ final class FieldInfo extends ValueType {
     return style;
   }
 
+  /**
+   * Whether the parameter names a style class that is not a usable style. Its problems have been
+   * reported, and {@link #style()} is {@code null}.
+   */
+  boolean invalidStyle() {
+    return invalidStyle;
+  }
+
   /**
    * The name of this field, which is used in the builder method names. This is the name of the
    * original {@link parameter()}.
@@ -62,6 +74,18 @@ final class FieldInfo extends ValueType {
     return parameter().getSimpleName().toString();
   }
 
+  /**
+   * Whether the parameter is annotated with an annotation named {@code Nullable}, from any package.
+   */
+  boolean nullable() {
+    for (AnnotationMirror ann : parameter().getAnnotationMirrors()) {
+      if (ann.getAnnotationType().asElement().getSimpleName().contentEquals("Nullable")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * The type of the field after it is converted by the style's {@code finish} method.
    */
@@ -69,8 +93,10 @@ final class FieldInfo extends ValueType {
     return parameter().asType().toString();
   }
 
-  static FieldInfo from(Elements elementUtils, VariableElement parameter) {
+  static FieldInfo from(
+      Elements elementUtils, FieldStyleCache styles, VariableElement parameter) {
     FieldStyle style = null;
+    boolean invalidStyle = false;
 
     // Look for style field on the @BuilderField annotation. If the annotation is
     // present, the value of that field overrides the default set above.
@@ -80,20 +106,21 @@ final class FieldInfo extends ValueType {
         for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> annEl :
              ann.getElementValues().entrySet()) {
           if ("style".equals(annEl.getKey().getSimpleName().toString())) {
-            style = FieldStyle.fromStyleClass((DeclaredType) annEl.getValue().getValue());
+            style = styles.get((DeclaredType) annEl.getValue().getValue());
+            invalidStyle = (style == null);
           }
         }
       }
     }
 
-    return new FieldInfo(parameter, style);
+    return new FieldInfo(parameter, style, invalidStyle);
   }
 
-  static List<FieldInfo> fromAll(
-      Elements elementUtils, Iterable<? extends VariableElement> parameters) {
+  static List<FieldInfo> fromAll(Elements elementUtils, FieldStyleCache styles,
+      Iterable<? extends VariableElement> parameters) {
     List<FieldInfo> fields = new ArrayList<>();
     for (VariableElement parameter : parameters) {
-      fields.add(from(elementUtils, parameter));
+      fields.add(from(elementUtils, styles, parameter));
     }
     return fields;
   }
@@ -19,23 +19,31 @@ import com.google.callbuilder.util.ValueType;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
+import javax.annotation.Nullable;
+import javax.annotation.processing.Messager;
 import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
 
 final class FieldStyle extends ValueType {
   private final DeclaredType styleClass;
-  private final List<ExecutableElement> modifiers;
-  private final ExecutableElement start;
-  private final ExecutableElement finish;
+  private final List<StyleMethod> modifiers;
+  private final StyleMethod start;
+  private final StyleMethod finish;
+  private final @Nullable StyleMethod copy;
 
-  FieldStyle(DeclaredType styleClass, List<ExecutableElement> modifiers,
-      ExecutableElement start, ExecutableElement finish) {
+  FieldStyle(DeclaredType styleClass, List<StyleMethod> modifiers,
+      StyleMethod start, StyleMethod finish, @Nullable StyleMethod copy) {
+    super(true);
     this.styleClass = Preconditions.checkNotNull(styleClass);
     this.modifiers = Collections.unmodifiableList(new ArrayList<>(modifiers));
     this.start = Preconditions.checkNotNull(start);
     this.finish = Preconditions.checkNotNull(finish);
+    this.copy = copy;
   }
 
   @Override
@@ -44,6 +52,7 @@ final class FieldStyle extends ValueType {
     fields.add("modifiers", modifiers);
     fields.add("start", start);
     fields.add("finish", finish);
+    fields.add("copy", copy);
   }
 
   /**
@@ -54,41 +63,155 @@ final class FieldStyle extends ValueType {
     return styleClass;
   }
 
-  List<ExecutableElement> modifiers() {
+  List<StyleMethod> modifiers() {
     return modifiers;
   }
 
-  ExecutableElement start() {
+  StyleMethod start() {
     return start;
   }
 
-  ExecutableElement finish() {
+  StyleMethod finish() {
     return finish;
   }
 
-  public static FieldStyle fromStyleClass(DeclaredType styleClass) {
-    List<ExecutableElement> modifiers = new ArrayList<>();
-    ExecutableElement start = null;
-    ExecutableElement finish = null;
+  /**
+   * The style's {@link BuilderStyle.Copy} method, which returns a new accumulator with the same
+   * contents as the one it is given, or {@code null} if the style has none. Template builders need
+   * it to give each builder made from a template its own accumulator.
+   */
+  @Nullable StyleMethod copy() {
+    return copy;
+  }
 
-    for (ExecutableElement modifier :
+  /**
+   * Reads the style methods of {@code styleClass}, reporting each problem with them to
+   * {@code messager} on the offending method. Only public static methods are style methods:
+   * private methods are helpers and are skipped silently, while other methods that are not
+   * public and static, and methods whose first parameter is not the type that {@code start()}
+   * returns, are skipped with a warning. The method annotated with {@link BuilderStyle.Copy} is the
+   * copy hook, and it must take exactly one parameter, which is the accumulator, and return the
+   * type that {@code start()} returns. A method without the annotation is never the copy hook, so
+   * a method named {@code copy} is read like any other modifier.
+   * Returns {@code null} if the class is not a usable style, in which case at least one error has
+   * been reported.
+   */
+  static @Nullable FieldStyle fromStyleClass(DeclaredType styleClass, Messager messager) {
+    List<ExecutableElement> modifierElements = new ArrayList<>();
+    List<ExecutableElement> copyElements = new ArrayList<>();
+    StyleMethod start = null;
+    StyleMethod finish = null;
+    boolean valid = true;
+
+    for (ExecutableElement method :
          ElementFilter.methodsIn(styleClass.asElement().getEnclosedElements())) {
-      String name = modifier.getSimpleName().toString();
+      String name = method.getSimpleName().toString();
+      boolean copyHook = method.getAnnotation(BuilderStyle.Copy.class) != null;
+      boolean role = name.equals("start") || name.equals("finish");
+      Set<Modifier> modifiers = method.getModifiers();
+      if (!modifiers.contains(Modifier.PUBLIC) || !modifiers.contains(Modifier.STATIC)) {
+        if (copyHook) {
+          messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+              "the @BuilderStyle.Copy method %s must be public and static", name), method);
+          valid = false;
+        } else if (role) {
+          messager.printMessage(Diagnostic.Kind.ERROR,
+              String.format("%s() of a style class must be public and static", name), method);
+          valid = false;
+        } else if (!modifiers.contains(Modifier.PRIVATE)) {
+          messager.printMessage(Diagnostic.Kind.WARNING, String.format(
+              "%s is not public and static, so it is not a modifier of the style", name), method);
+        }
+        continue;
+      }
+      int arity = method.getParameters().size();
       if (name.equals("start")) {
-        start = modifier;
+        if (arity != 0) {
+          messager.printMessage(Diagnostic.Kind.ERROR,
+              "start() of a style class must not take parameters", method);
+          valid = false;
+        }
+        start = StyleMethod.of(method);
       } else if (name.equals("finish")) {
-        finish = modifier;
+        if (arity != 1) {
+          messager.printMessage(Diagnostic.Kind.ERROR,
+              "finish() of a style class must take exactly one parameter", method);
+          valid = false;
+        }
+        finish = StyleMethod.of(method);
+      } else if (copyHook) {
+        copyElements.add(method);
       } else {
-        modifiers.add(modifier);
+        modifierElements.add(method);
       }
     }
 
-    if(start == null || finish == null) {
-      throw new IllegalArgumentException(String.format(
-          "could not find start() and/or finish() method on BuilderField style class %s",
-          styleClass));
+    if (start == null || finish == null) {
+      if (valid) {
+        messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+            "could not find start() and/or finish() method on BuilderField style class %s",
+            styleClass), styleClass.asElement());
+      }
+      return null;
+    }
+
+    StyleMethod copy = null;
+    for (ExecutableElement copyElement : copyElements) {
+      StyleMethod method = StyleMethod.of(copyElement);
+      if (!isCopy(method, start.returnType())) {
+        messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+            "the @BuilderStyle.Copy method %s must take the %s that start() returns as its only"
+                + " parameter and return a new one",
+            copyElement.getSimpleName(), start.returnType().name()), copyElement);
+        valid = false;
+      } else if (copy != null) {
+        messager.printMessage(Diagnostic.Kind.ERROR,
+            "a style class can have only one @BuilderStyle.Copy method", copyElement);
+        valid = false;
+      } else {
+        copy = method;
+      }
     }
 
-    return new FieldStyle(styleClass, modifiers, start, finish);
+    List<StyleMethod> modifiers = new ArrayList<>();
+    for (ExecutableElement modifier : modifierElements) {
+      StyleMethod method = StyleMethod.of(modifier);
+      if (method.parameters().isEmpty()
+          || !isAccumulator(method.parameters().get(0).type(), start.returnType())) {
+        messager.printMessage(Diagnostic.Kind.WARNING, String.format(
+            "the first parameter of %s is not the %s that start() returns, so it is not a modifier"
+                + " of the style",
+            modifier.getSimpleName(), start.returnType().name()), modifier);
+      } else {
+        modifiers.add(method);
+      }
+    }
+
+    return valid ? new FieldStyle(styleClass, modifiers, start, finish, copy) : null;
+  }
+
+  /**
+   * Returns whether {@code method} has the signature of the copy hook of a style whose
+   * {@code start()} returns {@code startType}.
+   */
+  private static boolean isCopy(StyleMethod method, StyleType startType) {
+    return method.parameters().size() == 1
+        && isAccumulator(method.parameters().get(0).type(), startType)
+        && method.returnType().equals(startType);
+  }
+
+  /**
+   * Returns whether {@code type} can be the accumulator that {@code start()} returns as
+   * {@code startType}. Type arguments are left to type inference, as is any type when
+   * {@code start()} returns a type variable.
+   */
+  private static boolean isAccumulator(StyleType type, StyleType startType) {
+    switch (startType.kind()) {
+      case DECLARED:
+      case OTHER:
+        return type.kind() == startType.kind() && type.name().equals(startType.name());
+      default:
+        return true;
+    }
   }
 }
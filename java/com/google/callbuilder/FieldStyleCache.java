@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.util.Preconditions;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+
+/**
+ * Holds the {@link FieldStyle} of each style class that has been referenced so far. One instance
+ * lives as long as the processing environment, so the members of a style class are only scanned the
+ * first time any {@link BuilderField} refers to it, regardless of how many parameters, elements or
+ * rounds use that style. Styles that come with a {@link StyleDescriptor} in the class loader of the
+ * processor are read from it instead of being scanned, unless the style is compiled from source in
+ * this compilation. The class loader may then hold the descriptor of an earlier version of the
+ * style, such as when the previous output directory is on the class path of an incremental build.
+ */
+final class FieldStyleCache {
+  private final Map<TypeElement, FieldStyle> styles = new HashMap<>();
+  private final Set<String> sourceTypes = new HashSet<>();
+  private final ProcessorStatistics statistics;
+  private final ClassLoader descriptorLoader;
+  private final Messager messager;
+  private final Elements elementUtils;
+  private int hits;
+  private int misses;
+  private int descriptorsLoaded;
+
+  FieldStyleCache(ProcessorStatistics statistics, ClassLoader descriptorLoader, Messager messager,
+      Elements elementUtils) {
+    this.statistics = Preconditions.checkNotNull(statistics);
+    this.descriptorLoader = Preconditions.checkNotNull(descriptorLoader);
+    this.messager = Preconditions.checkNotNull(messager);
+    this.elementUtils = Preconditions.checkNotNull(elementUtils);
+  }
+
+  /**
+   * Records the types that the current round compiles from source, whose descriptors are never
+   * read. Call this with the root elements of each round.
+   */
+  void addSourceTypes(Collection<? extends Element> rootElements) {
+    for (TypeElement type : ElementFilter.typesIn(rootElements)) {
+      sourceTypes.add(type.getQualifiedName().toString());
+    }
+  }
+
+  /**
+   * Returns whether {@code type}, or the top-level type that encloses it, is compiled from source.
+   */
+  private boolean isSourceType(TypeElement type) {
+    Element outermost = type;
+    while (outermost.getEnclosingElement() instanceof TypeElement) {
+      outermost = outermost.getEnclosingElement();
+    }
+    return sourceTypes.contains(((TypeElement) outermost).getQualifiedName().toString());
+  }
+
+  /**
+   * Returns the style for the given style class, reading its descriptor or scanning its members
+   * only if this is the first request for it. Returns {@code null} if the class is not a usable
+   * style, whose problems are reported when it is first scanned.
+   */
+  @Nullable FieldStyle get(DeclaredType styleClass) {
+    TypeElement key = (TypeElement) styleClass.asElement();
+    if (styles.containsKey(key)) {
+      hits++;
+      return styles.get(key);
+    }
+
+    misses++;
+    FieldStyle style;
+    ProcessorStatistics.Span span = statistics.start(ProcessorStatistics.Phase.FIELD_STYLE);
+    try {
+      style = isSourceType(key)
+          ? null : StyleDescriptor.load(descriptorLoader, elementUtils, styleClass);
+      if (style != null) {
+        descriptorsLoaded++;
+      } else {
+        style = FieldStyle.fromStyleClass(styleClass, messager);
+      }
+    } finally {
+      span.end();
+    }
+    styles.put(key, style);
+    return style;
+  }
+
+  /**
+   * The number of requests that were satisfied without scanning the style class.
+   */
+  int hits() {
+    return hits;
+  }
+
+  /**
+   * The number of requests that required reading a descriptor or scanning the style class.
+   */
+  int misses() {
+    return misses;
+  }
+
+  /**
+   * The number of misses that were satisfied by reading a descriptor.
+   */
+  int descriptorsLoaded() {
+    return descriptorsLoaded;
+  }
+}
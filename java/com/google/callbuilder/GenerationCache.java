@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.util.Preconditions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+
+/**
+ * Keeps the source of generated builders in a directory that outlives the compilation, so that a
+ * clean build of unchanged code can write each builder without analyzing or rendering it again.
+ *
+ * <p>The source of a builder only depends on the annotated element's signature, the type
+ * parameters of the enclosing type, the values of the annotations on the element and its
+ * parameters, and the {@link FieldStyle}s of the style classes its parameters refer to. Each
+ * entry is stored under a SHA-256 hash of all of these, so any change to them leads to a different
+ * entry. Entries are written to a temporary file and then moved into place, so concurrent
+ * compilations sharing a directory never see a partially written entry.
+ */
+final class GenerationCache {
+  /**
+   * Part of every key. This must change whenever the processor starts generating different source
+   * for the same inputs, so that entries written by older versions are not used.
+   */
+  static final int FORMAT_VERSION = 3;
+
+  private static final String ENTRY_SUFFIX = ".java";
+
+  private final Path directory;
+  private final Elements elementUtils;
+  private final FieldStyleCache fieldStyles;
+
+  /**
+   * The parts of keys that describe each enclosing type and each style class, which are shared by
+   * many elements.
+   */
+  private final Map<TypeElement, String> enclosingTypeParts = new HashMap<>();
+  private final Map<TypeElement, String> styleParts = new HashMap<>();
+  private int hits;
+  private int misses;
+
+  GenerationCache(Path directory, Elements elementUtils, FieldStyleCache fieldStyles) {
+    this.directory = Preconditions.checkNotNull(directory);
+    this.elementUtils = Preconditions.checkNotNull(elementUtils);
+    this.fieldStyles = Preconditions.checkNotNull(fieldStyles);
+  }
+
+  /**
+   * Writes the parts of a key with a length before each one, so that no two different sequences
+   * of parts produce the same text.
+   */
+  private static final class KeyBuilder {
+    private final StringBuilder text = new StringBuilder();
+
+    KeyBuilder add(Object part) {
+      String string = String.valueOf(part);
+      text.append(string.length()).append(':').append(string);
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return text.toString();
+    }
+
+    String sha256() {
+      MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("every JVM supports SHA-256", e);
+      }
+      byte[] hash = digest.digest(text.toString().getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    }
+  }
+
+  /**
+   * Returns the key of the builder generated for {@code el}. This reads the compiler's model, so it
+   * must run on the thread that calls the processor.
+   */
+  String key(ExecutableElement el) {
+    KeyBuilder key = new KeyBuilder()
+        .add(FORMAT_VERSION)
+        .add(enclosingTypePart((TypeElement) el.getEnclosingElement()));
+    addAnnotations(key, el);
+    addSignature(key, el);
+
+    List<DeclaredType> styles = new ArrayList<>();
+    for (VariableElement parameter : el.getParameters()) {
+      addAnnotations(key, parameter);
+      DeclaredType style = styleOf(parameter);
+      if (style != null) {
+        styles.add(style);
+      }
+    }
+    for (DeclaredType style : styles) {
+      key.add(stylePart(style));
+    }
+    return key.sha256();
+  }
+
+  /**
+   * Returns the part of a key that describes the type enclosing an annotated element: its name and
+   * type parameters.
+   */
+  private String enclosingTypePart(TypeElement type) {
+    String part = enclosingTypeParts.get(type);
+    if (part == null) {
+      KeyBuilder key = new KeyBuilder()
+          .add(CallBuilderProcessor.packageNameOf(type))
+          .add(type.getQualifiedName())
+          .add(type.asType());
+      addTypeParameters(key, type.getTypeParameters());
+      part = key.toString();
+      enclosingTypeParts.put(type, part);
+    }
+    return part;
+  }
+
+  /**
+   * Returns the part of a key that describes a style class, which is its descriptor. This is
+   * exactly what the generated source uses from the style, whether the style was read from a
+   * descriptor or by examining the class.
+   */
+  private String stylePart(DeclaredType styleClass) {
+    TypeElement type = (TypeElement) styleClass.asElement();
+    String part = styleParts.get(type);
+    if (part == null) {
+      FieldStyle style = fieldStyles.get(styleClass);
+      // The processor generates no builder for an invalid style, so this key is never stored.
+      part = (style == null) ? "(invalid " + type.getQualifiedName() + ")"
+          : StyleDescriptor.write(style);
+      styleParts.put(type, part);
+    }
+    return part;
+  }
+
+  /**
+   * Returns the style class given on the {@link BuilderField} annotation of {@code parameter}, in
+   * the same way as {@link FieldInfo#from}.
+   */
+  private static @Nullable DeclaredType styleOf(VariableElement parameter) {
+    for (AnnotationMirror ann : parameter.getAnnotationMirrors()) {
+      if (ann.getAnnotationType().toString().equals(BuilderField.class.getCanonicalName())) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> annEl :
+             ann.getElementValues().entrySet()) {
+          if ("style".equals(annEl.getKey().getSimpleName().toString())) {
+            return (DeclaredType) annEl.getValue().getValue();
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static void addTypeParameters(
+      KeyBuilder key, List<? extends TypeParameterElement> typeParameters) {
+    key.add(typeParameters.size());
+    for (TypeParameterElement typeParameter : typeParameters) {
+      key.add(typeParameter);
+      List<? extends TypeMirror> bounds = typeParameter.getBounds();
+      key.add(bounds.size());
+      for (TypeMirror bound : bounds) {
+        key.add(bound);
+      }
+    }
+  }
+
+  private static void addModifiers(KeyBuilder key, Collection<Modifier> modifiers) {
+    List<String> names = new ArrayList<>();
+    for (Modifier modifier : modifiers) {
+      names.add(modifier.toString());
+    }
+    Collections.sort(names);
+    key.add(names);
+  }
+
+  private void addAnnotations(KeyBuilder key, Element element) {
+    List<? extends AnnotationMirror> annotations = element.getAnnotationMirrors();
+    key.add(annotations.size());
+    for (AnnotationMirror annotation : annotations) {
+      Map<? extends ExecutableElement, ? extends AnnotationValue> values =
+          elementUtils.getElementValuesWithDefaults(annotation);
+      key.add(annotation.getAnnotationType()).add(values.size());
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value :
+           values.entrySet()) {
+        key.add(value.getKey().getSimpleName()).add(value.getValue());
+      }
+    }
+  }
+
+  private static void addSignature(KeyBuilder key, ExecutableElement method) {
+    key.add(method.getKind()).add(method.getSimpleName());
+    addModifiers(key, method.getModifiers());
+    addTypeParameters(key, method.getTypeParameters());
+    key.add(method.getReturnType());
+    List<? extends VariableElement> parameters = method.getParameters();
+    key.add(parameters.size());
+    for (VariableElement parameter : parameters) {
+      key.add(parameter.asType()).add(parameter.getSimpleName());
+    }
+  }
+
+  private Path entry(String key) {
+    return directory.resolve(key + ENTRY_SUFFIX);
+  }
+
+  /**
+   * Returns the source stored under {@code key}, or {@code null} if there is none or it cannot be
+   * read.
+   */
+  @Nullable String get(String key) {
+    try {
+      String source = new String(Files.readAllBytes(entry(key)), StandardCharsets.UTF_8);
+      hits++;
+      return source;
+    } catch (IOException e) {
+      misses++;
+      return null;
+    }
+  }
+
+  /**
+   * Stores {@code source} under {@code key}, replacing any entry with the same key. An entry that
+   * another compilation is writing at the same time has the same content, so either one may win.
+   */
+  void put(String key, String source) throws IOException {
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, key, ".tmp");
+    try {
+      Files.write(temporary, source.getBytes(StandardCharsets.UTF_8));
+      try {
+        Files.move(temporary, entry(key), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+        Files.move(temporary, entry(key), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      // Only left behind if the entry could not be moved into place.
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * The number of builders whose source was read from the cache.
+   */
+  int hits() {
+    return hits;
+  }
+
+  /**
+   * The number of builders that had to be generated because the cache had no entry for them.
+   */
+  int misses() {
+    return misses;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records each processor phase as a Flight Recorder event. This class is only loaded, reflectively,
+ * by {@link ProcessorStatistics} when the {@code jdk.jfr} module is present, so the rest of the
+ * processor still runs on JVMs without it.
+ */
+final class JfrPhaseTracer implements ProcessorStatistics.Tracer {
+  @Name("com.google.callbuilder.Phase")
+  @Label("CallBuilder Phase")
+  @Category({"Java Development Kit", "Compiler", "CallBuilder"})
+  @Description("A phase of the CallBuilder annotation processor")
+  static final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Builder")
+    @Description("Canonical name of the generated builder, if the phase is for one builder")
+    String builder;
+  }
+
+  @Override
+  public Object begin(ProcessorStatistics.Phase phase, String builder) {
+    PhaseEvent event = new PhaseEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.phase = phase.name();
+    event.builder = builder;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void end(Object token) {
+    if (token != null) {
+      PhaseEvent event = (PhaseEvent) token;
+      event.end();
+      event.commit();
+    }
+  }
+}
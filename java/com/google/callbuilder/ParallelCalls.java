@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the calls prepared by builders generated with {@code @CallBuilder(async = true)}. Generated
+ * builders call these methods; they are public only so that the generated code can reach them
+ * from any package.
+ */
+public final class ParallelCalls {
+  private ParallelCalls() {}
+
+  /**
+   * Makes new virtual threads, or {@code null} if the runtime does not have them. This is looked up
+   * reflectively so that this class still runs on JVMs from before virtual threads.
+   */
+  private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+  private static final ThreadFactory PLATFORM_THREADS = new ThreadFactory() {
+    private final AtomicInteger created = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "callbuilder-parallel-" + created.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  };
+
+  private static ThreadFactory virtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+          .getMethod("factory")
+          .invoke(builder);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // Also covers runtimes where virtual threads are a preview feature that is not enabled,
+      // which throw UnsupportedOperationException from ofVirtual().
+      return null;
+    }
+  }
+
+  /**
+   * Returns the factory of the threads that {@link #invokeAll(List, int)} runs calls on: virtual
+   * threads if the runtime has them, and daemon platform threads otherwise.
+   */
+  public static ThreadFactory defaultThreadFactory() {
+    return (VIRTUAL_THREADS != null) ? VIRTUAL_THREADS : PLATFORM_THREADS;
+  }
+
+  /**
+   * Runs {@code call} on {@code executor}, returning a future that completes with its result or
+   * with whatever it throws.
+   */
+  public static <R> CompletableFuture<R> submit(
+      final Callable<? extends R> call, Executor executor) {
+    final CompletableFuture<R> future = new CompletableFuture<>();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          future.complete(call.call());
+        } catch (Throwable t) {
+          future.completeExceptionally(t);
+        }
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Same as {@link #invokeAll(List, int, ThreadFactory)} with the
+   * {@link #defaultThreadFactory() default thread factory}.
+   */
+  public static <R> List<R> invokeAll(List<? extends Callable<? extends R>> calls,
+      int maxConcurrency) {
+    return invokeAll(calls, maxConcurrency, defaultThreadFactory());
+  }
+
+  /**
+   * Makes every call in {@code calls}, with at most {@code maxConcurrency} of them running at once,
+   * and returns their results in the same order as the calls. The calling thread makes calls too,
+   * so it only starts {@code maxConcurrency - 1} threads from {@code threads}, or fewer if there
+   * are fewer calls, and makes no threads at all if {@code maxConcurrency} is 1.
+   *
+   * <p>Once a call fails, no more calls are started. What the first failed call threw is rethrown
+   * after the calls already running have finished, with the failures of those calls added as
+   * suppressed exceptions. Checked exceptions are wrapped in a {@link RuntimeException}.
+   */
+  public static <R> List<R> invokeAll(List<? extends Callable<? extends R>> calls,
+      int maxConcurrency, ThreadFactory threads) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+    }
+    Worker<R> worker = new Worker<>(calls);
+    List<Thread> started = new ArrayList<>();
+    int threadCount = Math.min(maxConcurrency, calls.size()) - 1;
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = threads.newThread(worker);
+      thread.start();
+      started.add(thread);
+    }
+    worker.run();
+    boolean interrupted = false;
+    for (Thread thread : started) {
+      while (true) {
+        try {
+          thread.join();
+          break;
+        } catch (InterruptedException e) {
+          // The calls are already running and share state with the caller, so wait for them
+          // rather than leave them behind.
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return worker.results();
+  }
+
+  /**
+   * Takes the next call that has not been started until none are left, so the threads running a
+   * worker share the calls between them however long each call takes.
+   */
+  private static final class Worker<R> implements Runnable {
+    private final List<? extends Callable<? extends R>> calls;
+    private final Object[] results;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<Throwable> laterFailures = new ArrayList<>();
+
+    Worker(List<? extends Callable<? extends R>> calls) {
+      this.calls = calls;
+      this.results = new Object[calls.size()];
+    }
+
+    @Override
+    public void run() {
+      int index;
+      while (failure.get() == null && (index = next.getAndIncrement()) < results.length) {
+        try {
+          results[index] = calls.get(index).call();
+        } catch (Throwable t) {
+          if (!failure.compareAndSet(null, t)) {
+            synchronized (laterFailures) {
+              laterFailures.add(t);
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the results once every thread running this worker has finished, or throws the first
+     * failure.
+     */
+    @SuppressWarnings("unchecked")
+    List<R> results() {
+      Throwable first = failure.get();
+      if (first == null) {
+        return (List<R>) Arrays.asList(results);
+      }
+      for (Throwable later : laterFailures) {
+        first.addSuppressed(later);
+      }
+      if (first instanceof RuntimeException) {
+        throw (RuntimeException) first;
+      }
+      if (first instanceof Error) {
+        throw (Error) first;
+      }
+      throw new RuntimeException(first);
+    }
+  }
+}
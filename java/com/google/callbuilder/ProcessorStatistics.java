@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Time spent and work done by one {@link CallBuilderProcessor} instance, which corresponds to one
+ * compilation. Obtain it with {@link CallBuilderProcessor#statistics()}. All methods are safe to
+ * call at any time and from any thread; values only ever grow while the compilation is running.
+ *
+ * <p>When the processor runs on a JVM with Flight Recorder, each timed phase is also recorded as a
+ * {@code com.google.callbuilder.Phase} event.
+ */
+public final class ProcessorStatistics {
+  /**
+   * The phases of the processor that are timed. Phases can nest: {@link #FIELD_STYLE} happens
+   * within {@link #FIELD_INFO}, {@link #MODIFIER_TYPES} within {@link #RENDER}, and
+   * {@link #TYPE_INFERENCE} within {@link #FIELD_INFO} when encoding and within {@link #RENDER}
+   * when solving, so the times of all phases do not add up to the total time. The time of a
+   * builder is the time of its {@link #FIELD_INFO}, {@link #RENDER}, {@link #WRITE} and
+   * {@link #GENERATION_CACHE} phases.
+   */
+  public enum Phase {
+    /** Finding the annotated elements of a round. */
+    DISCOVERY,
+    /** Reading the parameters of an element, and the styles and inference problems of each. */
+    FIELD_INFO,
+    /** Scanning the members of a style class that has not been seen before. */
+    FIELD_STYLE,
+    /**
+     * Encoding the type inference problems for a field shape that has not been seen before, and
+     * solving them for the builder field type the first time a builder needs it.
+     */
+    TYPE_INFERENCE,
+    /** Inferring the parameter types of a generated modifier. */
+    MODIFIER_TYPES,
+    /** Rendering the source of a builder. */
+    RENDER,
+    /** Writing the source of a builder to the {@code Filer}. */
+    WRITE,
+    /** Computing the generation cache key of an element, and reading or storing its builder. */
+    GENERATION_CACHE,
+  }
+
+  /**
+   * Receives the start and end of each timed phase. This exists so that the Flight Recorder
+   * classes are only loaded when they are available.
+   */
+  interface Tracer {
+    /**
+     * Called when a phase starts. Returns a token which is passed to {@link #end(Object)}.
+     */
+    @Nullable Object begin(Phase phase, @Nullable String builder);
+
+    void end(@Nullable Object token);
+  }
+
+  private static final Tracer NO_TRACER = new Tracer() {
+    @Override
+    public Object begin(Phase phase, String builder) {
+      return null;
+    }
+
+    @Override
+    public void end(Object token) {}
+  };
+
+  private static final String JFR_TRACER_CLASS = "com.google.callbuilder.JfrPhaseTracer";
+
+  private static Tracer loadTracer() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return (Tracer) Class.forName(JFR_TRACER_CLASS).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return NO_TRACER;
+    }
+  }
+
+  /**
+   * A phase that has started and not ended yet.
+   */
+  final class Span {
+    private final Phase phase;
+    private final @Nullable String builder;
+    private final @Nullable Object token;
+    private final long start;
+
+    private Span(Phase phase, @Nullable String builder) {
+      this.phase = phase;
+      this.builder = builder;
+      this.token = tracer.begin(phase, builder);
+      this.start = System.nanoTime();
+    }
+
+    /**
+     * Ends the phase, attributing the time since it started to the phase and, if the span was
+     * started for a builder, to that builder.
+     */
+    void end() {
+      long elapsed = System.nanoTime() - start;
+      tracer.end(token);
+      nanos.get(phase).addAndGet(elapsed);
+      counts.get(phase).incrementAndGet();
+      if (builder != null) {
+        AtomicLong builderTotal = builderNanos.get(builder);
+        if (builderTotal == null) {
+          builderNanos.putIfAbsent(builder, new AtomicLong());
+          builderTotal = builderNanos.get(builder);
+        }
+        builderTotal.addAndGet(elapsed);
+      }
+    }
+  }
+
+  private final Tracer tracer;
+  private final Map<Phase, AtomicLong> nanos = new EnumMap<>(Phase.class);
+  private final Map<Phase, AtomicLong> counts = new EnumMap<>(Phase.class);
+  private final ConcurrentHashMap<String, AtomicLong> builderNanos = new ConcurrentHashMap<>();
+  private final AtomicLong elements = new AtomicLong();
+  private final AtomicLong fields = new AtomicLong();
+  private final AtomicLong modifiersGenerated = new AtomicLong();
+  private final AtomicLong modifiersDropped = new AtomicLong();
+  private final AtomicLong styledFieldsDropped = new AtomicLong();
+
+  ProcessorStatistics() {
+    this(loadTracer());
+  }
+
+  ProcessorStatistics(Tracer tracer) {
+    this.tracer = Preconditions.checkNotNull(tracer);
+    for (Phase phase : Phase.values()) {
+      nanos.put(phase, new AtomicLong());
+      counts.put(phase, new AtomicLong());
+    }
+  }
+
+  /**
+   * Starts timing a phase that is not attributed to a particular builder.
+   */
+  Span start(Phase phase) {
+    return new Span(phase, null);
+  }
+
+  /**
+   * Starts timing a phase of generating the builder with the given canonical name.
+   */
+  Span start(Phase phase, String builder) {
+    return new Span(phase, Preconditions.checkNotNull(builder));
+  }
+
+  void addElement() {
+    elements.incrementAndGet();
+  }
+
+  void addFields(int count) {
+    fields.addAndGet(count);
+  }
+
+  void addModifierGenerated() {
+    modifiersGenerated.incrementAndGet();
+  }
+
+  void addModifierDropped() {
+    modifiersDropped.incrementAndGet();
+  }
+
+  void addStyledFieldDropped() {
+    styledFieldsDropped.incrementAndGet();
+  }
+
+  /**
+   * The total time spent in the given phase, in nanoseconds.
+   */
+  public long nanos(Phase phase) {
+    return nanos.get(phase).get();
+  }
+
+  /**
+   * The total time spent in the processor, in nanoseconds. Nested phases are only counted once.
+   * When builders are rendered in parallel, this includes the time of every rendering thread, so
+   * it can exceed the elapsed time of the compilation.
+   */
+  public long totalNanos() {
+    return nanos(Phase.DISCOVERY) + nanos(Phase.FIELD_INFO) + nanos(Phase.RENDER)
+        + nanos(Phase.WRITE) + nanos(Phase.GENERATION_CACHE);
+  }
+
+  /**
+   * The number of times the given phase was entered.
+   */
+  public long count(Phase phase) {
+    return counts.get(phase).get();
+  }
+
+  /**
+   * The number of annotated elements for which a builder was generated.
+   */
+  public long elements() {
+    return elements.get();
+  }
+
+  /**
+   * The number of builder fields, which is the number of parameters of all annotated elements.
+   */
+  public long fields() {
+    return fields.get();
+  }
+
+  /**
+   * The number of style modifiers that were generated on builders.
+   */
+  public long modifiersGenerated() {
+    return modifiersGenerated.get();
+  }
+
+  /**
+   * The number of style modifiers that were left out of builders because their parameter types
+   * could not be inferred.
+   */
+  public long modifiersDropped() {
+    return modifiersDropped.get();
+  }
+
+  /**
+   * The number of styled fields that were left out of builders because the type of the builder
+   * field could not be inferred.
+   */
+  public long styledFieldsDropped() {
+    return styledFieldsDropped.get();
+  }
+
+  /**
+   * The time attributed to generating each builder, in nanoseconds, keyed by the canonical name of
+   * the builder and ordered from most to least expensive.
+   */
+  public Map<String, Long> builderNanos() {
+    List<Map.Entry<String, AtomicLong>> entries = new ArrayList<>(builderNanos.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, AtomicLong>>() {
+      @Override
+      public int compare(Map.Entry<String, AtomicLong> a, Map.Entry<String, AtomicLong> b) {
+        int byCost = Long.compare(b.getValue().get(), a.getValue().get());
+        return (byCost != 0) ? byCost : a.getKey().compareTo(b.getKey());
+      }
+    });
+    Map<String, Long> sorted = new LinkedHashMap<>();
+    for (Map.Entry<String, AtomicLong> entry : entries) {
+      sorted.put(entry.getKey(), entry.getValue().get());
+    }
+    return Collections.unmodifiableMap(sorted);
+  }
+
+  /**
+   * Returns a human-readable report of these statistics, listing at most
+   * {@code maxBuilders} of the most expensive builders.
+   */
+  public String summary(int maxBuilders) {
+    StringBuilder summary = new StringBuilder();
+    summary.append(String.format("%-16s %10s %12s%n", "phase", "count", "millis"));
+    for (Phase phase : Phase.values()) {
+      summary.append(String.format("%-16s %10d %12.3f%n",
+          phase, count(phase), nanos(phase) / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+    summary.append(String.format("%-16s %10s %12.3f%n",
+        "total", "", totalNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+    summary.append(String.format("%n"))
+        .append(String.format("elements: %d%n", elements()))
+        .append(String.format("fields: %d%n", fields()))
+        .append(String.format("modifiers generated: %d%n", modifiersGenerated()))
+        .append(String.format("modifiers dropped: %d%n", modifiersDropped()))
+        .append(String.format("styled fields dropped: %d%n", styledFieldsDropped()));
+
+    Map<String, Long> builders = builderNanos();
+    if (!builders.isEmpty()) {
+      summary.append(String.format("%nmost expensive builders (millis):%n"));
+      int listed = 0;
+      for (Map.Entry<String, Long> builder : builders.entrySet()) {
+        if (listed++ == maxBuilders) {
+          break;
+        }
+        summary.append(String.format("%12.3f %s%n",
+            builder.getValue() / (double) TimeUnit.MILLISECONDS.toNanos(1), builder.getKey()));
+      }
+    }
+    return summary.toString();
+  }
+
+  @Override
+  public String toString() {
+    return summary(10);
+  }
+}
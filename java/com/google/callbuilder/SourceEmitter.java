@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.util.Preconditions;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders generated source code into a single buffer, which is written out in one pass once the
+ * whole class has been rendered. Code is described with {@link Template}s, which are split at their
+ * placeholders when they are created rather than every time they are used, so rendering is just a
+ * sequence of appends.
+ */
+final class SourceEmitter {
+  private static final String PLACEHOLDER = "%s";
+  private static final int WRITE_CHUNK_SIZE = 8192;
+
+  /**
+   * A piece of code with {@code %s} placeholders. Each line passed to {@link #of(String...)} is
+   * terminated with a newline.
+   */
+  static final class Template {
+    /** The text between placeholders. There is always one more literal than placeholders. */
+    private final String[] literals;
+
+    private Template(String[] literals) {
+      this.literals = literals;
+    }
+
+    static Template of(String... lines) {
+      StringBuilder joined = new StringBuilder();
+      for (String line : lines) {
+        joined.append(line).append('\n');
+      }
+
+      List<String> literals = new ArrayList<>();
+      int start = 0;
+      int placeholder;
+      while ((placeholder = joined.indexOf(PLACEHOLDER, start)) != -1) {
+        literals.add(joined.substring(start, placeholder));
+        start = placeholder + PLACEHOLDER.length();
+      }
+      literals.add(joined.substring(start));
+      return new Template(literals.toArray(new String[literals.size()]));
+    }
+
+    /**
+     * The number of arguments this template must be emitted with.
+     */
+    int arity() {
+      return literals.length - 1;
+    }
+  }
+
+  /**
+   * An argument that appends itself to the output rather than being converted to a
+   * {@link String} first.
+   */
+  interface Fragment {
+    void appendTo(StringBuilder out);
+  }
+
+  private final StringBuilder buffer;
+
+  SourceEmitter(int initialCapacity) {
+    this.buffer = new StringBuilder(initialCapacity);
+  }
+
+  /**
+   * Appends the given template, substituting each placeholder with the corresponding argument.
+   */
+  SourceEmitter emit(Template template, Object... args) {
+    if (args.length != template.arity()) {
+      throw new IllegalArgumentException(String.format(
+          "template expects %d arguments but got %d", template.arity(), args.length));
+    }
+    String[] literals = template.literals;
+    buffer.append(literals[0]);
+    for (int i = 0; i < args.length; i++) {
+      append(args[i]);
+      buffer.append(literals[i + 1]);
+    }
+    return this;
+  }
+
+  private void append(Object arg) {
+    if (arg instanceof Fragment) {
+      ((Fragment) arg).appendTo(buffer);
+    } else if (arg instanceof CharSequence) {
+      buffer.append((CharSequence) arg);
+    } else {
+      buffer.append(arg);
+    }
+  }
+
+  /**
+   * Returns a fragment that appends each item, separated by {@code delimiter}.
+   */
+  static Fragment joined(final String delimiter, final Iterable<?> items) {
+    Preconditions.checkNotNull(delimiter);
+    Preconditions.checkNotNull(items);
+    return new Fragment() {
+      @Override
+      public void appendTo(StringBuilder out) {
+        String separator = "";
+        for (Object item : items) {
+          out.append(separator).append(item);
+          separator = delimiter;
+        }
+      }
+    };
+  }
+
+  /**
+   * Discards everything emitted so far, keeping the buffer's capacity for the next class.
+   */
+  void reset() {
+    buffer.setLength(0);
+  }
+
+  /**
+   * The number of characters emitted since the last {@link #reset()}.
+   */
+  int length() {
+    return buffer.length();
+  }
+
+  /**
+   * Writes everything emitted since the last {@link #reset()} to {@code writer}.
+   */
+  void writeTo(Writer writer) throws IOException {
+    char[] chunk = new char[Math.min(WRITE_CHUNK_SIZE, Math.max(buffer.length(), 1))];
+    for (int start = 0; start < buffer.length(); start += chunk.length) {
+      int end = Math.min(start + chunk.length, buffer.length());
+      buffer.getChars(start, end, chunk, 0);
+      writer.write(chunk, 0, end - start);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return buffer.toString();
+  }
+}
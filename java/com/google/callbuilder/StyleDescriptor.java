@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.util.Elements;
+
+/**
+ * Reads and writes the descriptor of a style class, which lists its start, finish,
+ * {@link BuilderStyle.Copy copy} and modifier methods with their signatures. The descriptor is an
+ * s-expression:
+ *
+ * <pre>
+ * (callbuilder-style 3 com.google.callbuilder.style.StringAppending
+ *  (start start () (declared java.lang.StringBuilder) ())
+ *  (finish finish () (declared java.lang.String) ((from (declared java.lang.StringBuilder))))
+ *  (copy copy () (declared java.lang.StringBuilder) ((from (declared java.lang.StringBuilder))))
+ *  (modifier appendTo () (declared java.lang.StringBuilder)
+ *   ((start (declared java.lang.StringBuilder)) (value (declared java.lang.String)))))
+ * </pre>
+ *
+ * <p>Each method is {@code (role name (type-parameters...) return-type ((name type)...))}, and
+ * each type is {@code (declared qualified-name type-arguments...)}, {@code (variable name)},
+ * {@code (other source)} or {@code (unsupported source)}, as in {@link StyleType}. Symbols that
+ * contain spaces, parentheses, quotes or backslashes are quoted.
+ */
+final class StyleDescriptor {
+  private StyleDescriptor() {}
+
+  /**
+   * Part of every descriptor. Descriptors with a different version are ignored, so this must
+   * change whenever the format changes.
+   */
+  static final int FORMAT_VERSION = 3;
+
+  private static final String HEADER = "callbuilder-style";
+
+  /**
+   * Appended to the binary name of the style class, without its package, to name the resource
+   * that holds its descriptor.
+   */
+  private static final String SUFFIX = ".callbuilder-style";
+
+  static String packageName(Elements elementUtils, TypeElement style) {
+    return elementUtils.getPackageOf(style).getQualifiedName().toString();
+  }
+
+  static String relativeName(Elements elementUtils, TypeElement style) {
+    String packageName = packageName(elementUtils, style);
+    String binaryName = elementUtils.getBinaryName(style).toString();
+    return (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+        + SUFFIX;
+  }
+
+  /**
+   * Reads the descriptor of {@code styleClass} as a resource of {@code classLoader}, returning
+   * {@code null} if there is none or it cannot be used. The descriptor is not read through the
+   * {@link javax.annotation.processing.Filer}, since Gradle only lets an isolating processor read
+   * its own output that way, and would not regenerate a builder when the descriptor changes.
+   */
+  static @Nullable FieldStyle load(
+      ClassLoader classLoader, Elements elementUtils, DeclaredType styleClass) {
+    TypeElement style = (TypeElement) styleClass.asElement();
+    String packageName = packageName(elementUtils, style);
+    String path = (packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/")
+        + relativeName(elementUtils, style);
+    StringBuilder content = new StringBuilder();
+    try (InputStream stream = classLoader.getResourceAsStream(path)) {
+      if (stream == null) {
+        return null;
+      }
+      InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+      char[] buffer = new char[4096];
+      for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+        content.append(buffer, 0, read);
+      }
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+    try {
+      return read(styleClass, content);
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  static String write(FieldStyle style) {
+    StringBuilder out = new StringBuilder("(").append(HEADER).append(' ').append(FORMAT_VERSION)
+        .append(' ');
+    appendSymbol(out,
+        ((TypeElement) style.styleClass().asElement()).getQualifiedName().toString());
+    appendMethod(out, "start", style.start());
+    appendMethod(out, "finish", style.finish());
+    if (style.copy() != null) {
+      appendMethod(out, "copy", style.copy());
+    }
+    for (StyleMethod modifier : style.modifiers()) {
+      appendMethod(out, "modifier", modifier);
+    }
+    return out.append(")\n").toString();
+  }
+
+  private static void appendMethod(StringBuilder out, String role, StyleMethod method) {
+    out.append("\n (").append(role).append(' ');
+    appendSymbol(out, method.name());
+    out.append(" (");
+    String separator = "";
+    for (String typeParameter : method.typeParameters()) {
+      out.append(separator);
+      separator = " ";
+      appendSymbol(out, typeParameter);
+    }
+    out.append(") ");
+    appendType(out, method.returnType());
+    out.append(" (");
+    separator = "";
+    for (StyleMethod.Parameter parameter : method.parameters()) {
+      out.append(separator).append('(');
+      separator = " ";
+      appendSymbol(out, parameter.name());
+      out.append(' ');
+      appendType(out, parameter.type());
+      out.append(')');
+    }
+    out.append("))");
+  }
+
+  private static void appendType(StringBuilder out, StyleType type) {
+    out.append('(').append(kindSymbol(type.kind())).append(' ');
+    appendSymbol(out, type.name());
+    for (StyleType typeArgument : type.typeArguments()) {
+      out.append(' ');
+      appendType(out, typeArgument);
+    }
+    out.append(')');
+  }
+
+  private static void appendSymbol(StringBuilder out, String symbol) {
+    boolean quote = symbol.isEmpty();
+    for (int i = 0; i < symbol.length() && !quote; i++) {
+      char c = symbol.charAt(i);
+      quote = Character.isWhitespace(c) || c == '(' || c == ')' || c == '"' || c == '\\';
+    }
+    if (!quote) {
+      out.append(symbol);
+      return;
+    }
+    out.append('"');
+    for (int i = 0; i < symbol.length(); i++) {
+      char c = symbol.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\');
+      }
+      out.append(c);
+    }
+    out.append('"');
+  }
+
+  private static String kindSymbol(StyleType.Kind kind) {
+    switch (kind) {
+      case DECLARED:
+        return "declared";
+      case TYPE_VARIABLE:
+        return "variable";
+      case OTHER:
+        return "other";
+      default:
+        return "unsupported";
+    }
+  }
+
+  private static StyleType.Kind kind(String symbol) {
+    for (StyleType.Kind kind : StyleType.Kind.values()) {
+      if (kindSymbol(kind).equals(symbol)) {
+        return kind;
+      }
+    }
+    throw new IllegalArgumentException("unknown kind of type: " + symbol);
+  }
+
+  /**
+   * Reads the descriptor of {@code styleClass} from {@code descriptor}.
+   *
+   * @throws IllegalArgumentException if the descriptor is malformed, has a different format
+   *     version or describes a different class
+   */
+  static FieldStyle read(DeclaredType styleClass, CharSequence descriptor) {
+    Reader reader = new Reader(descriptor);
+    List<Object> items = list(reader.read());
+    reader.checkAtEnd();
+    if (items.size() < 3
+        || !HEADER.equals(items.get(0))
+        || !String.valueOf(FORMAT_VERSION).equals(items.get(1))) {
+      throw new IllegalArgumentException("not a version " + FORMAT_VERSION + " descriptor");
+    }
+    String className =
+        ((TypeElement) styleClass.asElement()).getQualifiedName().toString();
+    if (!className.equals(items.get(2))) {
+      throw new IllegalArgumentException("descriptor of " + items.get(2) + ", not " + className);
+    }
+
+    StyleMethod start = null;
+    StyleMethod finish = null;
+    StyleMethod copy = null;
+    List<StyleMethod> modifiers = new ArrayList<>();
+    for (Object item : items.subList(3, items.size())) {
+      List<Object> method = list(item);
+      String role = symbol(method.get(0));
+      if (role.equals("start") && start == null) {
+        start = method(method);
+      } else if (role.equals("finish") && finish == null) {
+        finish = method(method);
+      } else if (role.equals("copy") && copy == null) {
+        copy = method(method);
+      } else if (role.equals("modifier")) {
+        modifiers.add(method(method));
+      } else {
+        throw new IllegalArgumentException("unexpected method role: " + role);
+      }
+    }
+    if (start == null || finish == null) {
+      throw new IllegalArgumentException("descriptor lacks start() or finish()");
+    }
+    return new FieldStyle(styleClass, modifiers, start, finish, copy);
+  }
+
+  private static StyleMethod method(List<Object> method) {
+    if (method.size() != 5) {
+      throw new IllegalArgumentException("malformed method: " + method);
+    }
+    List<String> typeParameters = new ArrayList<>();
+    for (Object typeParameter : list(method.get(2))) {
+      typeParameters.add(symbol(typeParameter));
+    }
+    List<StyleMethod.Parameter> parameters = new ArrayList<>();
+    for (Object item : list(method.get(4))) {
+      List<Object> parameter = list(item);
+      if (parameter.size() != 2) {
+        throw new IllegalArgumentException("malformed parameter: " + parameter);
+      }
+      parameters.add(new StyleMethod.Parameter(symbol(parameter.get(0)), type(parameter.get(1))));
+    }
+    return new StyleMethod(symbol(method.get(1)), typeParameters, type(method.get(3)), parameters);
+  }
+
+  private static StyleType type(Object item) {
+    List<Object> type = list(item);
+    if (type.size() < 2) {
+      throw new IllegalArgumentException("malformed type: " + type);
+    }
+    StyleType.Kind kind = kind(symbol(type.get(0)));
+    if (kind != StyleType.Kind.DECLARED && type.size() != 2) {
+      throw new IllegalArgumentException("only declared types have type arguments: " + type);
+    }
+    List<StyleType> typeArguments = new ArrayList<>();
+    for (Object typeArgument : type.subList(2, type.size())) {
+      typeArguments.add(type(typeArgument));
+    }
+    return new StyleType(kind, symbol(type.get(1)), typeArguments);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> list(Object item) {
+    if (!(item instanceof List)) {
+      throw new IllegalArgumentException("expected a list but found " + item);
+    }
+    return (List<Object>) item;
+  }
+
+  private static String symbol(Object item) {
+    if (!(item instanceof String)) {
+      throw new IllegalArgumentException("expected a symbol but found " + item);
+    }
+    return (String) item;
+  }
+
+  /**
+   * Reads s-expressions, returning each list as a {@link List} and each symbol as a
+   * {@link String}.
+   */
+  private static final class Reader {
+    private final CharSequence text;
+    private int position;
+
+    Reader(CharSequence text) {
+      this.text = text;
+    }
+
+    private void skipWhitespace() {
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    void checkAtEnd() {
+      skipWhitespace();
+      if (position != text.length()) {
+        throw new IllegalArgumentException("unexpected text at offset " + position);
+      }
+    }
+
+    Object read() {
+      skipWhitespace();
+      if (position == text.length()) {
+        throw new IllegalArgumentException("unexpected end of descriptor");
+      }
+      char c = text.charAt(position);
+      if (c == '(') {
+        position++;
+        List<Object> items = new ArrayList<>();
+        while (true) {
+          skipWhitespace();
+          if (position < text.length() && text.charAt(position) == ')') {
+            position++;
+            return Collections.unmodifiableList(items);
+          }
+          items.add(read());
+        }
+      } else if (c == ')') {
+        throw new IllegalArgumentException("unexpected ) at offset " + position);
+      } else if (c == '"') {
+        return readQuoted();
+      }
+      int start = position;
+      while (position < text.length()) {
+        c = text.charAt(position);
+        if (Character.isWhitespace(c) || c == '(' || c == ')' || c == '"') {
+          break;
+        }
+        position++;
+      }
+      return text.subSequence(start, position).toString();
+    }
+
+    private String readQuoted() {
+      StringBuilder symbol = new StringBuilder();
+      position++;
+      while (position < text.length()) {
+        char c = text.charAt(position++);
+        if (c == '"') {
+          return symbol.toString();
+        }
+        if (c == '\\') {
+          if (position == text.length()) {
+            break;
+          }
+          c = text.charAt(position++);
+        }
+        symbol.append(c);
+      }
+      throw new IllegalArgumentException("unterminated quoted symbol");
+    }
+  }
+}
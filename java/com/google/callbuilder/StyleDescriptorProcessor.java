@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes the {@link StyleDescriptor descriptor} of each class annotated with {@link BuilderStyle}
+ * next to its class file, so that {@link CallBuilderProcessor} can read the style's methods from
+ * the processor path instead of examining the class in every compilation that uses it. The
+ * methods are validated here, so a descriptor only lists public static methods in the roles they
+ * can fill. Each problem is reported on the method that has it, and a class that is not a valid
+ * style gets no descriptor.
+ */
+public class StyleDescriptorProcessor extends AbstractProcessor {
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(BuilderStyle.class.getName());
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    Elements elementUtils = processingEnv.getElementUtils();
+    for (TypeElement style :
+         ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(BuilderStyle.class))) {
+      FieldStyle fieldStyle =
+          FieldStyle.fromStyleClass((DeclaredType) style.asType(), processingEnv.getMessager());
+      if (fieldStyle == null) {
+        continue;
+      }
+      try {
+        FileObject resource = processingEnv.getFiler().createResource(
+            StandardLocation.CLASS_OUTPUT,
+            StyleDescriptor.packageName(elementUtils, style),
+            StyleDescriptor.relativeName(elementUtils, style),
+            style);
+        try (Writer wrt = resource.openWriter()) {
+          wrt.write(StyleDescriptor.write(fieldStyle));
+        }
+      } catch (IOException e) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+            "could not write the CallBuilder style descriptor: " + e, style);
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.util.Preconditions;
+import com.google.callbuilder.util.ValueType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+
+/**
+ * The signature of a method on a style class: the parts that builder generation and type inference
+ * use, without the compiler's model of the method.
+ */
+final class StyleMethod extends ValueType {
+  static final class Parameter extends ValueType {
+    private final String name;
+    private final StyleType type;
+
+    Parameter(String name, StyleType type) {
+      super(true);
+      this.name = Preconditions.checkNotNull(name);
+      this.type = Preconditions.checkNotNull(type);
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("name", name);
+      fields.add("type", type);
+    }
+
+    String name() {
+      return name;
+    }
+
+    StyleType type() {
+      return type;
+    }
+  }
+
+  private final String name;
+  private final List<String> typeParameters;
+  private final StyleType returnType;
+  private final List<Parameter> parameters;
+
+  StyleMethod(String name, List<String> typeParameters, StyleType returnType,
+      List<Parameter> parameters) {
+    super(true);
+    this.name = Preconditions.checkNotNull(name);
+    this.typeParameters = Collections.unmodifiableList(new ArrayList<>(typeParameters));
+    this.returnType = Preconditions.checkNotNull(returnType);
+    this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+  }
+
+  @Override
+  protected void addFields(FieldReceiver fields) {
+    fields.add("name", name);
+    fields.add("typeParameters", typeParameters);
+    fields.add("returnType", returnType);
+    fields.add("parameters", parameters);
+  }
+
+  String name() {
+    return name;
+  }
+
+  /**
+   * The names of the method's own type parameters, which are variables in type inference.
+   */
+  List<String> typeParameters() {
+    return typeParameters;
+  }
+
+  StyleType returnType() {
+    return returnType;
+  }
+
+  List<Parameter> parameters() {
+    return parameters;
+  }
+
+  List<String> parameterNames() {
+    List<String> names = new ArrayList<>();
+    for (Parameter parameter : parameters) {
+      names.add(parameter.name());
+    }
+    return names;
+  }
+
+  static StyleMethod of(ExecutableElement method) {
+    List<String> typeParameters = new ArrayList<>();
+    for (TypeParameterElement typeParameter : method.getTypeParameters()) {
+      typeParameters.add(typeParameter.toString());
+    }
+    List<Parameter> parameters = new ArrayList<>();
+    for (VariableElement parameter : method.getParameters()) {
+      parameters.add(new Parameter(
+          parameter.getSimpleName().toString(), StyleType.of(parameter.asType())));
+    }
+    return new StyleMethod(method.getSimpleName().toString(), typeParameters,
+        StyleType.of(method.getReturnType()), parameters);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.util.Preconditions;
+import com.google.callbuilder.util.ValueType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * A type in the signature of a style method, reduced to what type inference needs. Unlike a
+ * {@link TypeMirror}, it does not depend on the compiler's model, so it can be stored in a
+ * {@link StyleDescriptor}.
+ */
+final class StyleType extends ValueType {
+  enum Kind {
+    /** A class or interface type. The name is qualified, and it may have type arguments. */
+    DECLARED,
+    /** A type variable, named as in source. */
+    TYPE_VARIABLE,
+    /** A primitive or array type, which type inference treats as an opaque name. */
+    OTHER,
+    /** A type that type inference cannot handle, such as a wildcard. Encoding it fails. */
+    UNSUPPORTED,
+  }
+
+  private final Kind kind;
+  private final String name;
+  private final List<StyleType> typeArguments;
+
+  StyleType(Kind kind, String name, List<StyleType> typeArguments) {
+    super(true);
+    this.kind = Preconditions.checkNotNull(kind);
+    this.name = Preconditions.checkNotNull(name);
+    this.typeArguments = Collections.unmodifiableList(new ArrayList<>(typeArguments));
+  }
+
+  @Override
+  protected void addFields(FieldReceiver fields) {
+    fields.add("kind", kind);
+    fields.add("name", name);
+    fields.add("typeArguments", typeArguments);
+  }
+
+  Kind kind() {
+    return kind;
+  }
+
+  /**
+   * The qualified name of a declared type, the name of a type variable, or the source
+   * representation of any other type.
+   */
+  String name() {
+    return name;
+  }
+
+  /**
+   * The type arguments of a declared type. This is empty for every other kind of type.
+   */
+  List<StyleType> typeArguments() {
+    return typeArguments;
+  }
+
+  static StyleType of(TypeMirror type) {
+    switch (type.getKind()) {
+      case DECLARED:
+        DeclaredType declaredType = (DeclaredType) type;
+        List<StyleType> typeArguments = new ArrayList<>();
+        for (TypeMirror typeArgument : declaredType.getTypeArguments()) {
+          typeArguments.add(of(typeArgument));
+        }
+        return new StyleType(Kind.DECLARED,
+            ((TypeElement) declaredType.asElement()).getQualifiedName().toString(),
+            typeArguments);
+      case TYPEVAR:
+        return new StyleType(
+            Kind.TYPE_VARIABLE, type.toString(), Collections.<StyleType>emptyList());
+      case ARRAY:
+      case BOOLEAN:
+      case BYTE:
+      case CHAR:
+      case DOUBLE:
+      case FLOAT:
+      case INT:
+      case LONG:
+      case SHORT:
+        return new StyleType(Kind.OTHER, type.toString(), Collections.<StyleType>emptyList());
+      default:
+        return new StyleType(
+            Kind.UNSUPPORTED, type.toString(), Collections.<StyleType>emptyList());
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.Unification.Sequence;
+import com.google.callbuilder.Unification.Unifiable;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates {@link Sequence}s, returning the same instance for structurally equal ground sequences,
+ * so that a type which is encoded many times, such as {@code java.util.List<java.lang.String>}, is
+ * only held in memory once and compares by reference. Sequences that contain variables belong to a
+ * single inference problem, so they are created as usual rather than kept here.
+ *
+ * <p>Instances are thread-safe.
+ */
+final class TermFactory {
+  private final ConcurrentMap<Sequence, Sequence> sequences = new ConcurrentHashMap<>();
+
+  /**
+   * Returns a sequence of the given items. Items that are ground sequences should themselves have
+   * been obtained from this factory, or the result will not share their instances.
+   */
+  Sequence sequence(List<? extends Unifiable> items) {
+    Sequence sequence = new Sequence(items);
+    if (!sequence.isGround()) {
+      return sequence;
+    }
+    Sequence existing = sequences.putIfAbsent(sequence, sequence);
+    return (existing != null) ? existing : sequence;
+  }
+
+  /**
+   * The number of distinct ground sequences created so far.
+   */
+  int size() {
+    return sequences.size();
+  }
+}
@@ -13,61 +13,102 @@
  */
 package com.google.callbuilder;
 
+import com.google.callbuilder.Unification.Atom;
+import com.google.callbuilder.Unification.Resolver;
 import com.google.callbuilder.Unification.Sequence;
-import com.google.callbuilder.Unification.Substitution;
 import com.google.callbuilder.Unification.Unifiable;
 import com.google.callbuilder.Unification.Variable;
 import com.google.callbuilder.util.Preconditions;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nullable;
-import javax.lang.model.element.ExecutableElement;
-import javax.lang.model.element.TypeParameterElement;
-import javax.lang.model.element.VariableElement;
-import javax.lang.model.element.VariableElement;
 import javax.lang.model.element.VariableElement;
 
 /**
  * Utility methods for inferring the types of things.
+ *
+ * <p>All access to the compiler's model of the style and parameter happens when an instance is
+ * created, which encodes the unification problems for the builder field and for every modifier.
+ * The problems are solved the first time their results are requested, and the results are kept.
+ * Requesting results only touches the encoded problems, so it is safe from any thread.
  */
 final class TypeInference {
-  private final AtomAndVarRegistry registry;
-  private final Unifiable builderFieldType;
+  /**
+   * The unification algorithm used to solve the encoded problems.
+   */
+  private static final Unification.Engine ENGINE = Unification.UNION_FIND;
 
-  TypeInference(AtomAndVarRegistry registry, Unifiable builderFieldType) {
-    this.registry = Preconditions.checkNotNull(registry);
-    this.builderFieldType = Preconditions.checkNotNull(builderFieldType);
+  /**
+   * The encoded signature of a modifier: the type it returns and the types of the parameters that
+   * follow the field being modified.
+   */
+  private static final class EncodedModifier {
+    private final Unifiable returnType;
+    private final List<Unifiable> nonFieldParameterTypes;
+
+    EncodedModifier(Unifiable returnType, List<Unifiable> nonFieldParameterTypes) {
+      this.returnType = Preconditions.checkNotNull(returnType);
+      this.nonFieldParameterTypes =
+          Collections.unmodifiableList(new ArrayList<>(nonFieldParameterTypes));
+    }
   }
 
-  private static Map<String, Variable> overridenTypeVariables(ExecutableElement method) {
-    Map<String, Variable> variables = new HashMap<>();
-    for (TypeParameterElement typeParameter : method.getTypeParameters()) {
-      variables.put(typeParameter.toString(), new Variable());
-    }
-    return variables;
+  private final ProcessorStatistics statistics;
+  private final AtomAndVarRegistry registry;
+  private final Variable builderFieldVariable;
+  private final Sequence lhs;
+  private final Sequence rhs;
+  private final List<EncodedModifier> modifiers;
+
+  // The fields below hold the results of solving, and are guarded by this.
+  private boolean solved;
+  private @Nullable Unifiable builderFieldType;
+  private @Nullable String builderFieldTypeString;
+
+  /**
+   * Results of {@link #modifierParameterTypes(int)} by modifier index, which are only valid where
+   * {@link #modifierSolved} is set. An entry is {@code null} if unification failed for it.
+   */
+  private final List<List<String>> modifierParameterTypes;
+  private final boolean[] modifierSolved;
+
+  private TypeInference(ProcessorStatistics statistics, AtomAndVarRegistry registry,
+      Variable builderFieldVariable, Sequence lhs, Sequence rhs, List<EncodedModifier> modifiers) {
+    this.statistics = Preconditions.checkNotNull(statistics);
+    this.registry = Preconditions.checkNotNull(registry);
+    this.builderFieldVariable = Preconditions.checkNotNull(builderFieldVariable);
+    this.lhs = Preconditions.checkNotNull(lhs);
+    this.rhs = Preconditions.checkNotNull(rhs);
+    this.modifiers = Collections.unmodifiableList(new ArrayList<>(modifiers));
+    this.modifierParameterTypes =
+        new ArrayList<>(Collections.<List<String>>nCopies(modifiers.size(), null));
+    this.modifierSolved = new boolean[modifiers.size()];
   }
 
   /**
-   * Attempts to perform type inference for the field that has the given style.
+   * Encodes the type inference problems for the field that has the given style. This is the only
+   * part of type inference that needs the compiler's model, so it must happen on the thread that
+   * runs the processor.
+   * @param statistics where the time spent solving the problems is recorded
+   * @param registry the registry shared by every problem in the processing round
    * @param fieldStyle the style of the field
    * @param parameter the original parameter on the annotated method for which the field is being
    *     generated
    */
-  static @Nullable TypeInference forField(FieldStyle fieldStyle, VariableElement parameter) {
+  static TypeInference forField(ProcessorStatistics statistics,
+      AtomAndVarRegistry registry, FieldStyle fieldStyle, VariableElement parameter) {
     List<Unifiable> lhs = new ArrayList<>();
     List<Unifiable> rhs = new ArrayList<>();
-    AtomAndVarRegistry registry = new AtomAndVarRegistry();
 
     Variable builderFieldType = new Variable();
-    Map<String, Variable> startOverridenTypeVariables =
-        overridenTypeVariables(fieldStyle.start());
-    Map<String, Variable> finishOverridenTypeVariables =
-        overridenTypeVariables(fieldStyle.finish());
+    Map<Atom, Variable> startOverridenTypeVariables =
+        registry.freshVariables(fieldStyle.start());
+    Map<Atom, Variable> finishOverridenTypeVariables =
+        registry.freshVariables(fieldStyle.finish());
 
     // The generic type parameters of the start and finish method are actually variables in
     // unification, while type parameters of enclosing classes etc. are not. Override the
@@ -77,34 +118,61 @@ final class TypeInference {
 
     // The return of start() must match the type of the builder field.
     lhs.add(registry.encode(
-        fieldStyle.start().getReturnType(),
+        fieldStyle.start().returnType(),
         startOverridenTypeVariables));
     rhs.add(builderFieldType);
 
     // The parameter type of finish() must also match the type of the builder field.
     lhs.add(builderFieldType);
-    List<? extends VariableElement> finishParameters = fieldStyle.finish().getParameters();
-    // TODO: report an error if the number of elements in finishParameters is not 1.
+    List<StyleMethod.Parameter> finishParameters = fieldStyle.finish().parameters();
+    // FieldStyle.fromStyleClass only accepts a finish() with exactly one parameter.
     rhs.add(registry.encode(
-        finishParameters.get(0).asType(),
+        finishParameters.get(0).type(),
         finishOverridenTypeVariables));
 
     // The return type of finish() must match the value expected by the annotated method.
     lhs.add(registry.encode(
-        fieldStyle.finish().getReturnType(),
+        fieldStyle.finish().returnType(),
         finishOverridenTypeVariables));
-    rhs.add(registry.encode(parameter.asType(), Collections.<String, Variable>emptyMap()));
+    rhs.add(registry.encode(parameter.asType()));
+
+    List<EncodedModifier> modifiers = new ArrayList<>();
+    for (StyleMethod modifier : fieldStyle.modifiers()) {
+      Map<Atom, Variable> overridenTypeVariables = registry.freshVariables(modifier);
+      List<Unifiable> nonFieldParameterTypes = new ArrayList<>();
+      List<StyleMethod.Parameter> parameters = modifier.parameters();
+      for (StyleMethod.Parameter modifierParameter : parameters.subList(1, parameters.size())) {
+        nonFieldParameterTypes.add(
+            registry.encode(modifierParameter.type(), overridenTypeVariables));
+      }
+      modifiers.add(new EncodedModifier(
+          registry.encode(modifier.returnType(), overridenTypeVariables),
+          nonFieldParameterTypes));
+    }
 
-    Substitution result = Unification.unify(new Sequence(lhs), new Sequence(rhs));
-    if (result != null) {
-      return new TypeInference(registry, result.resolve(builderFieldType));
-    } else {
-      return null;
+    return new TypeInference(statistics,
+        registry, builderFieldType, new Sequence(lhs), new Sequence(rhs), modifiers);
+  }
+
+  private void solve() {
+    if (!solved) {
+      ProcessorStatistics.Span span = statistics.start(ProcessorStatistics.Phase.TYPE_INFERENCE);
+      try {
+        Resolver result = ENGINE.unify(lhs, rhs);
+        if (result != null) {
+          builderFieldType = result.resolve(builderFieldVariable);
+          builderFieldTypeString = registry.toType(builderFieldType);
+        }
+      } finally {
+        span.end();
+      }
+      solved = true;
     }
   }
 
   /**
-   * Returns the fully-qualified name of the field in the builder. This type is dictated by:
+   * Returns the fully-qualified name of the field in the builder, or {@code null} if unification
+   * failed. This type is dictated by:
    * <ul>
    *   <li>the type the annotated method expects in its parameter list
    *   <li>the type the type returned by the {@link BuilderField} style's {@code start()} method
@@ -115,29 +183,39 @@ final class TypeInference {
    * as simple as it first seems. For instance, the {@code finish()} method may convert a Guava
    * {@code Optional} to a nullable field, or vice-versa.
    */
-  String builderFieldType() {
-    return registry.toType(builderFieldType);
+  synchronized @Nullable String builderFieldType() {
+    solve();
+    return builderFieldTypeString;
   }
 
   /**
    * Returns the fully-qualified types of each parameter in the <em>generated</em> modifier, or
-   * {@code null} if unification failed.
+   * {@code null} if unification failed. The result is computed once per modifier and reused by
+   * every field that shares this inference.
+   *
+   * @param modifierIndex the index of the modifier in {@link FieldStyle#modifiers()}
    */
-  @Nullable List<String> modifierParameterTypes(ExecutableElement modifier) {
-    Map<String, Variable> overridenTypeVariables = overridenTypeVariables(modifier);
+  synchronized @Nullable List<String> modifierParameterTypes(int modifierIndex) {
+    if (!modifierSolved[modifierIndex]) {
+      modifierParameterTypes.set(modifierIndex, inferModifierParameterTypes(modifierIndex));
+      modifierSolved[modifierIndex] = true;
+    }
+    return modifierParameterTypes.get(modifierIndex);
+  }
 
-    Substitution result = Unification.unify(
-        builderFieldType, registry.encode(modifier.getReturnType(), overridenTypeVariables));
+  private @Nullable List<String> inferModifierParameterTypes(int modifierIndex) {
+    solve();
+    if (builderFieldType == null) {
+      return null;
+    }
+    EncodedModifier modifier = modifiers.get(modifierIndex);
+    Resolver result = ENGINE.unify(builderFieldType, modifier.returnType);
     if (result != null) {
       List<String> parameterTypes = new ArrayList<>();
-      List<? extends VariableElement> parameters = modifier.getParameters();
-      for (VariableElement parameter : parameters.subList(1, parameters.size())) {
-        parameterTypes.add(
-            registry.toType(
-                result.resolve(
-                    registry.encode(parameter.asType(), overridenTypeVariables))));
+      for (Unifiable parameterType : modifier.nonFieldParameterTypes) {
+        parameterTypes.add(registry.toType(result.resolve(parameterType)));
       }
-      return parameterTypes;
+      return Collections.unmodifiableList(parameterTypes);
     }
     return null;
   }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.util.Preconditions;
+import com.google.callbuilder.util.ValueType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+
+/**
+ * Memoizes {@link TypeInference} results by the shape of the problem being solved, which is the
+ * style class together with the type of the annotated parameter. The inference only depends on
+ * those two things, so every {@code ArrayList<String>} parameter styled with
+ * {@code ArrayListAdding} shares a single result, including the per-modifier parameter types.
+ *
+ * <p>Results and the {@link AtomAndVarRegistry} they are encoded with only last for one processing
+ * round (see {@link #startRound()}), since both are keyed by elements and type mirrors of the
+ * compiler, which are not meant to be used in later rounds.
+ */
+final class TypeInferenceCache {
+  private static final class Shape extends ValueType {
+    private final TypeElement style;
+    private final String parameterType;
+
+    Shape(TypeElement style, String parameterType) {
+      super(true);
+      this.style = Preconditions.checkNotNull(style);
+      this.parameterType = Preconditions.checkNotNull(parameterType);
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("style", style);
+      fields.add("parameterType", parameterType);
+    }
+  }
+
+  private final Map<Shape, TypeInference> inferences = new HashMap<>();
+  private final ProcessorStatistics statistics;
+  private AtomAndVarRegistry registry = new AtomAndVarRegistry();
+  private int hits;
+  private int misses;
+
+  TypeInferenceCache(ProcessorStatistics statistics) {
+    this.statistics = Preconditions.checkNotNull(statistics);
+  }
+
+  /**
+   * Forgets the results and encodings of earlier rounds, so that they neither keep the compiler's
+   * model objects of those rounds alive nor miss equal types of this round by identity. Call this
+   * at the start of each round, before any result of the round is used.
+   */
+  void startRound() {
+    inferences.clear();
+    registry = new AtomAndVarRegistry();
+  }
+
+  /**
+   * Returns the same result as
+   * {@link TypeInference#forField(ProcessorStatistics, AtomAndVarRegistry, FieldStyle,
+   * VariableElement)}, reusing an earlier result if a field of the same shape has already been
+   * inferred.
+   */
+  TypeInference forField(FieldStyle fieldStyle, VariableElement parameter) {
+    Shape shape = new Shape(
+        (TypeElement) fieldStyle.styleClass().asElement(), parameter.asType().toString());
+    TypeInference inference = inferences.get(shape);
+    if (inference != null) {
+      hits++;
+      return inference;
+    }
+
+    misses++;
+    ProcessorStatistics.Span span = statistics.start(ProcessorStatistics.Phase.TYPE_INFERENCE);
+    try {
+      inference = TypeInference.forField(statistics, registry, fieldStyle, parameter);
+    } finally {
+      span.end();
+    }
+    inferences.put(shape, inference);
+    return inference;
+  }
+
+  /**
+   * The number of requests that were satisfied by an earlier result.
+   */
+  int hits() {
+    return hits;
+  }
+
+  /**
+   * The number of requests that required encoding a new inference problem.
+   */
+  int misses() {
+    return misses;
+  }
+}
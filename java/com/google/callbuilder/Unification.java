@@ -16,16 +16,24 @@ package com.google.callbuilder;
 import com.google.callbuilder.util.Preconditions;
 import com.google.callbuilder.util.ValueType;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
 /**
- * Performs symbolic unification.
+ * Performs symbolic unification. There are two implementations of the algorithm, which produce the
+ * same results: {@link #SUBSTITUTION}, which produces a substitution map that is resolved by
+ * applying it repeatedly and is implemented by the static methods of this class, and
+ * {@link #UNION_FIND}, which binds variables in place and scales better to wide and deeply nested
+ * terms.
  */
 final class Unification {
   private Unification() {}
@@ -34,6 +42,47 @@ final class Unification {
     Unifiable apply(Map<Variable, Unifiable> substitutions);
   }
 
+  /**
+   * The results of a successful unification.
+   */
+  interface Resolver {
+    /**
+     * Resolves a term to the fullest extent possible, replacing each bound variable in it with the
+     * term it is bound to until only atoms and unbound variables remain.
+     */
+    Unifiable resolve(Unifiable unifiable);
+  }
+
+  /**
+   * An implementation of unification.
+   */
+  interface Engine {
+    /**
+     * Unifies two terms, returning {@code null} if they cannot be unified.
+     */
+    @Nullable Resolver unify(Unifiable lhs, Unifiable rhs);
+  }
+
+  /**
+   * Unifies with {@link #unify(Unifiable, Unifiable)}.
+   */
+  static final Engine SUBSTITUTION = new Engine() {
+    @Override
+    public Resolver unify(Unifiable lhs, Unifiable rhs) {
+      return Unification.unify(lhs, rhs);
+    }
+  };
+
+  /**
+   * Unifies with {@link UnionFindUnification}.
+   */
+  static final Engine UNION_FIND = new Engine() {
+    @Override
+    public Resolver unify(Unifiable lhs, Unifiable rhs) {
+      return UnionFindUnification.unify(lhs, rhs);
+    }
+  };
+
   static final class Atom implements Unifiable {
     @Override
     public Unifiable apply(Map<Variable, Unifiable> substitutions) {
@@ -48,35 +97,91 @@ final class Unification {
     }
   }
 
-  static final class Sequence extends ValueType implements Unifiable {
+  /**
+   * A sequence of terms. Two sequences are equal if their items are equal, where atoms and
+   * variables are only equal to themselves. The hash code is computed when the sequence is created,
+   * and ground sequences obtained from the same {@link TermFactory} are equal only if they are the
+   * same instance, so comparing them is cheap.
+   */
+  static final class Sequence implements Unifiable {
     private final List<Unifiable> items;
+    private final int hashCode;
+    private final boolean ground;
 
-    Sequence(List<Unifiable> items) {
+    Sequence(List<? extends Unifiable> items) {
       this.items = Collections.unmodifiableList(new ArrayList<Unifiable>(items));
+      int hashCode = 1;
+      boolean ground = true;
+      for (Unifiable item : this.items) {
+        hashCode = 31 * hashCode + item.hashCode();
+        ground &= (item instanceof Atom)
+            || ((item instanceof Sequence) && ((Sequence) item).ground);
+      }
+      this.hashCode = hashCode;
+      this.ground = ground;
     }
 
     List<Unifiable> items() {
       return items;
     }
 
-    @Override
-    protected void addFields(FieldReceiver fields) {
-      fields.add("items", items);
+    /**
+     * Whether this sequence contains no variables, at any depth.
+     */
+    boolean isGround() {
+      return ground;
     }
 
     @Override
     public Unifiable apply(Map<Variable, Unifiable> substitutions) {
-      return sequenceApply(substitutions, items());
+      return ground ? this : sequenceApply(substitutions, this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof Sequence)) {
+        return false;
+      }
+      Sequence other = (Sequence) obj;
+      if (other.hashCode != hashCode || other.items.size() != items.size()) {
+        return false;
+      }
+      for (int i = 0; i < items.size(); i++) {
+        if (!items.get(i).equals(other.items.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public String toString() {
+      return "Sequence{items=" + items + "}";
     }
   }
 
+  /**
+   * Applies {@code substitutions} to each item of {@code sequence}, returning {@code sequence}
+   * itself if no item changes.
+   */
   private static Sequence sequenceApply(
-      Map<Variable, Unifiable> substitutions, Iterable<Unifiable> items) {
-    List<Unifiable> newItems = new ArrayList<>();
-    for (Unifiable oldItem : items) {
-      newItems.add(oldItem.apply(substitutions));
+      Map<Variable, Unifiable> substitutions, Sequence sequence) {
+    List<Unifiable> newItems = new ArrayList<>(sequence.items().size());
+    boolean changed = false;
+    for (Unifiable oldItem : sequence.items()) {
+      Unifiable newItem = oldItem.apply(substitutions);
+      changed |= (newItem != oldItem);
+      newItems.add(newItem);
     }
-    return new Sequence(newItems);
+    return changed ? new Sequence(newItems) : sequence;
   }
 
   /**
@@ -92,44 +197,89 @@ final class Unification {
     return composed;
   }
 
-  private static @Nullable Substitution sequenceUnify(Sequence lhs, Sequence rhs) {
-    if (lhs.items().size() != rhs.items().size()) {
-      return null;
-    }
-    if (lhs.items().isEmpty()) {
-      return EMPTY;
-    }
-    Unifiable firstLhs = lhs.items().get(0);
-    Unifiable firstRhs = rhs.items().get(0);
-    Substitution subs1 = unify(firstLhs, firstRhs);
-    if (subs1 != null) {
-      Sequence restLhs = sequenceApply(subs1.resultMap(), lhs.items().subList(1, lhs.items().size()));
-      Sequence restRhs = sequenceApply(subs1.resultMap(), rhs.items().subList(1, rhs.items().size()));
-      Substitution subs2 = sequenceUnify(restLhs, restRhs);
-      if (subs2 != null) {
-        Map<Variable, Unifiable> joined = new HashMap<>();
-        joined.putAll(subs1.resultMap());
-        joined.putAll(subs2.resultMap());
-        return new Substitution(joined);
+  /**
+   * Follows the bindings of {@code unifiable} for as long as it is a bound variable.
+   */
+  private static Unifiable walk(Unifiable unifiable, Map<Variable, Unifiable> bindings) {
+    while (unifiable instanceof Variable && bindings.containsKey(unifiable)) {
+      unifiable = bindings.get(unifiable);
+    }
+    return unifiable;
+  }
+
+  /**
+   * Returns whether {@code variable} occurs in {@code unifiable}, once the variables in
+   * {@code unifiable} are replaced with what they are bound to. Binding the variable to such a term
+   * would make it infinite. Each bound variable is followed at most once, so the cost is bounded by
+   * the size of the bindings and the term.
+   */
+  private static boolean occurs(
+      Variable variable, Unifiable unifiable, Map<Variable, Unifiable> bindings) {
+    Deque<Unifiable> pending = new ArrayDeque<>();
+    Set<Variable> followed = new HashSet<>();
+    pending.push(unifiable);
+    while (!pending.isEmpty()) {
+      Unifiable current = pending.pop();
+      if (current == variable) {
+        return true;
+      }
+      if (current instanceof Variable) {
+        if (followed.add((Variable) current) && bindings.containsKey(current)) {
+          pending.push(bindings.get(current));
+        }
+      } else if (current instanceof Sequence) {
+        for (Unifiable item : ((Sequence) current).items()) {
+          pending.push(item);
+        }
       }
     }
-    return null;
+    return false;
   }
 
+  /**
+   * Unifies two terms, returning {@code null} if they cannot be unified. Pending pairs of terms are
+   * kept on an explicit stack rather than the call stack, so wide and deeply nested terms do not
+   * risk a {@link StackOverflowError}, and a variable is never bound to a term that contains it, so
+   * {@link Substitution#resolve(Unifiable)} always terminates.
+   */
   static @Nullable Substitution unify(Unifiable lhs, Unifiable rhs) {
-    if (lhs instanceof Variable) {
-      return new Substitution(Collections.<Variable, Unifiable>singletonMap((Variable) lhs, rhs));
-    }
-    if (rhs instanceof Variable) {
-      return new Substitution(Collections.<Variable, Unifiable>singletonMap((Variable) rhs, lhs));
-    }
-    if (lhs instanceof Atom && rhs instanceof Atom) {
-      return lhs == rhs ? EMPTY : null;
-    }
-    if (lhs instanceof Sequence && rhs instanceof Sequence) {
-      return sequenceUnify((Sequence) lhs, (Sequence) rhs);
+    Map<Variable, Unifiable> bindings = new HashMap<>();
+    // Pairs of terms that remain to be unified, left term on top.
+    Deque<Unifiable> pending = new ArrayDeque<>();
+    pending.push(rhs);
+    pending.push(lhs);
+    while (!pending.isEmpty()) {
+      Unifiable left = walk(pending.pop(), bindings);
+      Unifiable right = walk(pending.pop(), bindings);
+      if (left == right) {
+        continue;
+      }
+      if (left instanceof Variable) {
+        if (occurs((Variable) left, right, bindings)) {
+          return null;
+        }
+        bindings.put((Variable) left, right);
+      } else if (right instanceof Variable) {
+        if (occurs((Variable) right, left, bindings)) {
+          return null;
+        }
+        bindings.put((Variable) right, left);
+      } else if (left instanceof Sequence && right instanceof Sequence) {
+        List<Unifiable> leftItems = ((Sequence) left).items();
+        List<Unifiable> rightItems = ((Sequence) right).items();
+        if (leftItems.size() != rightItems.size()) {
+          return null;
+        }
+        for (int i = leftItems.size() - 1; i >= 0; i--) {
+          pending.push(rightItems.get(i));
+          pending.push(leftItems.get(i));
+        }
+      } else {
+        // Two distinct atoms, or an atom and a sequence.
+        return null;
+      }
     }
-    return null;
+    return new Substitution(bindings);
   }
 
   /**
@@ -137,10 +287,11 @@ final class Unification {
    * that resulted from the algorithm, but also supplies functionality for resolving a variable to
    * the fullest extent possible with the {@code resolve} method.
    */
-  static final class Substitution extends ValueType {
+  static final class Substitution extends ValueType implements Resolver {
     private final Map<Variable, Unifiable> resultMap;
 
     Substitution(Map<Variable, Unifiable> resultMap) {
+      super(true);
       this.resultMap = Collections.unmodifiableMap(new HashMap<>(resultMap));
     }
 
@@ -158,7 +309,8 @@ final class Unification {
       fields.add("resultMap", resultMap);
     }
 
-    final Unifiable resolve(Unifiable unifiable) {
+    @Override
+    public final Unifiable resolve(Unifiable unifiable) {
       Unifiable previous;
       Unifiable current = unifiable;
       do {
@@ -168,7 +320,4 @@ final class Unification {
       return current;
     }
   }
-
-  private static final Substitution EMPTY =
-      new Substitution(Collections.<Variable, Unifiable>emptyMap());
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.Unification.Sequence;
+import com.google.callbuilder.Unification.Unifiable;
+import com.google.callbuilder.Unification.Variable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Unification with a union-find structure over variables. Unifying two variables links one to the
+ * other, and unifying a variable with an atom or sequence binds the variable's class to that term,
+ * so nothing is copied while unifying. Terms are only rebuilt by {@link Bindings#resolve}, which
+ * remembers what each variable resolved to. A variable is never bound to a term that contains it,
+ * so unification fails rather than creating an infinite term.
+ *
+ * <p>This gives the same results as {@link Unification#unify(Unifiable, Unifiable)}, up to which
+ * variable is chosen to represent a class of variables that is not bound to any term.
+ */
+final class UnionFindUnification {
+  private UnionFindUnification() {}
+
+  /**
+   * The variable bindings found by a successful unification. Instances are not thread-safe.
+   */
+  static final class Bindings implements Unification.Resolver {
+    /**
+     * The parent of each variable that has been linked to another variable. A variable with no
+     * entry is the root of its class.
+     */
+    private final Map<Variable, Variable> parents = new HashMap<>();
+
+    /**
+     * The atom or sequence that each bound root variable is bound to.
+     */
+    private final Map<Variable, Unifiable> terms = new HashMap<>();
+
+    /**
+     * Results of {@link #resolve(Unifiable)} for root variables.
+     */
+    private final Map<Variable, Unifiable> resolved = new HashMap<>();
+
+    private Bindings() {}
+
+    /**
+     * Returns the root of the class of {@code variable}, pointing every variable on the way directly
+     * at the root.
+     */
+    private Variable find(Variable variable) {
+      Variable root = variable;
+      Variable parent;
+      while ((parent = parents.get(root)) != null) {
+        root = parent;
+      }
+      while (variable != root) {
+        Variable next = parents.get(variable);
+        parents.put(variable, root);
+        variable = next;
+      }
+      return root;
+    }
+
+    /**
+     * Returns the term that {@code unifiable} currently stands for: the term its class is bound to
+     * if it is a bound variable, the root of its class if it is an unbound variable, and the term
+     * itself otherwise.
+     */
+    private Unifiable representative(Unifiable unifiable) {
+      if (unifiable instanceof Variable) {
+        Variable root = find((Variable) unifiable);
+        Unifiable term = terms.get(root);
+        return (term != null) ? term : root;
+      }
+      return unifiable;
+    }
+
+    private boolean unify(Unifiable lhs, Unifiable rhs) {
+      // Pairs of terms that remain to be unified, left term on top.
+      Deque<Unifiable> pending = new ArrayDeque<>();
+      pending.push(rhs);
+      pending.push(lhs);
+      while (!pending.isEmpty()) {
+        Unifiable left = representative(pending.pop());
+        Unifiable right = representative(pending.pop());
+        if (left == right) {
+          continue;
+        }
+        if (left instanceof Variable) {
+          if (!bind((Variable) left, right)) {
+            return false;
+          }
+        } else if (right instanceof Variable) {
+          if (!bind((Variable) right, left)) {
+            return false;
+          }
+        } else if (left instanceof Sequence && right instanceof Sequence) {
+          List<Unifiable> leftItems = ((Sequence) left).items();
+          List<Unifiable> rightItems = ((Sequence) right).items();
+          if (leftItems.size() != rightItems.size()) {
+            return false;
+          }
+          for (int i = leftItems.size() - 1; i >= 0; i--) {
+            pending.push(rightItems.get(i));
+            pending.push(leftItems.get(i));
+          }
+        } else {
+          // Two distinct atoms, or an atom and a sequence.
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Binds the class of the unbound root {@code root} to {@code term}, which is another root or an
+     * atom or sequence. Returns {@code false}, without binding anything, if {@code root} occurs in
+     * {@code term}.
+     */
+    private boolean bind(Variable root, Unifiable term) {
+      if (term instanceof Variable) {
+        parents.put(root, (Variable) term);
+      } else if (occurs(root, term)) {
+        return false;
+      } else {
+        terms.put(root, term);
+      }
+      return true;
+    }
+
+    /**
+     * Returns whether the class of {@code root} occurs in {@code term}, once the variables in
+     * {@code term} are replaced by the terms their classes are bound to. Each class is followed at
+     * most once.
+     */
+    private boolean occurs(Variable root, Unifiable term) {
+      Deque<Unifiable> pending = new ArrayDeque<>();
+      Set<Variable> followed = new HashSet<>();
+      pending.push(term);
+      while (!pending.isEmpty()) {
+        Unifiable current = pending.pop();
+        if (current instanceof Variable) {
+          Variable currentRoot = find((Variable) current);
+          if (currentRoot == root) {
+            return true;
+          }
+          Unifiable bound = terms.get(currentRoot);
+          if (bound != null && followed.add(currentRoot)) {
+            pending.push(bound);
+          }
+        } else if (current instanceof Sequence) {
+          for (Unifiable item : ((Sequence) current).items()) {
+            pending.push(item);
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Unifiable resolve(Unifiable unifiable) {
+      if (unifiable instanceof Variable) {
+        Variable root = find((Variable) unifiable);
+        Unifiable result = resolved.get(root);
+        if (result == null) {
+          Unifiable term = terms.get(root);
+          result = (term != null) ? resolve(term) : root;
+          resolved.put(root, result);
+        }
+        return result;
+      }
+      if (unifiable instanceof Sequence && !((Sequence) unifiable).isGround()) {
+        List<Unifiable> items = ((Sequence) unifiable).items();
+        List<Unifiable> resolvedItems = new ArrayList<>(items.size());
+        boolean changed = false;
+        for (Unifiable item : items) {
+          Unifiable resolvedItem = resolve(item);
+          changed |= (resolvedItem != item);
+          resolvedItems.add(resolvedItem);
+        }
+        return changed ? new Sequence(resolvedItems) : unifiable;
+      }
+      return unifiable;
+    }
+  }
+
+  /**
+   * Unifies two terms, returning {@code null} if they cannot be unified.
+   */
+  static @Nullable Bindings unify(Unifiable lhs, Unifiable rhs) {
+    Bindings bindings = new Bindings();
+    return bindings.unify(lhs, rhs) ? bindings : null;
+  }
+}
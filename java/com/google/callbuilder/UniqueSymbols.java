@@ -46,25 +46,29 @@ public final class UniqueSymbols {
 
   private final Set<String> userDefined;
 
-  private final Map<String, String> cached;
+  /**
+   * Every name that is user-defined or has been returned by {@link #get(String)}.
+   */
   private final Set<String> used;
 
+  /**
+   * The index at which to continue looking for an unused name, by desired name. Every index below
+   * it has either been returned or collides with a user-defined name, so each index is tried at
+   * most once per desired name.
+   */
+  private final Map<String, Integer> nextIndex;
+
   private UniqueSymbols(Set<String> userDefined) {
     this.userDefined = Collections.unmodifiableSet(new HashSet<>(userDefined));
 
-    this.cached = new HashMap<>();
-    this.used = new HashSet<>();
-    this.used.addAll(userDefined);
+    this.used = new HashSet<>(userDefined);
+    this.nextIndex = new HashMap<>();
   }
 
   public Set<String> getUserDefined() {
     return userDefined;
   }
 
-  private static String template(String desired, int tryIndex) {
-    return String.format("%s_gensym_%d", desired, tryIndex);
-  }
-
   /**
    * Returns a unique name which can be used for an identifier generated implicitly. Note that this
    * method returns differing {@link String}s even when called repeatedly with the same value for
@@ -72,17 +76,15 @@ public final class UniqueSymbols {
    * and discourages implicit naming conventions.
    */
   public String get(String desired) {
-    if (cached.containsKey(desired)) {
-      return cached.get(desired);
-    }
-
-    int tryIndex = 0;
-    while (true) {
-      String collisionCheck = template(desired, tryIndex);
-      if (used.add(collisionCheck)) {
-        cached.put(desired, collisionCheck);
-        return collisionCheck;
-      }
-    }
+    Integer next = nextIndex.get(desired);
+    int tryIndex = (next == null) ? 0 : next;
+    String prefix = desired + "_gensym_";
+    String candidate;
+    do {
+      candidate = prefix + tryIndex;
+      tryIndex++;
+    } while (!used.add(candidate));
+    nextIndex.put(desired, tryIndex);
+    return candidate;
   }
 }
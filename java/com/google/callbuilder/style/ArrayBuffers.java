@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.style;
+
+/**
+ * The growth policy of the buffers of {@link IntArrayAdding}, {@link LongArrayAdding} and
+ * {@link DoubleArrayAdding}. Those three styles are the same code for different primitive types,
+ * since a buffer of a primitive array cannot be generic without boxing. Their buffers grow through
+ * {@link #grownCapacity}, start and finish empty with a shared empty array, and are copied and
+ * finished by trimming their array to its size, so a change to one of them belongs in all three.
+ */
+final class ArrayBuffers {
+  private ArrayBuffers() {}
+
+  /**
+   * The largest array that some VMs can allocate, as in {@link java.util.ArrayList}.
+   */
+  static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  /**
+   * The smallest array that a buffer allocates once it holds any items.
+   */
+  private static final int MIN_CAPACITY = 8;
+
+  /**
+   * Returns the length to which a buffer array of {@code length} grows to hold {@code needed}
+   * items, which is at least twice its length, or {@code length} if it already holds them.
+   *
+   * @throws OutOfMemoryError if {@code needed} is negative, because computing it overflowed, or
+   *     greater than {@link #MAX_CAPACITY}
+   */
+  static int grownCapacity(int length, int needed) {
+    if (needed < 0 || needed > MAX_CAPACITY) {
+      throw new OutOfMemoryError("Array buffer cannot hold " + (needed & 0xffffffffL) + " items");
+    }
+    if (needed <= length) {
+      return length;
+    }
+    long doubled = Math.max(length * 2L, MIN_CAPACITY);
+    return (int) Math.max(needed, Math.min(doubled, MAX_CAPACITY));
+  }
+}
@@ -13,8 +13,11 @@
  */
 package com.google.callbuilder.style;
 
+import com.google.callbuilder.BuilderStyle;
+
 import java.util.ArrayList;
 
+@BuilderStyle
 public class ArrayListAdding {
   private ArrayListAdding() {}
 
@@ -31,6 +34,11 @@ public class ArrayListAdding {
     return to;
   }
 
+  @BuilderStyle.Copy
+  public static <T> ArrayList<T> copy(ArrayList<T> from) {
+    return new ArrayList<>(from);
+  }
+
   public static <T, E> ArrayList<T> addAllTo(ArrayList<T> to, Iterable<T> items) {
     for (T item : items) {
       to.add(item);
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.style;
+
+import com.google.callbuilder.BuilderStyle;
+import com.google.callbuilder.style.ChunkedStringAppending.Chunks;
+
+/**
+ * Appends text like {@link ChunkedStringAppending}, for parameters of type {@link CharSequence}.
+ * This finishes with a read-only view of the chunks, which only copies the last, partly filled
+ * chunk. Text appended with the same builder afterwards does not show in the view. The view's
+ * {@code toString()} and {@code subSequence} return new strings.
+ */
+@BuilderStyle
+public class ChunkedCharSequenceAppending {
+  private ChunkedCharSequenceAppending() {}
+
+  public static Chunks start() {
+    return ChunkedStringAppending.start();
+  }
+
+  public static CharSequence finish(Chunks from) {
+    return from.view();
+  }
+
+  public static Chunks appendTo(Chunks to, CharSequence value) {
+    return ChunkedStringAppending.appendTo(to, value);
+  }
+
+  public static Chunks appendTo(Chunks to, CharSequence value, int start, int end) {
+    return ChunkedStringAppending.appendTo(to, value, start, end);
+  }
+
+  public static Chunks appendTo(Chunks to, char value) {
+    return ChunkedStringAppending.appendTo(to, value);
+  }
+
+  public static Chunks appendTo(Chunks to, int value) {
+    return ChunkedStringAppending.appendTo(to, value);
+  }
+
+  @BuilderStyle.Copy
+  public static Chunks copy(Chunks from) {
+    return ChunkedStringAppending.copy(from);
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.style;
+
+import com.google.callbuilder.BuilderStyle;
+
+import java.util.ArrayList;
+
+/**
+ * Appends text like {@link StringAppending}, but into a list of chunks of bounded size rather than
+ * one buffer, for strings that run to megabytes. Growing never copies text that is already in a
+ * full chunk. When the builder finishes, the chunks are copied once into a {@code StringBuilder}
+ * of exactly the final length, whose {@code toString()} makes the {@code String}. The
+ * {@code char}, {@code int} and sub-range modifiers append without making intermediate strings.
+ * See {@link ChunkedCharSequenceAppending} for a style that finishes without copying the text.
+ */
+@BuilderStyle
+public class ChunkedStringAppending {
+  private ChunkedStringAppending() {}
+
+  public static Chunks start() {
+    return new Chunks();
+  }
+
+  public static String finish(Chunks from) {
+    return from.toString();
+  }
+
+  public static Chunks appendTo(Chunks to, CharSequence value) {
+    return to.append(value);
+  }
+
+  /**
+   * Appends the characters of {@code value} from {@code start}, inclusive, to {@code end},
+   * exclusive.
+   */
+  public static Chunks appendTo(Chunks to, CharSequence value, int start, int end) {
+    return to.append(value, start, end);
+  }
+
+  public static Chunks appendTo(Chunks to, char value) {
+    return to.append(value);
+  }
+
+  /**
+   * Appends the decimal representation of {@code value}, as {@link StringBuilder#append(int)}
+   * does.
+   */
+  public static Chunks appendTo(Chunks to, int value) {
+    return to.append(value);
+  }
+
+  @BuilderStyle.Copy
+  public static Chunks copy(Chunks from) {
+    return from.copy();
+  }
+
+  /**
+   * Text that is being appended, held in {@code StringBuilder}s, which keep text that fits in
+   * Latin-1 in one byte per character on runtimes with compact strings. Every chunk but the last
+   * is full and is never changed again. The first chunk grows until it holds {@link #CHUNK_SIZE}
+   * characters, so short strings do not pay for a whole chunk, and every later chunk holds exactly
+   * that many, so the chunk holding any index is found by a shift.
+   */
+  public static final class Chunks {
+    private static final int CHUNK_SHIFT = 13;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /**
+     * The most characters that {@link StringBuilder#append(int)} appends.
+     */
+    private static final int MAX_INT_LENGTH = 11;
+
+    private final ArrayList<StringBuilder> chunks;
+    private StringBuilder last;
+    private int length;
+
+    private Chunks() {
+      this.chunks = new ArrayList<>();
+      this.last = new StringBuilder();
+      this.chunks.add(last);
+    }
+
+    private Chunks(Chunks from) {
+      this.chunks = new ArrayList<>(from.chunks.size());
+      for (StringBuilder chunk : from.chunks) {
+        // The first chunk may be smaller, and room() grows it. Every later chunk gets exactly the
+        // chunk size, since room() does not grow it and StringBuilder must never have to.
+        this.chunks.add(this.chunks.isEmpty()
+            ? new StringBuilder(chunk.capacity()).append(chunk)
+            : new StringBuilder(CHUNK_SIZE).append(chunk));
+      }
+      this.last = chunks.get(chunks.size() - 1);
+      this.length = from.length;
+    }
+
+    /**
+     * Returns the number of characters that can be appended to the last chunk, starting a new
+     * chunk if it is full. The first chunk grows to make room for up to {@code wanted}.
+     */
+    private int room(int wanted) {
+      int used = last.length();
+      if (used == CHUNK_SIZE) {
+        last = new StringBuilder(CHUNK_SIZE);
+        chunks.add(last);
+        return CHUNK_SIZE;
+      }
+      if (chunks.size() == 1 && last.capacity() - used < wanted) {
+        // Grow the first chunk here rather than let StringBuilder do it, which could take its
+        // capacity past the chunk size.
+        StringBuilder grown = new StringBuilder(
+            Math.min(CHUNK_SIZE, Math.max(used + Math.min(wanted, CHUNK_SIZE), used * 2)));
+        last = grown.append(last);
+        chunks.set(0, last);
+      }
+      return CHUNK_SIZE - used;
+    }
+
+    Chunks append(char value) {
+      room(1);
+      last.append(value);
+      length++;
+      return this;
+    }
+
+    Chunks append(CharSequence value) {
+      if (value == null) {
+        value = "null";
+      }
+      return append(value, 0, value.length());
+    }
+
+    Chunks append(CharSequence value, int start, int end) {
+      if (value == null) {
+        value = "null";
+      }
+      if (start < 0 || start > end || end > value.length()) {
+        throw new IndexOutOfBoundsException(
+            "start " + start + ", end " + end + ", length " + value.length());
+      }
+      while (start < end) {
+        int count = Math.min(room(end - start), end - start);
+        last.append(value, start, start + count);
+        start += count;
+        length += count;
+      }
+      return this;
+    }
+
+    Chunks append(int value) {
+      if (room(MAX_INT_LENGTH) >= MAX_INT_LENGTH) {
+        int before = last.length();
+        last.append(value);
+        length += last.length() - before;
+        return this;
+      }
+      // Near the end of a chunk, append one digit at a time so that no chunk holds more than
+      // CHUNK_SIZE characters.
+      long remaining = value;
+      if (remaining < 0) {
+        append('-');
+        remaining = -remaining;
+      }
+      long divisor = 1;
+      while (divisor * 10 <= remaining) {
+        divisor *= 10;
+      }
+      for (; divisor > 0; divisor /= 10) {
+        append((char) ('0' + (remaining / divisor) % 10));
+      }
+      return this;
+    }
+
+    Chunks copy() {
+      return new Chunks(this);
+    }
+
+    /**
+     * Returns a read-only view of the text appended so far. The full chunks are shared with the
+     * view, since they are never changed again, and the last chunk, which holds fewer than
+     * {@link #CHUNK_SIZE} characters, is copied, so appending more text does not change the view.
+     */
+    CharSequence view() {
+      CharSequence[] parts = chunks.toArray(new CharSequence[chunks.size()]);
+      parts[parts.length - 1] = last.toString();
+      return new View(parts, length);
+    }
+
+    @Override
+    public String toString() {
+      if (chunks.size() == 1) {
+        return last.toString();
+      }
+      return View.copyRange(chunks.toArray(new CharSequence[chunks.size()]), 0, length);
+    }
+  }
+
+  private static final class View implements CharSequence {
+    private final CharSequence[] chunks;
+    private final int length;
+
+    View(CharSequence[] chunks, int length) {
+      this.chunks = chunks;
+      this.length = length;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+      }
+      return chunks[index >>> Chunks.CHUNK_SHIFT].charAt(index & (Chunks.CHUNK_SIZE - 1));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || start > end || end > length) {
+        throw new IndexOutOfBoundsException(
+            "start " + start + ", end " + end + ", length " + length);
+      }
+      return copyRange(chunks, start, end);
+    }
+
+    @Override
+    public String toString() {
+      return copyRange(chunks, 0, length);
+    }
+
+    /**
+     * Copies the characters from {@code start} to {@code end} of the text held in {@code chunks}
+     * into a new string.
+     */
+    static String copyRange(CharSequence[] chunks, int start, int end) {
+      int chunk = start >>> Chunks.CHUNK_SHIFT;
+      int offset = start & (Chunks.CHUNK_SIZE - 1);
+      StringBuilder out = new StringBuilder(end - start);
+      for (int remaining = end - start; remaining > 0; chunk++, offset = 0) {
+        int count = Math.min(remaining, chunks[chunk].length() - offset);
+        out.append(chunks[chunk], offset, offset + count);
+        remaining -= count;
+      }
+      return out.toString();
+    }
+  }
+}
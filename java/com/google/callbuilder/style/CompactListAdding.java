@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.style;
+
+import com.google.callbuilder.BuilderStyle;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Adds items to an {@link ArrayList} like {@link ArrayListAdding}, but finishes with an immutable
+ * list that holds exactly the items that were added, for lists that stay on the heap long after
+ * the call. An empty list is the shared {@link Collections#emptyList()}, a list of one item is a
+ * {@link Collections#singletonList}, a list of two items keeps them in two fields, and a longer
+ * list keeps them in an array of exactly its size. The {@code ArrayList} only exists while the
+ * builder does. Like an {@code ArrayList}, the finished lists may contain {@code null}. It has
+ * the same modifiers as {@code ArrayListAdding}, so moving a parameter from an {@code ArrayList}
+ * with that style to a {@code List} with this one keeps the builder's methods.
+ */
+@BuilderStyle
+public class CompactListAdding {
+  private CompactListAdding() {}
+
+  public static <T> ArrayList<T> start() {
+    return new ArrayList<>();
+  }
+
+  public static <T> List<T> finish(ArrayList<T> list) {
+    switch (list.size()) {
+      case 0:
+        return Collections.emptyList();
+      case 1:
+        return Collections.singletonList(list.get(0));
+      case 2:
+        return new Pair<>(list.get(0), list.get(1));
+      default:
+        return new ArrayBacked<>(list.toArray());
+    }
+  }
+
+  public static <T> ArrayList<T> addTo(ArrayList<T> to, T item) {
+    to.add(item);
+    return to;
+  }
+
+  /**
+   * Adds every item in {@code items}, growing the list at most once to fit all of them.
+   */
+  public static <T> ArrayList<T> addAllTo(ArrayList<T> to, Collection<T> items) {
+    to.addAll(items);
+    return to;
+  }
+
+  /**
+   * Adds every item in {@code items}, like {@link ArrayListAdding#addAllTo}.
+   */
+  public static <T> ArrayList<T> addAllTo(ArrayList<T> to, Iterable<T> items) {
+    for (T item : items) {
+      to.add(item);
+    }
+    return to;
+  }
+
+  @BuilderStyle.Copy
+  public static <T> ArrayList<T> copy(ArrayList<T> from) {
+    return new ArrayList<>(from);
+  }
+
+  private static final class Pair<T> extends AbstractList<T>
+      implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 0;
+
+    private final T first;
+    private final T second;
+
+    Pair(T first, T second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public T get(int index) {
+      switch (index) {
+        case 0:
+          return first;
+        case 1:
+          return second;
+        default:
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: 2");
+      }
+    }
+
+    @Override
+    public int size() {
+      return 2;
+    }
+  }
+
+  private static final class ArrayBacked<T> extends AbstractList<T>
+      implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 0;
+
+    private final Object[] items;
+
+    ArrayBacked(Object[] items) {
+      this.items = items;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      return (T) items[index];
+    }
+
+    @Override
+    public int size() {
+      return items.length;
+    }
+
+    @Override
+    public Object[] toArray() {
+      return items.clone();
+    }
+  }
+}
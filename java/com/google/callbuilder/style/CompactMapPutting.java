@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.style;
+
+import com.google.callbuilder.BuilderStyle;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Puts entries into a {@link HashMap}, and finishes with an immutable map that keeps its keys and
+ * values in one array of exactly twice its size, for maps that stay on the heap long after the
+ * call. An empty map is the shared {@link Collections#emptyMap()}, a map of one entry is a
+ * {@link Collections#singletonMap}, and a map of up to eight entries is searched by scanning its
+ * keys. A larger map also keeps an {@code int} hash table of entry indexes, which it searches by
+ * linear probing. The {@code HashMap} only exists while the builder does, and {@code presizeTo}
+ * sizes it for the expected number of entries so that it is not rehashed as it grows. Like a
+ * {@code HashMap}, the finished maps may contain {@code null} keys and values, and their iteration
+ * order is unspecified.
+ */
+@BuilderStyle
+public class CompactMapPutting {
+  private CompactMapPutting() {}
+
+  public static <K, V> HashMap<K, V> start() {
+    return new HashMap<>();
+  }
+
+  public static <K, V> Map<K, V> finish(HashMap<K, V> map) {
+    switch (map.size()) {
+      case 0:
+        return Collections.emptyMap();
+      case 1:
+        Map.Entry<K, V> entry = map.entrySet().iterator().next();
+        return Collections.singletonMap(entry.getKey(), entry.getValue());
+      default:
+        return new FlatMap<>(map);
+    }
+  }
+
+  public static <K, V> HashMap<K, V> putTo(HashMap<K, V> to, K key, V value) {
+    to.put(key, value);
+    return to;
+  }
+
+  /**
+   * Puts every entry in {@code entries}, growing the map at most once to fit all of them.
+   */
+  public static <K, V> HashMap<K, V> putAllTo(HashMap<K, V> to, Map<K, V> entries) {
+    to.putAll(entries);
+    return to;
+  }
+
+  /**
+   * Sizes the map to hold {@code expectedSize} entries without rehashing. Call this before putting
+   * any entries, since it copies the entries that were already put into the new map.
+   */
+  public static <K, V> HashMap<K, V> presizeTo(HashMap<K, V> to, int expectedSize) {
+    // The capacity that HashMap needs to hold this many entries at its default load factor.
+    HashMap<K, V> presized =
+        new HashMap<>((int) (Math.max(expectedSize, to.size()) / 0.75f) + 1);
+    presized.putAll(to);
+    return presized;
+  }
+
+  @BuilderStyle.Copy
+  public static <K, V> HashMap<K, V> copy(HashMap<K, V> from) {
+    return new HashMap<>(from);
+  }
+
+  /**
+   * An immutable map of two or more entries. Entry {@code i} has its key at index {@code 2 * i} of
+   * {@code keysAndValues} and its value just after it. Maps of more than
+   * {@link #LINEAR_SCAN_MAX_SIZE} entries also have an {@code index}, a power-of-two sized hash
+   * table less than three quarters full, in which each slot holds one plus the number of an entry,
+   * or zero if it is empty.
+   */
+  private static final class FlatMap<K, V> extends AbstractMap<K, V> implements Serializable {
+    private static final long serialVersionUID = 0;
+
+    private static final int LINEAR_SCAN_MAX_SIZE = 8;
+
+    private final Object[] keysAndValues;
+    private final int[] index;
+
+    FlatMap(Map<K, V> entries) {
+      int size = entries.size();
+      this.keysAndValues = new Object[size * 2];
+      this.index = size > LINEAR_SCAN_MAX_SIZE
+          ? new int[Integer.highestOneBit(size * 4 / 3) << 1]
+          : null;
+      int entry = 0;
+      for (Map.Entry<K, V> next : entries.entrySet()) {
+        keysAndValues[entry * 2] = next.getKey();
+        keysAndValues[entry * 2 + 1] = next.getValue();
+        if (index != null) {
+          // The keys come from a map, so they are distinct, and each one goes in the first empty
+          // slot of its probe sequence.
+          int slot = hash(next.getKey()) & (index.length - 1);
+          while (index[slot] != 0) {
+            slot = (slot + 1) & (index.length - 1);
+          }
+          index[slot] = entry + 1;
+        }
+        entry++;
+      }
+    }
+
+    /**
+     * Spreads the high bits of the hash code into the low bits, as {@link HashMap} does, since
+     * only the low bits choose a slot.
+     */
+    private static int hash(Object key) {
+      int hashCode = Objects.hashCode(key);
+      return hashCode ^ (hashCode >>> 16);
+    }
+
+    /**
+     * Returns the number of the entry with {@code key}, or -1 if there is none.
+     */
+    private int entryOf(Object key) {
+      if (index == null) {
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+          if (Objects.equals(key, keysAndValues[i])) {
+            return i / 2;
+          }
+        }
+        return -1;
+      }
+      for (int slot = hash(key) & (index.length - 1);
+          index[slot] != 0;
+          slot = (slot + 1) & (index.length - 1)) {
+        int entry = index[slot] - 1;
+        if (Objects.equals(key, keysAndValues[entry * 2])) {
+          return entry;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public int size() {
+      return keysAndValues.length / 2;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return entryOf(key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+      int entry = entryOf(key);
+      return entry < 0 ? null : (V) keysAndValues[entry * 2 + 1];
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+      return new AbstractSet<Map.Entry<K, V>>() {
+        @Override
+        public int size() {
+          return FlatMap.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+          return new Iterator<Map.Entry<K, V>>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+              return next < keysAndValues.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Map.Entry<K, V> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(
+                  (K) keysAndValues[next], (V) keysAndValues[next + 1]);
+              next += 2;
+              return entry;
+            }
+          };
+        }
+      };
+    }
+  }
+}
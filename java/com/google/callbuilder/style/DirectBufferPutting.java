@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.style;
+
+import com.google.callbuilder.BuilderStyle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes bytes into a direct {@link ByteBuffer}, and finishes with a read-only view of the bytes
+ * written, flipped so that it is ready to be read or written to a channel. The view shares memory
+ * with the builder's buffer, so finishing does not copy the bytes. Writing more bytes with the
+ * same builder afterwards does not change the view.
+ *
+ * <p>The buffer is only allocated when the first byte is written. It grows by moving to a new
+ * direct buffer of twice the capacity, rounded up to a whole number of pages, so the bytes are
+ * copied while growing, but never more in total than the final size. The old buffers are freed
+ * by the garbage collector like any other direct buffer. The {@code reserveTo} modifier allocates
+ * room for a known number of bytes up front. Multi-byte values are written in big-endian order.
+ */
+@BuilderStyle
+public class DirectBufferPutting {
+  private DirectBufferPutting() {}
+
+  private static final int PAGE_SIZE = 4096;
+
+  /**
+   * Shared by every builder until it writes its first byte. Nothing is ever written to it, and its
+   * position and limit never change.
+   */
+  private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+  public static ByteBuffer start() {
+    return EMPTY;
+  }
+
+  public static ByteBuffer finish(ByteBuffer from) {
+    ByteBuffer written = from.duplicate();
+    written.flip();
+    return written.asReadOnlyBuffer();
+  }
+
+  /**
+   * Makes room for {@code size} more bytes, so that writing them does not grow the buffer. Returns
+   * {@code to}, or a larger buffer with the same contents. Builders that know how many bytes they
+   * will write can call this first to allocate the buffer only once.
+   */
+  public static ByteBuffer reserveTo(ByteBuffer to, int size) {
+    if (to.remaining() >= size) {
+      return to;
+    }
+    long needed = Math.max((long) to.position() + size, 2L * to.capacity());
+    long capacity = (needed + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    if (capacity > Integer.MAX_VALUE) {
+      capacity = Integer.MAX_VALUE;
+      if (capacity < (long) to.position() + size) {
+        throw new IllegalStateException("ByteBuffer would exceed 2 GiB");
+      }
+    }
+    ByteBuffer written = to.duplicate();
+    written.flip();
+    return ByteBuffer.allocateDirect((int) capacity).put(written);
+  }
+
+  public static ByteBuffer putTo(ByteBuffer to, byte value) {
+    return reserveTo(to, 1).put(value);
+  }
+
+  public static ByteBuffer putTo(ByteBuffer to, byte[] values) {
+    return putTo(to, values, 0, values.length);
+  }
+
+  /**
+   * Writes {@code length} bytes of {@code values} starting at {@code offset}.
+   */
+  public static ByteBuffer putTo(ByteBuffer to, byte[] values, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > values.length - length) {
+      throw new IndexOutOfBoundsException(
+          "offset " + offset + ", length " + length + ", array length " + values.length);
+    }
+    if (length == 0) {
+      // Leaves EMPTY alone, since ByteBuffer.put sets the position even when it writes nothing.
+      return to;
+    }
+    return reserveTo(to, length).put(values, offset, length);
+  }
+
+  /**
+   * Writes the remaining bytes of {@code values}, without changing its position.
+   */
+  public static ByteBuffer putTo(ByteBuffer to, ByteBuffer values) {
+    if (!values.hasRemaining()) {
+      return to;
+    }
+    return reserveTo(to, values.remaining()).put(values.duplicate());
+  }
+
+  public static ByteBuffer putCharTo(ByteBuffer to, char value) {
+    return reserveTo(to, Character.SIZE / Byte.SIZE).putChar(value);
+  }
+
+  public static ByteBuffer putShortTo(ByteBuffer to, short value) {
+    return reserveTo(to, Short.SIZE / Byte.SIZE).putShort(value);
+  }
+
+  public static ByteBuffer putIntTo(ByteBuffer to, int value) {
+    return reserveTo(to, Integer.SIZE / Byte.SIZE).putInt(value);
+  }
+
+  public static ByteBuffer putLongTo(ByteBuffer to, long value) {
+    return reserveTo(to, Long.SIZE / Byte.SIZE).putLong(value);
+  }
+
+  public static ByteBuffer putFloatTo(ByteBuffer to, float value) {
+    return reserveTo(to, Float.SIZE / Byte.SIZE).putFloat(value);
+  }
+
+  public static ByteBuffer putDoubleTo(ByteBuffer to, double value) {
+    return reserveTo(to, Double.SIZE / Byte.SIZE).putDouble(value);
+  }
+
+  @BuilderStyle.Copy
+  public static ByteBuffer copy(ByteBuffer from) {
+    if (from.position() == 0) {
+      return EMPTY;
+    }
+    ByteBuffer written = from.duplicate();
+    written.flip();
+    return ByteBuffer.allocateDirect(from.capacity()).put(written);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.style;
+
+import com.google.callbuilder.BuilderStyle;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+/**
+ * Adds items to a growable {@code int} array, and finishes with an {@code int[]} of exactly the
+ * number of items added, so a parameter like {@code int[] samples} is built without boxing.
+ */
+@BuilderStyle
+public class IntArrayAdding {
+  private IntArrayAdding() {}
+
+  private static final int[] EMPTY = {};
+
+  /**
+   * The items added so far, which are the first {@code size} elements of {@code items}.
+   */
+  public static final class Buffer {
+    private int[] items;
+    private int size;
+
+    private Buffer(int[] items, int size) {
+      this.items = items;
+      this.size = size;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > items.length) {
+        items = Arrays.copyOf(items, ArrayBuffers.grownCapacity(items.length, capacity));
+      }
+    }
+  }
+
+  public static Buffer start() {
+    return new Buffer(EMPTY, 0);
+  }
+
+  public static int[] finish(Buffer buffer) {
+    if (buffer.size == 0) {
+      return EMPTY;
+    }
+    return Arrays.copyOf(buffer.items, buffer.size);
+  }
+
+  public static Buffer addTo(Buffer to, int item) {
+    to.ensureCapacity(to.size + 1);
+    to.items[to.size++] = item;
+    return to;
+  }
+
+  /**
+   * Adds every item in {@code items}, growing the buffer at most once to fit all of them.
+   */
+  public static Buffer addAllTo(Buffer to, int[] items) {
+    to.ensureCapacity(to.size + items.length);
+    System.arraycopy(items, 0, to.items, to.size, items.length);
+    to.size += items.length;
+    return to;
+  }
+
+  /**
+   * Adds every item in {@code items}. The stream is consumed without boxing.
+   */
+  public static Buffer addAllTo(Buffer to, IntStream items) {
+    PrimitiveIterator.OfInt iterator = items.iterator();
+    while (iterator.hasNext()) {
+      addTo(to, iterator.nextInt());
+    }
+    return to;
+  }
+
+  @BuilderStyle.Copy
+  public static Buffer copy(Buffer from) {
+    return new Buffer(Arrays.copyOf(from.items, from.size), from.size);
+  }
+}
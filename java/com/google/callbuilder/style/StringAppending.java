@@ -13,6 +13,9 @@
  */
 package com.google.callbuilder.style;
 
+import com.google.callbuilder.BuilderStyle;
+
+@BuilderStyle
 public class StringAppending {
   private StringAppending() {}
 
@@ -27,4 +30,9 @@ public class StringAppending {
   public static StringBuilder appendTo(StringBuilder start, String value) {
     return start.append(value);
   }
+
+  @BuilderStyle.Copy
+  public static StringBuilder copy(StringBuilder from) {
+    return new StringBuilder(from);
+  }
 }
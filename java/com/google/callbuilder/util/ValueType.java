@@ -16,6 +16,7 @@
 package com.google.callbuilder.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -25,6 +26,10 @@ import java.util.List;
  *
  * <p>This class implements the two {@link Object} methods mentioned above as well as
  * {@link Object#toString()}.
+ *
+ * <p>Subclasses whose fields never change should call {@link #ValueType(boolean)} with
+ * {@code true}. Their fields are then only gathered once, the hash code is only computed once, and
+ * comparing two instances compares the gathered fields pairwise without allocating.
  */
 public abstract class ValueType {
   /**
@@ -51,6 +56,41 @@ public abstract class ValueType {
     }
   }
 
+  /**
+   * A receiver that compares each received name and value with the next one in an array of
+   * alternating names and values, as gathered by {@link ReceiverIntoList}.
+   */
+  private static final class ReceiverComparingWithArray implements FieldReceiver {
+    private final Object[] expected;
+    private int index;
+    private boolean matches = true;
+
+    ReceiverComparingWithArray(Object[] expected) {
+      this.expected = expected;
+    }
+
+    private void compare(Object value) {
+      if (matches) {
+        matches = (index < expected.length) && equal(expected[index], value);
+        index++;
+      }
+    }
+
+    @Override
+    public void add(String name, Object value) {
+      compare(name);
+      compare(value);
+    }
+
+    public boolean get() {
+      return matches && (index == expected.length);
+    }
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return (a == null) ? (b == null) : a.equals(b);
+  }
+
   /** A receiver that uses each received name and value to calculate a hash code. */
   private static final class ReceiverIntoHashCode implements FieldReceiver {
     private int hashCode = 1;
@@ -92,26 +132,94 @@ public abstract class ValueType {
     }
   }
 
+  private final boolean immutable;
+
+  /**
+   * The alternating names and values of the fields of an immutable instance, gathered the first
+   * time they are needed.
+   */
+  private volatile Object[] immutableFields;
+
+  /**
+   * The hash code of an immutable instance, or 0 if it has not been computed yet.
+   */
+  private int immutableHashCode;
+
+  /**
+   * Creates an instance whose fields may change, so they are gathered again every time they are
+   * needed.
+   */
+  protected ValueType() {
+    this(false);
+  }
+
+  /**
+   * @param immutable whether the fields reported by {@link #addFields(FieldReceiver)} are always
+   *     the same for this instance, so that they and the hash code can be computed once
+   */
+  protected ValueType(boolean immutable) {
+    this.immutable = immutable;
+  }
+
   /** Implement this method to report the name and value of each field. */
   protected abstract void addFields(FieldReceiver fields);
 
+  private Object[] gatherFields() {
+    ReceiverIntoList receiver = new ReceiverIntoList();
+    addFields(receiver);
+    return receiver.get().toArray();
+  }
+
+  /**
+   * Returns the alternating names and values of this instance's fields.
+   */
+  private Object[] fields() {
+    if (!immutable) {
+      return gatherFields();
+    }
+    Object[] fields = immutableFields;
+    if (fields == null) {
+      fields = gatherFields();
+      immutableFields = fields;
+    }
+    return fields;
+  }
+
   @Override
   public final boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
     if ((obj == null) || (obj.getClass() != this.getClass())) {
       return false;
     }
-    ReceiverIntoList a = new ReceiverIntoList();
-    ReceiverIntoList b = new ReceiverIntoList();
-    this.addFields(a);
-    ((ValueType) obj).addFields(b);
-    return a.get().equals(b.get());
+    ValueType other = (ValueType) obj;
+    if (immutable && other.immutable) {
+      return (hashCode() == other.hashCode()) && Arrays.equals(fields(), other.fields());
+    }
+    ReceiverComparingWithArray receiver = new ReceiverComparingWithArray(other.fields());
+    addFields(receiver);
+    return receiver.get();
   }
 
   @Override
   public final int hashCode() {
-    ReceiverIntoHashCode receiver = new ReceiverIntoHashCode();
-    addFields(receiver);
-    return receiver.get();
+    if (!immutable) {
+      ReceiverIntoHashCode receiver = new ReceiverIntoHashCode();
+      addFields(receiver);
+      return receiver.get();
+    }
+    int hashCode = immutableHashCode;
+    if (hashCode == 0) {
+      ReceiverIntoHashCode receiver = new ReceiverIntoHashCode();
+      Object[] fields = fields();
+      for (int i = 0; i < fields.length; i += 2) {
+        receiver.add((String) fields[i], fields[i + 1]);
+      }
+      hashCode = receiver.get();
+      immutableHashCode = hashCode;
+    }
+    return hashCode;
   }
 
   @Override
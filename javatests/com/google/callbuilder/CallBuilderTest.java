@@ -14,6 +14,7 @@
 package com.google.callbuilder;
 
 import com.google.callbuilder.util.Preconditions;
+import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -21,6 +22,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -46,6 +51,15 @@ public class CallBuilderTest {
       return Integer.valueOf(value).equals(map.get(key));
     }
 
+    /**
+     * The parameters are named like the symbols the processor generates, so the name of the field
+     * that holds the {@code ConfusingSignatures} instance must skip them.
+     */
+    @CallBuilder(className = "GensymCollider")
+    int addGensyms(int _gensym_0, int _gensym_1, int _gensym_2) {
+      return addOffset + _gensym_0 + _gensym_1 + _gensym_2;
+    }
+
     @CallBuilder
     static Map<String, String> singletonMap(String key, String value) {
       return Collections.singletonMap(key, value);
@@ -108,6 +122,152 @@ public class CallBuilderTest {
     }
   }
 
+  /**
+   * Stands in for the various {@code Nullable} annotations, which the processor recognizes by
+   * simple name.
+   */
+  @interface Nullable {}
+
+  static class Contact {
+    final String name;
+    final String email;
+    final int age;
+
+    @CallBuilder(checkRequired = true)
+    Contact(String name, @Nullable String email, int age) {
+      this.name = name;
+      this.email = email;
+      this.age = age;
+    }
+  }
+
+  static class Wide {
+    /**
+     * Has more parameters than fit in one presence field.
+     */
+    @CallBuilder(className = "WideSummer", checkRequired = true)
+    static int sum(
+        int p0, int p1, int p2, int p3, int p4, int p5, int p6, int p7, int p8, int p9, int p10,
+        int p11, int p12, int p13, int p14, int p15, int p16, int p17, int p18, int p19, int p20,
+        int p21, int p22, int p23, int p24, int p25, int p26, int p27, int p28, int p29, int p30,
+        int p31, int p32, int p33, int p34, int p35, int p36, int p37, int p38, int p39, int p40,
+        int p41, int p42, int p43, int p44, int p45, int p46, int p47, int p48, int p49, int p50,
+        int p51, int p52, int p53, int p54, int p55, int p56, int p57, int p58, int p59, int p60,
+        int p61, int p62, int p63, int p64, int p65) {
+      return p0 + p63 + p64 + p65;
+    }
+  }
+
+  static class Point<T> {
+    final T label;
+    final int x;
+    final boolean visible;
+
+    @CallBuilder(reusable = true)
+    Point(T label, int x, boolean visible) {
+      this.label = label;
+      this.x = x;
+      this.visible = visible;
+    }
+  }
+
+  static class Offset {
+    final int offset;
+
+    Offset(int offset) {
+      this.offset = offset;
+    }
+
+    @CallBuilder(className = "ReusableOffsetAdder", reusable = true)
+    int add(int x, int y) {
+      return offset + x + y;
+    }
+
+    @CallBuilder(className = "FreezableOffsetAdder", freezable = true)
+    int add(int x, int y, int z) {
+      return offset + x + y + z;
+    }
+
+    @CallBuilder(batch = true)
+    int scale(int x) {
+      return offset * x;
+    }
+  }
+
+  static class Sample {
+    final String series;
+    final long timestamp;
+    final double value;
+    final boolean valid;
+    final char unit;
+    final byte flags;
+    final short port;
+
+    @CallBuilder(batch = true)
+    Sample(String series, long timestamp, double value, boolean valid, char unit, byte flags,
+        short port) {
+      this.series = series;
+      this.timestamp = timestamp;
+      this.value = value;
+      this.valid = valid;
+      this.unit = unit;
+      this.flags = flags;
+      this.port = port;
+    }
+
+    @CallBuilder(className = "SampleRecorder", batch = true, async = true)
+    static void record(List<String> sink, String series) {
+      sink.add(series);
+    }
+  }
+
+  /**
+   * A slow service whose lookups record how many of them are running at once.
+   */
+  static class Directory {
+    final Map<String, String> entries = new HashMap<>();
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    @CallBuilder(className = "DirectoryLookup", checkRequired = true, async = true)
+    String lookup(String key, int delayMillis) {
+      int nowRunning = running.incrementAndGet();
+      try {
+        while (true) {
+          int max = maxRunning.get();
+          if (nowRunning <= max || maxRunning.compareAndSet(max, nowRunning)) {
+            break;
+          }
+        }
+        try {
+          Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        String value = entries.get(key);
+        if (value == null) {
+          throw new IllegalArgumentException("no entry for " + key);
+        }
+        return value;
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+  }
+
+  static class Request<B> {
+    final String host;
+    final int port;
+    final B body;
+
+    @CallBuilder(freezable = true, batch = true, async = true)
+    Request(String host, int port, B body) {
+      this.host = host;
+      this.port = port;
+      this.body = body;
+    }
+  }
+
   @Test
   public void nonStaticMethod() {
     ConfusingSignatures signatures = new ConfusingSignatures();
@@ -120,6 +280,18 @@ public class CallBuilderTest {
     Assert.assertEquals(1111, result);
   }
 
+  @Test
+  public void parametersNamedLikeGeneratedSymbols() {
+    ConfusingSignatures signatures = new ConfusingSignatures();
+    signatures.addOffset = 1000;
+    int result = new GensymCollider(signatures)
+        .set_gensym_0(100)
+        .set_gensym_1(10)
+        .set_gensym_2(1)
+        .build();
+    Assert.assertEquals(1111, result);
+  }
+
   @Test
   public void staticMethod() {
     Assert.assertEquals(
@@ -218,4 +390,361 @@ public class CallBuilderTest {
   public void buildMethodIsPublic() throws Exception {
     Assert.assertEquals(Modifier.PUBLIC, NameBuilder.class.getMethod("build").getModifiers() & Modifier.PUBLIC);
   }
+
+  @Test
+  public void isSetReflectsSetters() {
+    NameBuilder builder = new NameBuilder();
+    Assert.assertFalse(builder.isFamilySet());
+    Assert.assertFalse(builder.isGivenSet());
+    builder.setFamily(null);
+    Assert.assertTrue(builder.isFamilySet());
+    Assert.assertFalse(builder.isGivenSet());
+  }
+
+  @Test
+  public void requiredParametersAreNotCheckedByDefault() {
+    Assert.assertEquals(Collections.singletonMap(null, null), new SingletonMapBuilder().build());
+  }
+
+  @Test
+  public void requiredCheckNamesMissingParameters() {
+    try {
+      new ContactBuilder().setEmail("jd@example.com").build();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("Missing required parameters: name age", e.getMessage());
+    }
+  }
+
+  @Test
+  public void nullableParametersAreNotRequired() {
+    Contact contact = new ContactBuilder().setAge(0).setName("John").build();
+    Assert.assertEquals("John", contact.name);
+    Assert.assertNull(contact.email);
+  }
+
+  @Test
+  public void presenceOfManyParameters() {
+    WideSummer summer = new WideSummer();
+    for (int i = 0; i < 65; i++) {
+      try {
+        WideSummer.class.getMethod("setP" + i, int.class).invoke(summer, i);
+      } catch (ReflectiveOperationException e) {
+        throw new AssertionError(e);
+      }
+    }
+    Assert.assertTrue(summer.isP63Set());
+    Assert.assertTrue(summer.isP64Set());
+    Assert.assertFalse(summer.isP65Set());
+    try {
+      summer.build();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("Missing required parameters: p65", e.getMessage());
+    }
+    Assert.assertEquals(0 + 63 + 64 + 1000, summer.setP65(1000).build());
+  }
+
+  @Test
+  public void resetRestoresInitialState() {
+    PointBuilder<String> builder = new PointBuilder<String>()
+        .setLabel("origin")
+        .setX(3)
+        .setVisible(true);
+    Assert.assertSame(builder, builder.reset());
+    Assert.assertFalse(builder.isLabelSet());
+    Assert.assertFalse(builder.isXSet());
+    Point<String> point = builder.build();
+    Assert.assertNull(point.label);
+    Assert.assertEquals(0, point.x);
+    Assert.assertFalse(point.visible);
+  }
+
+  @Test
+  public void acquireReusesReleasedBuilder() {
+    PointBuilder<String> first = PointBuilder.acquire();
+    first.setLabel("a").setX(1);
+    PointBuilder.release(first);
+
+    PointBuilder<Integer> second = PointBuilder.acquire();
+    Assert.assertSame(first, second);
+    Assert.assertFalse(second.isLabelSet());
+    // The pooled builder is in use, so a nested acquisition gets a new one.
+    PointBuilder<Integer> nested = PointBuilder.acquire();
+    Assert.assertNotSame(second, nested);
+    Assert.assertEquals(Integer.valueOf(7), second.setLabel(7).build().label);
+    PointBuilder.release(nested);
+    Assert.assertNotSame(second, PointBuilder.acquire());
+    PointBuilder.release(second);
+    Assert.assertSame(second, PointBuilder.acquire());
+    PointBuilder.release(second);
+  }
+
+  @Test
+  public void pooledBuildersAreThreadConfined() throws Exception {
+    PointBuilder<String> mine = PointBuilder.acquire();
+    PointBuilder.release(mine);
+    final List<PointBuilder<String>> theirs = new ArrayList<>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        theirs.add(PointBuilder.<String>acquire());
+      }
+    };
+    thread.start();
+    thread.join();
+    Assert.assertNotSame(mine, theirs.get(0));
+    Assert.assertSame(mine, PointBuilder.acquire());
+    PointBuilder.release(mine);
+  }
+
+  @Test
+  public void acquireSetsContext() {
+    ReusableOffsetAdder adder = ReusableOffsetAdder.acquire(new Offset(100));
+    Assert.assertEquals(103, adder.setX(1).setY(2).build());
+    ReusableOffsetAdder.release(adder);
+
+    ReusableOffsetAdder again = ReusableOffsetAdder.acquire(new Offset(200));
+    Assert.assertSame(adder, again);
+    Assert.assertEquals(205, again.setX(5).build());
+    ReusableOffsetAdder.release(again);
+  }
+
+  @Test
+  public void templateBuildersStartFromFrozenState() {
+    RequestBuilder<String> builder = new RequestBuilder<String>()
+        .setHost("example.com")
+        .setPort(80);
+    RequestBuilder.Template<String> template = builder.freeze();
+    builder.setHost("changed.example.com");
+
+    RequestBuilder<String> first = template.newBuilder();
+    Assert.assertTrue(first.isHostSet());
+    Assert.assertFalse(first.isBodySet());
+    Request<String> a = first.setBody("a").build();
+    Request<String> b = template.newBuilder().setBody("b").setPort(8080).build();
+    Assert.assertEquals("example.com", a.host);
+    Assert.assertEquals(80, a.port);
+    Assert.assertEquals("a", a.body);
+    Assert.assertEquals("example.com", b.host);
+    Assert.assertEquals(8080, b.port);
+    Assert.assertEquals("b", b.body);
+  }
+
+  @Test
+  public void templateKeepsContext() {
+    FreezableOffsetAdder.Template template =
+        new FreezableOffsetAdder(new Offset(100)).setX(1).setY(2).freeze();
+    Assert.assertEquals(106, template.newBuilder().setZ(3).build());
+    Assert.assertEquals(107, template.newBuilder().setZ(4).build());
+  }
+
+  @Test
+  public void batchBuildsEveryRowInOrder() {
+    SampleBuilder.Batch batch = new SampleBuilder.Batch(1);
+    for (int i = 0; i < 100; i++) {
+      batch.setSeries("s" + i).setTimestamp(i).setValue(i / 2.0).setValid(i % 2 == 0)
+          .setUnit('u').setFlags((byte) 1).setPort((short) 80).addRow();
+    }
+    Assert.assertEquals(100, batch.size());
+    List<Sample> samples = batch.buildAll();
+    Assert.assertEquals(100, samples.size());
+    for (int i = 0; i < 100; i++) {
+      Sample sample = samples.get(i);
+      Assert.assertEquals("s" + i, sample.series);
+      Assert.assertEquals(i, sample.timestamp);
+      Assert.assertEquals(i / 2.0, sample.value, 0.0);
+      Assert.assertEquals(i % 2 == 0, sample.valid);
+      Assert.assertEquals('u', sample.unit);
+      Assert.assertEquals(1, sample.flags);
+      Assert.assertEquals(80, sample.port);
+    }
+  }
+
+  @Test
+  public void batchOfExpectedSizeDoesNotGrow() throws ReflectiveOperationException {
+    SampleBuilder.Batch batch = new SampleBuilder.Batch(3);
+    Field series = SampleBuilder.Batch.class.getDeclaredField("series");
+    series.setAccessible(true);
+    Object column = series.get(batch);
+    for (int i = 0; i < 3; i++) {
+      batch.setSeries("s" + i).addRow();
+    }
+    Assert.assertSame(column, series.get(batch));
+    batch.setSeries("s3").addRow();
+    Assert.assertNotSame(column, series.get(batch));
+    Assert.assertEquals(4, batch.buildAll().size());
+  }
+
+  @Test
+  public void batchRowsStartWithDefaultValues() {
+    SampleBuilder.Batch batch = new SampleBuilder.Batch(4)
+        .setSeries("a").setTimestamp(1).setValid(true).setUnit('u').addRow()
+        .setSeries("unfinished").setTimestamp(2);
+    batch.clear();
+    Assert.assertEquals(0, batch.size());
+    Sample sample = batch.setValue(3.0).addRow().buildAll().get(0);
+    Assert.assertNull(sample.series);
+    Assert.assertEquals(0, sample.timestamp);
+    Assert.assertEquals(3.0, sample.value, 0.0);
+    Assert.assertFalse(sample.valid);
+    Assert.assertEquals(0, sample.unit);
+  }
+
+  @Test
+  public void batchWithContextAndPrimitiveResult() {
+    ScaleBuilder.Batch batch = new ScaleBuilder.Batch(new Offset(10), 2);
+    List<Integer> results = batch.setX(1).addRow().setX(2).addRow().setX(3).addRow().buildAll();
+    Assert.assertEquals(Arrays.asList(10, 20, 30), results);
+  }
+
+  @Test
+  public void batchOfVoidCalls() {
+    List<String> sink = new ArrayList<>();
+    new SampleRecorder.Batch(0)
+        .setSink(sink).setSeries("a").addRow()
+        .setSink(sink).setSeries("b").addRow()
+        .buildAll();
+    Assert.assertEquals(Arrays.asList("a", "b"), sink);
+  }
+
+  @Test
+  public void batchOfGenericType() {
+    List<Request<List<String>>> requests = new RequestBuilder.Batch<List<String>>(2)
+        .setHost("a").setBody(Arrays.asList("x")).addRow()
+        .setHost("b").setPort(8080).addRow()
+        .buildAll();
+    Assert.assertEquals(Arrays.asList("x"), requests.get(0).body);
+    Assert.assertEquals("b", requests.get(1).host);
+    Assert.assertEquals(8080, requests.get(1).port);
+    Assert.assertNull(requests.get(1).body);
+  }
+
+  /**
+   * Holds the tasks it is given until they are run, so tests can change a builder between starting
+   * a call and running it.
+   */
+  private static final class QueueingExecutor implements Executor {
+    final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      for (Runnable task : tasks) {
+        task.run();
+      }
+      tasks.clear();
+    }
+  }
+
+  private static Directory directory() {
+    Directory directory = new Directory();
+    directory.entries.put("a", "alpha");
+    directory.entries.put("b", "beta");
+    directory.entries.put("c", "gamma");
+    return directory;
+  }
+
+  @Test
+  public void buildAsyncRunsOnExecutor() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    Future<String> result =
+        new DirectoryLookup(directory()).setKey("b").setDelayMillis(0).buildAsync(executor);
+    Assert.assertFalse(result.isDone());
+    executor.runAll();
+    Assert.assertEquals("beta", result.get());
+  }
+
+  @Test
+  public void buildAsyncCapturesArgumentsWhenCalled() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    DirectoryLookup lookup = new DirectoryLookup(directory()).setKey("a").setDelayMillis(0);
+    Future<String> first = lookup.buildAsync(executor);
+    Future<String> second = lookup.setKey("c").buildAsync(executor);
+    executor.runAll();
+    Assert.assertEquals("alpha", first.get());
+    Assert.assertEquals("gamma", second.get());
+  }
+
+  @Test
+  public void buildAsyncCompletesWithFailure() throws Exception {
+    QueueingExecutor executor = new QueueingExecutor();
+    Future<String> result =
+        new DirectoryLookup(directory()).setKey("z").setDelayMillis(0).buildAsync(executor);
+    executor.runAll();
+    try {
+      result.get();
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+  }
+
+  @Test
+  public void buildAsyncChecksRequiredParametersOnCallingThread() {
+    QueueingExecutor executor = new QueueingExecutor();
+    try {
+      new DirectoryLookup(directory()).buildAsync(executor);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("Missing required parameters: key delayMillis", e.getMessage());
+    }
+    Assert.assertTrue(executor.tasks.isEmpty());
+  }
+
+  @Test
+  public void buildAllReturnsResultsInOrderWithBoundedConcurrency() {
+    Directory directory = directory();
+    List<DirectoryLookup> lookups = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 24; i++) {
+      String key = "abc".substring(i % 3, i % 3 + 1);
+      lookups.add(new DirectoryLookup(directory).setKey(key).setDelayMillis((7 * i) % 5));
+      expected.add(directory.entries.get(key));
+    }
+    Assert.assertEquals(expected, DirectoryLookup.buildAll(lookups, 4));
+    Assert.assertTrue(directory.maxRunning.get() <= 4);
+    Assert.assertEquals(0, directory.running.get());
+  }
+
+  @Test
+  public void buildAllRethrowsFailure() {
+    Directory directory = directory();
+    List<DirectoryLookup> lookups = Arrays.asList(
+        new DirectoryLookup(directory).setKey("a").setDelayMillis(0),
+        new DirectoryLookup(directory).setKey("z").setDelayMillis(0));
+    try {
+      DirectoryLookup.buildAll(lookups, 2);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("no entry for z", e.getMessage());
+    }
+  }
+
+  @Test
+  public void buildAllOfVoidCalls() {
+    List<String> sink = Collections.synchronizedList(new ArrayList<String>());
+    List<SampleRecorder> recorders = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      recorders.add(new SampleRecorder().setSink(sink).setSeries("s" + i));
+    }
+    SampleRecorder.buildAll(recorders, 3);
+    List<String> recorded = new ArrayList<>(sink);
+    Collections.sort(recorded);
+    Assert.assertEquals(
+        Arrays.asList("s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9"), recorded);
+  }
+
+  @Test
+  public void buildAllOfGenericType() {
+    List<RequestBuilder<String>> builders = Arrays.asList(
+        new RequestBuilder<String>().setHost("a").setBody("x"),
+        new RequestBuilder<String>().setHost("b").setBody("y"));
+    List<Request<String>> requests = RequestBuilder.buildAll(builders, 2);
+    Assert.assertEquals("x", requests.get(0).body);
+    Assert.assertEquals("b", requests.get(1).host);
+  }
 }
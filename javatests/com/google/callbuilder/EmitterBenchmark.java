@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.SourceEmitter.Template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of rendering one builder's setters and modifiers, comparing
+ * {@link SourceEmitter} with the {@code String.format}-based rendering the processor used before.
+ * Run with {@code -prof gc} to compare the garbage produced per builder as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EmitterBenchmark {
+  private static final String CLASS_NAME = "PersonBuilder";
+  private static final String ALLIGATOR = "<K, V>";
+  private static final String STYLE = "com.google.callbuilder.style.ArrayListAdding";
+  private static final List<String> MODIFIER_TYPES = Arrays.asList("java.lang.String");
+  private static final List<String> MODIFIER_NAMES = Arrays.asList("item");
+
+  private static final Template SETTER = Template.of(
+      "  private %s %s;",
+      "  public %s%s set%s(%s %s) {",
+      "    this.%s = %s;",
+      "    return this;",
+      "  }");
+  private static final Template MODIFIER = Template.of(
+      "  public %s%s %s%s(%s) {",
+      "    this.%s = %s.%s(this.%s, %s);",
+      "    return this;",
+      "  }");
+
+  /** Discards everything, so only the cost of rendering is measured. */
+  private static final class NullWriter extends Writer {
+    @Override
+    public void write(char[] cbuf, int off, int len) {}
+
+    @Override
+    public void write(String str) {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+
+  @Param({"4", "32"})
+  int fields;
+
+  private final Writer writer = new NullWriter();
+  private final SourceEmitter emitter = new SourceEmitter(8192);
+  private List<String> names;
+  private List<String> capitalizedNames;
+
+  @Setup
+  public void setUp() {
+    names = new ArrayList<>();
+    capitalizedNames = new ArrayList<>();
+    for (int i = 0; i < fields; i++) {
+      names.add("field" + i);
+      capitalizedNames.add("Field" + i);
+    }
+  }
+
+  private static String lines(String... separated) {
+    StringBuilder joined = new StringBuilder();
+    for (String line : separated) {
+      joined.append(line);
+      joined.append('\n');
+    }
+    return joined.toString();
+  }
+
+  private static void writef(Writer writer, String format, Object... args) throws IOException {
+    writer.write(String.format(format, (Object[]) args));
+  }
+
+  private static String parameterList(List<String> parameterTypes, List<String> parameterNames) {
+    StringBuilder list = new StringBuilder();
+    for (int i = 0; i < parameterTypes.size(); i++) {
+      if (i != 0) {
+        list.append(", ");
+      }
+      list.append(parameterTypes.get(i)).append(" ").append(parameterNames.get(i));
+    }
+    return list.toString();
+  }
+
+  private static StringBuilder joinOn(
+      StringBuilder builder, String delimiter, Iterable<?> elements) {
+    int added = 0;
+    for (Object element : elements) {
+      if (added++ > 0) {
+        builder.append(delimiter);
+      }
+      builder.append(element.toString());
+    }
+    return builder;
+  }
+
+  @Benchmark
+  public Writer stringFormat() throws IOException {
+    for (int i = 0; i < fields; i++) {
+      String name = names.get(i);
+      writef(writer, lines(
+          "  private %s %s;",
+          "  public %s%s set%s(%s %s) {",
+          "    this.%s = %s;",
+          "    return this;",
+          "  }"),
+          "java.lang.String", name,
+          CLASS_NAME, ALLIGATOR, capitalizedNames.get(i), "java.lang.String", name,
+          name, name);
+      writef(writer, lines(
+          "  public %s%s %s%s(%s) {",
+          "    this.%s = %s.%s(this.%s, %s);",
+          "    return this;",
+          "  }"),
+          CLASS_NAME, ALLIGATOR, "addTo", capitalizedNames.get(i),
+          parameterList(MODIFIER_TYPES, MODIFIER_NAMES),
+          name, STYLE, "addTo", name, joinOn(new StringBuilder(), ", ", MODIFIER_NAMES));
+    }
+    return writer;
+  }
+
+  @Benchmark
+  public Writer sourceEmitter() throws IOException {
+    emitter.reset();
+    for (int i = 0; i < fields; i++) {
+      String name = names.get(i);
+      emitter.emit(SETTER,
+          "java.lang.String", name,
+          CLASS_NAME, ALLIGATOR, capitalizedNames.get(i), "java.lang.String", name,
+          name, name);
+      emitter.emit(MODIFIER,
+          CLASS_NAME, ALLIGATOR, "addTo", capitalizedNames.get(i),
+          CallBuilderProcessor.parameterList(MODIFIER_TYPES, MODIFIER_NAMES),
+          name, STYLE, "addTo", name, SourceEmitter.joined(", ", MODIFIER_NAMES));
+    }
+    emitter.writeTo(writer);
+    return writer;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.ProcessorStatistics.Phase;
+import com.google.callbuilder.benchmark.CorpusCompiler;
+import com.google.callbuilder.benchmark.SyntheticCorpus;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+
+@RunWith(JUnit4.class)
+public class GenerationCacheTest {
+  private static final String STYLE = ""
+      + "package synthetic;\n"
+      + "public class CountingStyle {\n"
+      + "  public static int start() { return 0; }\n"
+      + "  public static int finish(int count) { return count; }\n"
+      + "  public static int %s(int count, int amount) { return count + amount; }\n"
+      + "}\n";
+
+  private static final String USER = ""
+      + "package synthetic;\n"
+      + "import com.google.callbuilder.BuilderField;\n"
+      + "import com.google.callbuilder.CallBuilder;\n"
+      + "public class CountingUser {\n"
+      + "  @CallBuilder\n"
+      + "  static int count(@BuilderField(style = CountingStyle.class) int count) {\n"
+      + "    return count;\n"
+      + "  }\n"
+      + "}\n";
+
+  private final File cacheRoot;
+
+  /**
+   * The cache directory, which does not exist until the processor creates it.
+   */
+  private final File cacheDir;
+
+  public GenerationCacheTest() throws IOException {
+    cacheRoot = Files.createTempDirectory("callbuilder-cache").toFile();
+    cacheDir = new File(cacheRoot, "cache");
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private CorpusCompiler.Result compile(List<JavaFileObject> sources, String... options)
+      throws IOException {
+    List<String> allOptions = new ArrayList<>(Arrays.asList(options));
+    allOptions.add("-A" + CallBuilderProcessor.CACHE_DIR_OPTION + "=" + cacheDir);
+    return CorpusCompiler.compile(sources, allOptions);
+  }
+
+  private static List<JavaFileObject> countingSources(String modifierName) {
+    return Arrays.asList(
+        SyntheticCorpus.source("CountingStyle", String.format(STYLE, modifierName)),
+        SyntheticCorpus.source("CountingUser", USER));
+  }
+
+  @Test
+  public void unchangedBuildersAreCopiedFromTheCache() throws IOException {
+    try {
+      List<JavaFileObject> corpus = SyntheticCorpus.generate(2, 4);
+      CorpusCompiler.Result uncached =
+          CorpusCompiler.compile(corpus, Collections.<String>emptyList());
+
+      CorpusCompiler.Result first = compile(corpus);
+      Assert.assertEquals(8, first.statistics().count(Phase.RENDER));
+      Assert.assertEquals(8, cacheDir.list().length);
+
+      CorpusCompiler.Result second = compile(corpus);
+      Assert.assertEquals(8, second.statistics().elements());
+      Assert.assertEquals(0, second.statistics().count(Phase.FIELD_INFO));
+      Assert.assertEquals(0, second.statistics().count(Phase.RENDER));
+      Assert.assertEquals(8, second.statistics().count(Phase.WRITE));
+      Assert.assertEquals(uncached.generatedSources(), first.generatedSources());
+      Assert.assertEquals(uncached.generatedSources(), second.generatedSources());
+    } finally {
+      deleteRecursively(cacheRoot);
+    }
+  }
+
+  @Test
+  public void entriesWrittenInParallelAreReused() throws IOException {
+    try {
+      List<JavaFileObject> corpus = SyntheticCorpus.generate(2, 4);
+      CorpusCompiler.Result first =
+          compile(corpus, "-A" + CallBuilderProcessor.PARALLELISM_OPTION + "=4");
+      CorpusCompiler.Result second = compile(corpus);
+      Assert.assertEquals(0, second.statistics().count(Phase.RENDER));
+      Assert.assertEquals(first.generatedSources(), second.generatedSources());
+    } finally {
+      deleteRecursively(cacheRoot);
+    }
+  }
+
+  @Test
+  public void changingTheStyleGeneratesTheBuilderAgain() throws IOException {
+    try {
+      compile(countingSources("increment"));
+      CorpusCompiler.Result changed = compile(countingSources("bump"));
+      Assert.assertEquals(1, changed.statistics().count(Phase.RENDER));
+      String source = changed.generatedSources().get("synthetic/CountBuilder.java");
+      Assert.assertTrue(source, source.contains("bumpCount("));
+      Assert.assertFalse(source, source.contains("incrementCount("));
+    } finally {
+      deleteRecursively(cacheRoot);
+    }
+  }
+
+  @Test
+  public void reportsHitsAndMissesInStatsFile() throws IOException {
+    try {
+      File statsFile = new File(cacheRoot, "stats");
+      List<JavaFileObject> corpus = SyntheticCorpus.generate(1, 3);
+      compile(corpus);
+      compile(corpus, "-A" + CallBuilderProcessor.STATS_FILE_OPTION + "=" + statsFile.getPath());
+      String summary = new String(Files.readAllBytes(statsFile.toPath()), StandardCharsets.UTF_8);
+      Assert.assertTrue(summary, summary.contains("Generation cache: 3 hits, 0 misses"));
+    } finally {
+      deleteRecursively(cacheRoot);
+    }
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Checks the contract that build tools rely on to run the processor incrementally: each generated
+ * builder has exactly one originating element, in the type that declares the annotated element,
+ * even when its style or parameter types come from other sources or it is generated in a later
+ * round.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalProcessingTest {
+  private static final JavaFileObject PERSON = source("test.Person",
+      "package test;",
+      "import com.google.callbuilder.BuilderField;",
+      "import com.google.callbuilder.CallBuilder;",
+      "import com.google.callbuilder.style.ArrayListAdding;",
+      "import java.util.ArrayList;",
+      "public class Person {",
+      "  @CallBuilder",
+      "  Person(",
+      "      String name,",
+      "      @BuilderField(style = ArrayListAdding.class) ArrayList<String> tags) {}",
+      "  @CallBuilder",
+      "  static String greet(String name) {",
+      "    return name;",
+      "  }",
+      "}");
+
+  private static final JavaFileObject ADDRESS = source("test.Address",
+      "package test;",
+      "import com.google.callbuilder.CallBuilder;",
+      "public class Address {",
+      "  static class Line {",
+      "    @CallBuilder(className = \"LineBuilder\")",
+      "    Line(String text) {}",
+      "  }",
+      "}");
+
+  private static JavaFileObject source(String qualifiedName, String... lines) {
+    final StringBuilder content = new StringBuilder();
+    for (String line : lines) {
+      content.append(line).append('\n');
+    }
+    return new SimpleJavaFileObject(
+        URI.create("string:///" + qualifiedName.replace('.', '/') + ".java"),
+        JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+
+  /**
+   * Runs {@link CallBuilderProcessor} with a {@link Filer} that records the names of the top-level
+   * types of the originating elements of each generated source file.
+   */
+  private static final class RecordingProcessor extends AbstractProcessor {
+    private final CallBuilderProcessor delegate = new CallBuilderProcessor();
+    final Map<String, List<String>> originatingTypes = new HashMap<>();
+
+    @Override
+    public synchronized void init(final ProcessingEnvironment processingEnv) {
+      super.init(processingEnv);
+      final Filer filer = forwarding(Filer.class,
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+              if (method.getName().equals("createSourceFile")) {
+                String[] names = new String[((Element[]) args[1]).length];
+                for (int i = 0; i < names.length; i++) {
+                  names[i] = topLevelType(((Element[]) args[1])[i]);
+                }
+                originatingTypes.put(args[0].toString(), Arrays.asList(names));
+              }
+              return invokeOn(processingEnv.getFiler(), method, args);
+            }
+          });
+      delegate.init(forwarding(ProcessingEnvironment.class,
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+              if (method.getName().equals("getFiler")) {
+                return filer;
+              }
+              return invokeOn(processingEnv, method, args);
+            }
+          }));
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+      return delegate.getSupportedAnnotationTypes();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+      return delegate.getSupportedSourceVersion();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      return delegate.process(annotations, roundEnv);
+    }
+  }
+
+  /**
+   * Writes a source file in the first round, so that its builders are generated in the second.
+   */
+  private static final class GeneratingProcessor extends AbstractProcessor {
+    private final JavaFileObject generated;
+    private boolean written;
+
+    GeneratingProcessor(JavaFileObject generated) {
+      this.generated = generated;
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+      return Collections.singleton("*");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      if (written) {
+        return false;
+      }
+      written = true;
+      String name = generated.getName();
+      name = name.substring(1, name.length() - ".java".length()).replace('/', '.');
+      try (Writer writer = processingEnv.getFiler().createSourceFile(name).openWriter()) {
+        writer.write(generated.getCharContent(false).toString());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return false;
+    }
+  }
+
+  private static <T> T forwarding(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(
+        IncrementalProcessingTest.class.getClassLoader(), new Class<?>[] {type}, handler));
+  }
+
+  private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static String topLevelType(Element el) {
+    while (!(el.getEnclosingElement() instanceof PackageElement)) {
+      el = el.getEnclosingElement();
+    }
+    return ((TypeElement) el).getQualifiedName().toString();
+  }
+
+  private final File outputDir;
+
+  public IncrementalProcessingTest() throws IOException {
+    outputDir = Files.createTempDirectory("callbuilder").toFile();
+  }
+
+  /**
+   * Compiles the given sources, with the output of earlier compilations on the class path, and
+   * returns the generated files mapped to the top-level types of their originating elements.
+   */
+  private Map<String, List<String>> compile(JavaFileObject... sources) throws IOException {
+    return compile(Collections.<Processor>emptyList(), sources);
+  }
+
+  /**
+   * Compiles as above, running the {@code others} processors before {@link CallBuilderProcessor}.
+   */
+  private Map<String, List<String>> compile(List<Processor> others, JavaFileObject... sources)
+      throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    RecordingProcessor processor = new RecordingProcessor();
+    try (StandardJavaFileManager fileManager =
+        compiler.getStandardFileManager(null, null, null)) {
+      List<File> classPath = new ArrayList<>();
+      for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+        classPath.add(new File(entry));
+      }
+      classPath.add(outputDir);
+      fileManager.setLocation(StandardLocation.CLASS_PATH, classPath);
+      fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(outputDir));
+      fileManager.setLocation(
+          StandardLocation.SOURCE_OUTPUT, Collections.singletonList(outputDir));
+      JavaCompiler.CompilationTask task = compiler.getTask(
+          null, fileManager, null, null, null, Arrays.asList(sources));
+      List<Processor> processors = new ArrayList<>(others);
+      processors.add(processor);
+      task.setProcessors(processors);
+      Assert.assertTrue("compilation failed", task.call());
+    }
+    return processor.originatingTypes;
+  }
+
+  @Test
+  public void eachBuilderHasOneOriginatingElementInItsDeclaringType() throws IOException {
+    Map<String, List<String>> expected = new HashMap<>();
+    expected.put("test.PersonBuilder", Arrays.asList("test.Person"));
+    expected.put("test.GreetBuilder", Arrays.asList("test.Person"));
+    expected.put("test.LineBuilder", Arrays.asList("test.Address"));
+
+    Assert.assertEquals(expected, compile(PERSON, ADDRESS));
+  }
+
+  @Test
+  public void styleFromAnotherSourceIsNotAnOriginatingElement() throws IOException {
+    JavaFileObject style = source("test.Upper",
+        "package test;",
+        "public class Upper {",
+        "  public static StringBuilder start() {",
+        "    return new StringBuilder();",
+        "  }",
+        "  public static String finish(StringBuilder from) {",
+        "    return from.toString();",
+        "  }",
+        "  public static StringBuilder appendTo(StringBuilder to, String value) {",
+        "    return to.append(value.toUpperCase());",
+        "  }",
+        "}");
+    JavaFileObject label = source("test.Label",
+        "package test;",
+        "import com.google.callbuilder.BuilderField;",
+        "import com.google.callbuilder.CallBuilder;",
+        "public class Label {",
+        "  @CallBuilder",
+        "  Label(@BuilderField(style = Upper.class) String text, Address address) {}",
+        "}");
+
+    Map<String, List<String>> expected = new HashMap<>();
+    expected.put("test.LabelBuilder", Arrays.asList("test.Label"));
+    expected.put("test.LineBuilder", Arrays.asList("test.Address"));
+
+    Assert.assertEquals(expected, compile(style, label, ADDRESS));
+  }
+
+  @Test
+  public void builderOfGeneratedSourceOriginatesInIt() throws IOException {
+    Map<String, List<String>> expected = new HashMap<>();
+    expected.put("test.PersonBuilder", Arrays.asList("test.Person"));
+    expected.put("test.GreetBuilder", Arrays.asList("test.Person"));
+    expected.put("test.RowBuilder", Arrays.asList("test.Row"));
+
+    Processor generating = new GeneratingProcessor(source("test.Row",
+        "package test;",
+        "import com.google.callbuilder.CallBuilder;",
+        "public class Row {",
+        "  @CallBuilder",
+        "  Row(Person person, int index) {}",
+        "}"));
+    Assert.assertEquals(
+        expected, compile(Collections.singletonList(generating), PERSON));
+  }
+}
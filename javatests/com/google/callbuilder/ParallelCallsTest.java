@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class ParallelCallsTest {
+  /**
+   * Counts the threads it makes.
+   */
+  private static final class CountingThreadFactory implements ThreadFactory {
+    final AtomicInteger created = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      created.incrementAndGet();
+      return new Thread(runnable);
+    }
+  }
+
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      task.run();
+    }
+  };
+
+  private static Callable<Integer> constant(final int value) {
+    return new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return value;
+      }
+    };
+  }
+
+  private static Callable<Integer> throwing(final Exception exception) {
+    return new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        throw exception;
+      }
+    };
+  }
+
+  @Test
+  public void resultsAreInOrderOfCalls() {
+    List<Callable<Integer>> calls = new ArrayList<>();
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      calls.add(constant(i));
+      expected.add(i);
+    }
+    CountingThreadFactory threads = new CountingThreadFactory();
+    Assert.assertEquals(expected, ParallelCalls.invokeAll(calls, 8, threads));
+    Assert.assertEquals(7, threads.created.get());
+  }
+
+  @Test
+  public void callingThreadMakesCallsWhenConcurrencyIsOne() {
+    final Thread caller = Thread.currentThread();
+    Callable<Boolean> onCaller = new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return Thread.currentThread() == caller;
+      }
+    };
+    CountingThreadFactory threads = new CountingThreadFactory();
+    Assert.assertEquals(Arrays.asList(true, true),
+        ParallelCalls.invokeAll(Arrays.asList(onCaller, onCaller), 1, threads));
+    Assert.assertEquals(0, threads.created.get());
+  }
+
+  @Test
+  public void startsNoMoreThreadsThanCalls() {
+    CountingThreadFactory threads = new CountingThreadFactory();
+    ParallelCalls.invokeAll(Arrays.asList(constant(1), constant(2)), 16, threads);
+    Assert.assertEquals(1, threads.created.get());
+  }
+
+  @Test
+  public void noCalls() {
+    Assert.assertEquals(Collections.emptyList(),
+        ParallelCalls.invokeAll(Collections.<Callable<Integer>>emptyList(), 4));
+  }
+
+  @Test
+  public void defaultThreadFactory() {
+    List<Callable<Integer>> calls = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      calls.add(constant(i));
+    }
+    Assert.assertEquals(10, ParallelCalls.invokeAll(calls, 4).size());
+  }
+
+  @Test
+  public void rethrowsFirstFailureAndStopsStartingCalls() {
+    final AtomicInteger made = new AtomicInteger();
+    Callable<Integer> counted = new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return made.incrementAndGet();
+      }
+    };
+    IllegalStateException failure = new IllegalStateException();
+    try {
+      ParallelCalls.invokeAll(
+          Arrays.asList(counted, throwing(failure), counted, counted), 1);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertSame(failure, e);
+    }
+    Assert.assertEquals(1, made.get());
+  }
+
+  @Test
+  public void wrapsCheckedExceptions() {
+    IOException failure = new IOException();
+    try {
+      ParallelCalls.invokeAll(Arrays.asList(throwing(failure)), 1);
+      Assert.fail();
+    } catch (RuntimeException e) {
+      Assert.assertSame(failure, e.getCause());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void concurrencyMustBePositive() {
+    ParallelCalls.invokeAll(Arrays.asList(constant(1)), 0);
+  }
+
+  @Test
+  public void submitCompletesWithResult() throws Exception {
+    CompletableFuture<Integer> future = ParallelCalls.submit(constant(5), DIRECT);
+    Assert.assertEquals(Integer.valueOf(5), future.get());
+  }
+
+  @Test
+  public void submitCompletesWithFailure() throws Exception {
+    IOException failure = new IOException();
+    CompletableFuture<Integer> future = ParallelCalls.submit(throwing(failure), DIRECT);
+    try {
+      future.get();
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertSame(failure, e.getCause());
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.benchmark.CorpusCompiler;
+import com.google.callbuilder.benchmark.SyntheticCorpus;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaFileObject;
+
+@RunWith(JUnit4.class)
+public class ParallelGenerationTest {
+  private final List<JavaFileObject> corpus = SyntheticCorpus.generate(8, 7);
+
+  private Map<String, String> generate(List<String> options) throws IOException {
+    return CorpusCompiler.compile(corpus, options).generatedSources();
+  }
+
+  @Test
+  public void parallelOutputIsIdenticalToSequentialOutput() throws IOException {
+    Map<String, String> sequential = generate(Collections.<String>emptyList());
+    Assert.assertEquals(8 * 7, sequential.size());
+    Assert.assertEquals(sequential,
+        generate(Arrays.asList("-A" + CallBuilderProcessor.PARALLELISM_OPTION + "=4")));
+  }
+
+  @Test
+  public void invalidParallelismFallsBackToSequential() throws IOException {
+    Assert.assertEquals(generate(Collections.<String>emptyList()),
+        generate(Arrays.asList("-A" + CallBuilderProcessor.PARALLELISM_OPTION + "=none")));
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.ProcessorStatistics.Phase;
+import com.google.callbuilder.benchmark.CorpusCompiler;
+import com.google.callbuilder.benchmark.SyntheticCorpus;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class ProcessorStatisticsTest {
+  /**
+   * Two classes, each with a constructor, a generic method, a styled method and a plain method. The
+   * styled method has two {@code ArrayListAdding} fields and one {@code StringAppending} field.
+   */
+  private static final int CLASSES = 2;
+  private static final int BUILDERS_PER_CLASS = 4;
+
+  private static ProcessorStatistics compile(String... options) throws IOException {
+    return CorpusCompiler.compile(
+        SyntheticCorpus.generate(CLASSES, BUILDERS_PER_CLASS), Arrays.asList(options))
+        .statistics();
+  }
+
+  @Test
+  public void countsWork() throws IOException {
+    ProcessorStatistics statistics = compile();
+    Assert.assertEquals(8, statistics.elements());
+    Assert.assertEquals(8 * 3, statistics.fields());
+    Assert.assertEquals(2 * (2 + 2 + 1), statistics.modifiersGenerated());
+    Assert.assertEquals(0, statistics.modifiersDropped());
+    Assert.assertEquals(0, statistics.styledFieldsDropped());
+  }
+
+  @Test
+  public void timesPhases() throws IOException {
+    ProcessorStatistics statistics = compile();
+    Assert.assertEquals(8, statistics.count(Phase.FIELD_INFO));
+    Assert.assertEquals(8, statistics.count(Phase.RENDER));
+    Assert.assertEquals(8, statistics.count(Phase.WRITE));
+    Assert.assertEquals(2, statistics.count(Phase.FIELD_STYLE));
+    // Encoding and solving each of the three field shapes.
+    Assert.assertEquals(2 * 3, statistics.count(Phase.TYPE_INFERENCE));
+    Assert.assertEquals(2 * (2 + 2 + 1), statistics.count(Phase.MODIFIER_TYPES));
+    for (Phase phase : Phase.values()) {
+      Assert.assertTrue(phase.toString(), statistics.nanos(phase) >= 0);
+    }
+  }
+
+  @Test
+  public void attributesTimeToEachBuilder() throws IOException {
+    ProcessorStatistics statistics = compile();
+    Assert.assertEquals(8, statistics.builderNanos().size());
+    Assert.assertTrue(statistics.builderNanos().containsKey("synthetic.Class1Styled2"));
+    long previous = Long.MAX_VALUE;
+    for (long nanos : statistics.builderNanos().values()) {
+      Assert.assertTrue(nanos <= previous);
+      previous = nanos;
+    }
+  }
+
+  @Test
+  public void parallelRenderingCountsTheSameWork() throws IOException {
+    ProcessorStatistics statistics =
+        compile("-A" + CallBuilderProcessor.PARALLELISM_OPTION + "=4");
+    Assert.assertEquals(8, statistics.count(Phase.RENDER));
+    Assert.assertEquals(2 * 3, statistics.count(Phase.TYPE_INFERENCE));
+    Assert.assertEquals(2 * (2 + 2 + 1), statistics.modifiersGenerated());
+  }
+
+  @Test
+  public void writesStatsFile() throws IOException {
+    File statsFile = File.createTempFile("callbuilder", ".stats");
+    try {
+      compile("-A" + CallBuilderProcessor.STATS_FILE_OPTION + "=" + statsFile.getPath());
+      String summary = new String(Files.readAllBytes(statsFile.toPath()), StandardCharsets.UTF_8);
+      for (Phase phase : Phase.values()) {
+        Assert.assertTrue(summary, summary.contains(phase.toString()));
+      }
+      Assert.assertTrue(summary, summary.contains("modifiers generated: 10"));
+      Assert.assertTrue(summary, summary.contains("FieldStyle cache: 4 hits, 2 misses"));
+      Assert.assertTrue(summary, summary.contains("synthetic.Class0Styled2"));
+    } finally {
+      statsFile.delete();
+    }
+  }
+
+  @Test
+  public void summaryListsAtMostTheRequestedBuilders() {
+    ProcessorStatistics statistics = new ProcessorStatistics();
+    for (String builder : Arrays.asList("a.FirstBuilder", "a.SecondBuilder")) {
+      statistics.start(Phase.RENDER, builder).end();
+    }
+    String summary = statistics.summary(1);
+    Assert.assertTrue(summary,
+        summary.contains("a.FirstBuilder") != summary.contains("a.SecondBuilder"));
+  }
+}
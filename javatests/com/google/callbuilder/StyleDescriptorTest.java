@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+@RunWith(JUnit4.class)
+public class StyleDescriptorTest {
+  private static final String STYLE = ""
+      + "package styles;\n"
+      + "@com.google.callbuilder.BuilderStyle\n"
+      + "public class Listing {\n"
+      + "  public static <T> java.util.ArrayList<T> start() {\n"
+      + "    return new java.util.ArrayList<>();\n"
+      + "  }\n"
+      + "  public static <T> java.util.List<T> finish(java.util.ArrayList<T> list) {\n"
+      + "    return list;\n"
+      + "  }\n"
+      + "  public static <T> java.util.ArrayList<T> put(java.util.ArrayList<T> to, T element) {\n"
+      + "    to.add(element);\n"
+      + "    return to;\n"
+      + "  }\n"
+      + "  public static <T> java.util.ArrayList<T> putTimes(\n"
+      + "      java.util.ArrayList<T> to, int[] times, T element) {\n"
+      + "    return to;\n"
+      + "  }\n"
+      + "}\n";
+
+  private static final String DESCRIPTOR = ""
+      + "(callbuilder-style 3 styles.Listing\n"
+      + " (start start (T) (declared java.util.ArrayList (variable T)) ())\n"
+      + " (finish finish (T) (declared java.util.List (variable T))"
+      + " ((list (declared java.util.ArrayList (variable T)))))\n"
+      + " (modifier put (T) (declared java.util.ArrayList (variable T))"
+      + " ((to (declared java.util.ArrayList (variable T))) (element (variable T))))\n"
+      + " (modifier putTimes (T) (declared java.util.ArrayList (variable T))"
+      + " ((to (declared java.util.ArrayList (variable T))) (times (other int[]))"
+      + " (element (variable T)))))\n";
+
+  private static final String USER = ""
+      + "package users;\n"
+      + "public class User {\n"
+      + "  @com.google.callbuilder.CallBuilder\n"
+      + "  static int count(\n"
+      + "      @com.google.callbuilder.BuilderField(style = styles.Listing.class)\n"
+      + "      java.util.List<String> names) {\n"
+      + "    return names.size();\n"
+      + "  }\n"
+      + "}\n";
+
+  private static JavaFileObject source(String path, final String content) {
+    return new SimpleJavaFileObject(
+        URI.create("string:///" + path), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+
+  /**
+   * Compiles {@code source} into {@code outputDir}, with the class path of this test and
+   * {@code extraClassPath}, running only {@code processor}. Returns whether compilation succeeded.
+   */
+  private static boolean compile(JavaFileObject source, File outputDir,
+      List<File> extraClassPath, Processor processor, String... options) throws IOException {
+    return compile(source, outputDir, extraClassPath, processor,
+        new DiagnosticCollector<JavaFileObject>(), options);
+  }
+
+  /**
+   * Compiles as above, reporting diagnostics to {@code diagnostics}.
+   */
+  private static boolean compile(JavaFileObject source, File outputDir,
+      List<File> extraClassPath, Processor processor,
+      DiagnosticCollector<JavaFileObject> diagnostics, String... options) throws IOException {
+    return compile(Collections.singletonList(source), outputDir, extraClassPath, processor,
+        diagnostics, options);
+  }
+
+  /**
+   * Compiles all of {@code sources} together as above.
+   */
+  private static boolean compile(List<JavaFileObject> sources, File outputDir,
+      List<File> extraClassPath, Processor processor,
+      DiagnosticCollector<JavaFileObject> diagnostics, String... options) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    try (StandardJavaFileManager fileManager =
+        compiler.getStandardFileManager(null, null, null)) {
+      List<File> classPath = new ArrayList<>(extraClassPath);
+      for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+        classPath.add(new File(entry));
+      }
+      fileManager.setLocation(StandardLocation.CLASS_PATH, classPath);
+      fileManager.setLocation(
+          StandardLocation.CLASS_OUTPUT, Collections.singletonList(outputDir));
+      fileManager.setLocation(
+          StandardLocation.SOURCE_OUTPUT, Collections.singletonList(outputDir));
+      JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+          Arrays.asList(options), null, sources);
+      task.setProcessors(Collections.singletonList(processor));
+      return task.call();
+    }
+  }
+
+  /**
+   * Returns the diagnostics of the given kind, each as its line number, a colon and its message.
+   */
+  private static List<String> messages(
+      DiagnosticCollector<JavaFileObject> diagnostics, Diagnostic.Kind kind) {
+    List<String> messages = new ArrayList<>();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      if (diagnostic.getKind() == kind) {
+        messages.add(diagnostic.getLineNumber() + ": " + diagnostic.getMessage(null));
+      }
+    }
+    return messages;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns a class loader of only {@code directory}, from which a processor reads the descriptors
+   * of the styles compiled into it, as it would from a processor path that includes them.
+   */
+  private static URLClassLoader descriptorLoader(File directory) throws IOException {
+    return new URLClassLoader(new URL[] {directory.toURI().toURL()}, null);
+  }
+
+  /**
+   * Compiles the style into {@code root/styles} and the user into {@code root/users}, returning
+   * the stats file of the second compilation.
+   */
+  private static String compileStyleAndUser(File root, String descriptor) throws IOException {
+    File styles = new File(root, "styles");
+    File users = new File(root, "users");
+    styles.mkdirs();
+    users.mkdirs();
+    Assert.assertTrue(compile(source("styles/Listing.java", STYLE), styles,
+        Collections.<File>emptyList(), new StyleDescriptorProcessor()));
+    if (descriptor != null) {
+      Files.write(new File(styles, "styles/Listing.callbuilder-style").toPath(),
+          descriptor.getBytes(StandardCharsets.UTF_8));
+    }
+    File statsFile = new File(root, "stats");
+    try (URLClassLoader descriptorLoader = descriptorLoader(styles)) {
+      Assert.assertTrue(compile(source("users/User.java", USER), users,
+          Collections.singletonList(styles), new CallBuilderProcessor(descriptorLoader),
+          "-A" + CallBuilderProcessor.STATS_FILE_OPTION + "=" + statsFile.getPath()));
+    }
+    return read(statsFile);
+  }
+
+  @Test
+  public void writesDescriptorNextToClassFile() throws IOException {
+    File root = Files.createTempDirectory("callbuilder-styles").toFile();
+    try {
+      Assert.assertTrue(compile(source("styles/Listing.java", STYLE), root,
+          Collections.<File>emptyList(), new StyleDescriptorProcessor()));
+      Assert.assertEquals(DESCRIPTOR, read(new File(root, "styles/Listing.callbuilder-style")));
+    } finally {
+      deleteRecursively(root);
+    }
+  }
+
+  @Test
+  public void reportsInvalidStyle() throws IOException {
+    File root = Files.createTempDirectory("callbuilder-styles").toFile();
+    try {
+      String noFinish = STYLE.replace(" finish(", " end(");
+      Assert.assertFalse(compile(source("styles/Listing.java", noFinish), root,
+          Collections.<File>emptyList(), new StyleDescriptorProcessor()));
+    } finally {
+      deleteRecursively(root);
+    }
+  }
+
+  @Test
+  public void leavesOutMethodsThatAreNotModifiers() throws IOException {
+    String style = STYLE.substring(0, STYLE.lastIndexOf('}'))
+        + "  private static int helper(java.util.ArrayList<?> list) {\n"
+        + "    return list.size();\n"
+        + "  }\n"
+        + "  public <T> java.util.ArrayList<T> instance(java.util.ArrayList<T> to) {\n"
+        + "    return to;\n"
+        + "  }\n"
+        + "  public static String describe(String text) {\n"
+        + "    return text;\n"
+        + "  }\n"
+        + "}\n";
+    File root = Files.createTempDirectory("callbuilder-styles").toFile();
+    try {
+      DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+      Assert.assertTrue(compile(source("styles/Listing.java", style), root,
+          Collections.<File>emptyList(), new StyleDescriptorProcessor(), diagnostics));
+      Assert.assertEquals(DESCRIPTOR, read(new File(root, "styles/Listing.callbuilder-style")));
+      Assert.assertEquals(Arrays.asList(
+          "21: instance is not public and static, so it is not a modifier of the style",
+          "24: the first parameter of describe is not the java.util.ArrayList that start()"
+              + " returns, so it is not a modifier of the style"),
+          messages(diagnostics, Diagnostic.Kind.WARNING));
+    } finally {
+      deleteRecursively(root);
+    }
+  }
+
+  @Test
+  public void reportsEachProblemOnItsMethod() throws IOException {
+    String invalid = STYLE
+        .replace("public static <T> java.util.ArrayList<T> start()",
+            "static <T> java.util.ArrayList<T> start()")
+        .replace("finish(java.util.ArrayList<T> list)",
+            "finish(java.util.ArrayList<T> list, int size)");
+    File root = Files.createTempDirectory("callbuilder-styles").toFile();
+    try {
+      DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+      Assert.assertFalse(compile(source("styles/Listing.java", invalid), root,
+          Collections.<File>emptyList(), new StyleDescriptorProcessor(), diagnostics));
+      Assert.assertEquals(Arrays.asList(
+          "4: start() of a style class must be public and static",
+          "7: finish() of a style class must take exactly one parameter"),
+          messages(diagnostics, Diagnostic.Kind.ERROR));
+      Assert.assertFalse(new File(root, "styles/Listing.callbuilder-style").exists());
+    } finally {
+      deleteRecursively(root);
+    }
+  }
+
+  @Test
+  public void reportsInvalidCopyHooks() throws IOException {
+    String invalid = STYLE.substring(0, STYLE.lastIndexOf('}'))
+        + "  @com.google.callbuilder.BuilderStyle.Copy\n"
+        + "  public static <T> java.util.List<T> snapshot(java.util.ArrayList<T> from) {\n"
+        + "    return from;\n"
+        + "  }\n"
+        + "  @com.google.callbuilder.BuilderStyle.Copy\n"
+        + "  static <T> java.util.ArrayList<T> hidden(java.util.ArrayList<T> from) {\n"
+        + "    return from;\n"
+        + "  }\n"
+        + "  @com.google.callbuilder.BuilderStyle.Copy\n"
+        + "  public static <T> java.util.ArrayList<T> copy(java.util.ArrayList<T> from) {\n"
+        + "    return new java.util.ArrayList<>(from);\n"
+        + "  }\n"
+        + "  @com.google.callbuilder.BuilderStyle.Copy\n"
+        + "  public static <T> java.util.ArrayList<T> duplicate(java.util.ArrayList<T> from) {\n"
+        + "    return new java.util.ArrayList<>(from);\n"
+        + "  }\n"
+        + "}\n";
+    File root = Files.createTempDirectory("callbuilder-styles").toFile();
+    try {
+      DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+      Assert.assertFalse(compile(source("styles/Listing.java", invalid), root,
+          Collections.<File>emptyList(), new StyleDescriptorProcessor(), diagnostics));
+      Assert.assertEquals(Arrays.asList(
+          "23: the @BuilderStyle.Copy method hidden must be public and static",
+          "19: the @BuilderStyle.Copy method snapshot must take the java.util.ArrayList that"
+              + " start() returns as its only parameter and return a new one",
+          "31: a style class can have only one @BuilderStyle.Copy method"),
+          messages(diagnostics, Diagnostic.Kind.ERROR));
+    } finally {
+      deleteRecursively(root);
+    }
+  }
+
+  @Test
+  public void usesDescriptorFromProcessorPath() throws IOException {
+    File root = Files.createTempDirectory("callbuilder-styles").toFile();
+    try {
+      String stats = compileStyleAndUser(root, null);
+      Assert.assertTrue(stats, stats.contains("Style descriptors loaded: 1"));
+      // Parameter names are not in the class file, so they must have come from the descriptor.
+      String builder = read(new File(root, "users/users/CountBuilder.java"));
+      Assert.assertTrue(builder,
+          builder.contains("putNames(java.lang.String element)"));
+      Assert.assertTrue(builder,
+          builder.contains("putTimesNames(int[] times, java.lang.String element)"));
+    } finally {
+      deleteRecursively(root);
+    }
+  }
+
+  @Test
+  public void fallsBackFromUnusableDescriptor() throws IOException {
+    for (String descriptor : Arrays.asList(
+        "",
+        "(callbuilder-style 3 styles.Listing",
+        DESCRIPTOR.replace("callbuilder-style 3", "callbuilder-style 999"),
+        DESCRIPTOR.replace("styles.Listing", "styles.Other"),
+        DESCRIPTOR.replace("(start start", "(begin start"))) {
+      File root = Files.createTempDirectory("callbuilder-styles").toFile();
+      try {
+        String stats = compileStyleAndUser(root, descriptor);
+        Assert.assertTrue(stats, stats.contains("Style descriptors loaded: 0"));
+        String builder = read(new File(root, "users/users/CountBuilder.java"));
+        Assert.assertTrue(builder, builder.contains("putNames(java.lang.String arg1)"));
+      } finally {
+        deleteRecursively(root);
+      }
+    }
+  }
+
+  @Test
+  public void fallsBackWhenDescriptorCannotBeRead() throws IOException {
+    File root = Files.createTempDirectory("callbuilder-styles").toFile();
+    try {
+      File styles = new File(root, "styles");
+      styles.mkdirs();
+      Assert.assertTrue(compile(source("styles/Listing.java", STYLE), styles,
+          Collections.<File>emptyList(), new StyleDescriptorProcessor()));
+      ClassLoader failingLoader = new ClassLoader(null) {
+        @Override
+        public InputStream getResourceAsStream(String name) {
+          throw new IllegalStateException("cannot read " + name);
+        }
+      };
+      File statsFile = new File(root, "stats");
+      Assert.assertTrue(compile(source("users/User.java", USER), root,
+          Collections.singletonList(styles), new CallBuilderProcessor(failingLoader),
+          "-A" + CallBuilderProcessor.STATS_FILE_OPTION + "=" + statsFile.getPath()));
+      String stats = read(statsFile);
+      Assert.assertTrue(stats, stats.contains("Style descriptors loaded: 0"));
+    } finally {
+      deleteRecursively(root);
+    }
+  }
+
+  @Test
+  public void ignoresDescriptorOfStyleCompiledFromSource() throws IOException {
+    String style = STYLE.substring(0, STYLE.lastIndexOf('}'))
+        + "  public static <T> java.util.ArrayList<T> putFirst(\n"
+        + "      java.util.ArrayList<T> to, T element) {\n"
+        + "    to.add(0, element);\n"
+        + "    return to;\n"
+        + "  }\n"
+        + "}\n";
+    String user = USER.substring(0, USER.lastIndexOf('}'))
+        + "  static int first() {\n"
+        + "    return new CountBuilder().putFirstNames(\"a\").build();\n"
+        + "  }\n"
+        + "}\n";
+    File root = Files.createTempDirectory("callbuilder-styles").toFile();
+    try {
+      // The descriptor of the earlier version of the style stays on the class path and the
+      // processor path, as the previous output directory does in an incremental build.
+      compileStyleAndUser(root, null);
+      File next = new File(root, "next");
+      next.mkdirs();
+      File statsFile = new File(root, "next-stats");
+      DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+      File styles = new File(root, "styles");
+      boolean compiled;
+      try (URLClassLoader descriptorLoader = descriptorLoader(styles)) {
+        compiled = compile(
+            Arrays.asList(source("styles/Listing.java", style), source("users/User.java", user)),
+            next, Collections.singletonList(styles), new CallBuilderProcessor(descriptorLoader),
+            diagnostics,
+            "-A" + CallBuilderProcessor.STATS_FILE_OPTION + "=" + statsFile.getPath());
+      }
+      Assert.assertTrue(messages(diagnostics, Diagnostic.Kind.ERROR).toString(), compiled);
+      String stats = read(statsFile);
+      Assert.assertTrue(stats, stats.contains("Style descriptors loaded: 0"));
+    } finally {
+      deleteRecursively(root);
+    }
+  }
+}
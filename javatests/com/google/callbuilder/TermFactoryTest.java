@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.Unification.Atom;
+import com.google.callbuilder.Unification.Sequence;
+import com.google.callbuilder.Unification.Unifiable;
+import com.google.callbuilder.Unification.Variable;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class TermFactoryTest {
+  private final TermFactory terms = new TermFactory();
+  private final Atom list = new Atom();
+  private final Atom string = new Atom();
+  private final Variable x = new Variable();
+
+  private Sequence seq(Unifiable... items) {
+    return terms.sequence(Arrays.asList(items));
+  }
+
+  @Test
+  public void testEqualGroundSequencesAreSameInstance() {
+    Assert.assertSame(seq(list, seq(string)), seq(list, seq(string)));
+    Assert.assertEquals(2, terms.size());
+  }
+
+  @Test
+  public void testSequencesWithVariablesAreNotShared() {
+    Sequence first = seq(list, x);
+    Sequence second = seq(list, x);
+    Assert.assertNotSame(first, second);
+    Assert.assertEquals(first, second);
+    Assert.assertEquals(0, terms.size());
+  }
+
+  @Test
+  public void testSharedSequenceEqualsUnsharedSequence() {
+    Sequence shared = seq(list, seq(string));
+    Sequence unshared = new Sequence(Arrays.<Unifiable>asList(
+        list, new Sequence(Arrays.<Unifiable>asList(string))));
+    Assert.assertEquals(shared, unshared);
+    Assert.assertEquals(shared.hashCode(), unshared.hashCode());
+  }
+
+  @Test
+  public void testDifferentSequencesAreNotEqual() {
+    Assert.assertFalse(seq(list, string).equals(seq(string, list)));
+    Assert.assertFalse(seq(list, string).equals(seq(list, string, string)));
+  }
+
+  @Test
+  public void testGround() {
+    Assert.assertTrue(seq(list, seq(string)).isGround());
+    Assert.assertFalse(seq(list, seq(x)).isGround());
+  }
+}
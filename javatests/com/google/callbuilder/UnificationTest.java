@@ -14,6 +14,7 @@
 package com.google.callbuilder;
 
 import com.google.callbuilder.Unification.Atom;
+import com.google.callbuilder.Unification.Resolver;
 import com.google.callbuilder.Unification.Sequence;
 import com.google.callbuilder.Unification.Substitution;
 import com.google.callbuilder.Unification.Unifiable;
@@ -24,8 +25,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RunWith(JUnit4.class)
@@ -89,6 +92,69 @@ public class UnificationTest {
     Assert.assertNull(Unification.unify(seq(a), seq(b)));
   }
 
+  @Test
+  public void testOccursCheck() {
+    Assert.assertNull(Unification.unify(x, seq(a, x)));
+  }
+
+  @Test
+  public void testIndirectOccursCheck() {
+    // X = [a, Y], Y = [b, X]
+    Assert.assertNull(Unification.unify(seq(x, y), seq(seq(a, y), seq(b, x))));
+  }
+
+  @Test
+  public void testOccursCheckThroughVariableChain() {
+    // X = Y, Y = Z, Z = [a, X]
+    Assert.assertNull(Unification.unify(seq(x, y, z), seq(y, z, seq(a, x))));
+  }
+
+  @Test
+  public void testVariableUnifiedWithItself() {
+    Resolver result = Unification.unify(seq(x, x), seq(x, a));
+    Assert.assertEquals(a, result.resolve(x));
+  }
+
+  @Test
+  public void testWideSequence() {
+    List<Unifiable> lhs = new ArrayList<>();
+    List<Unifiable> rhs = new ArrayList<>();
+    List<Variable> variables = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      Variable variable = new Variable();
+      variables.add(variable);
+      lhs.add(variable);
+      rhs.add((i % 2 == 0) ? a : b);
+    }
+    Resolver result = Unification.unify(new Sequence(lhs), new Sequence(rhs));
+    Assert.assertEquals(new Sequence(rhs), result.resolve(new Sequence(lhs)));
+    Assert.assertEquals(b, result.resolve(variables.get(99999)));
+  }
+
+  @Test
+  public void testDeeplyNestedSequence() {
+    // [a, [a, [a, ... X]]] = [Y, [a, [a, ... b]]]
+    Unifiable lhs = x;
+    Unifiable rhs = b;
+    for (int i = 0; i < 100000; i++) {
+      lhs = seq(a, lhs);
+      rhs = seq((i == 100000 - 1) ? y : a, rhs);
+    }
+    Resolver result = Unification.unify(lhs, rhs);
+    Assert.assertEquals(b, result.resolve(x));
+    Assert.assertEquals(a, result.resolve(y));
+  }
+
+  @Test
+  public void testDeeplyNestedOccursCheck() {
+    // X = [a, [a, [a, ... X]]]
+    Unifiable rhs = x;
+    for (int i = 0; i < 100000; i++) {
+      rhs = seq(a, rhs);
+    }
+    Assert.assertNull(Unification.unify(x, rhs));
+  }
+
   @Test
   public void testSlighlyTrickyFailure() {
     Assert.assertNull(Unification.unify(seq(a, x, x, z), seq(y, b, z, y)));
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import com.google.callbuilder.Unification.Atom;
+import com.google.callbuilder.Unification.Resolver;
+import com.google.callbuilder.Unification.Sequence;
+import com.google.callbuilder.Unification.Unifiable;
+import com.google.callbuilder.Unification.Variable;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class UnionFindUnificationTest {
+  private Atom a = new Atom();
+  private Atom b = new Atom();
+  private Atom c = new Atom();
+  private Variable x = new Variable();
+  private Variable y = new Variable();
+  private Variable z = new Variable();
+
+  private Sequence seq(Unifiable... items) {
+    return new Sequence(Arrays.asList(items));
+  }
+
+  @Test
+  public void testTwoAtomsNotEqual() {
+    Assert.assertNull(UnionFindUnification.unify(new Atom(), new Atom()));
+  }
+
+  @Test
+  public void testVariableResolvesTransitivelyToAtom() {
+    Resolver result = UnionFindUnification.unify(
+        seq(seq(a, x), b),
+        seq(y, x));
+    Assert.assertEquals(seq(a, b), result.resolve(y));
+    Assert.assertEquals(b, result.resolve(x));
+  }
+
+  @Test
+  public void testGenericTypeLikeCase() {
+    Resolver result = UnionFindUnification.unify(
+        seq(seq(a, x        ), y),
+        seq(seq(a, seq(b, y)), c));
+    Assert.assertEquals(c, result.resolve(y));
+    Assert.assertEquals(seq(b, c), result.resolve(x));
+  }
+
+  @Test
+  public void testChainOfVariables() {
+    Resolver result = UnionFindUnification.unify(seq(x, y, z), seq(y, z, a));
+    Assert.assertEquals(a, result.resolve(x));
+    Assert.assertEquals(a, result.resolve(y));
+    Assert.assertEquals(a, result.resolve(z));
+  }
+
+  @Test
+  public void testUnboundVariablesResolveToOneRepresentative() {
+    Resolver result = UnionFindUnification.unify(seq(x, y), seq(y, z));
+    Assert.assertSame(result.resolve(x), result.resolve(y));
+    Assert.assertSame(result.resolve(y), result.resolve(z));
+    Assert.assertTrue(result.resolve(x) instanceof Variable);
+  }
+
+  @Test
+  public void testResolvingGroundTermReturnsSameInstance() {
+    Sequence ground = seq(a, seq(b, c));
+    Resolver result = UnionFindUnification.unify(seq(x, ground), seq(a, ground));
+    Assert.assertSame(ground, result.resolve(ground));
+  }
+
+  @Test
+  public void testTrivialFailure() {
+    Assert.assertNull(UnionFindUnification.unify(seq(a), seq(b)));
+  }
+
+  @Test
+  public void testLengthMismatch() {
+    Assert.assertNull(UnionFindUnification.unify(seq(a, x), seq(a, x, y)));
+  }
+
+  @Test
+  public void testAtomAndSequence() {
+    Assert.assertNull(UnionFindUnification.unify(seq(a, x), seq(seq(a), x)));
+  }
+
+  @Test
+  public void testOccursCheck() {
+    Assert.assertNull(UnionFindUnification.unify(x, seq(a, x)));
+  }
+
+  @Test
+  public void testIndirectOccursCheck() {
+    // X = [a, Y], Y = [b, X]
+    Assert.assertNull(UnionFindUnification.unify(seq(x, y), seq(seq(a, y), seq(b, x))));
+  }
+
+  @Test
+  public void testOccursCheckThroughVariableChain() {
+    // X = Y, Y = Z, Z = [a, X]
+    Assert.assertNull(UnionFindUnification.unify(seq(x, y, z), seq(y, z, seq(a, x))));
+  }
+
+  @Test
+  public void testVariableUnifiedWithItself() {
+    Resolver result = UnionFindUnification.unify(seq(x, x), seq(x, a));
+    Assert.assertEquals(a, result.resolve(x));
+  }
+
+  @Test
+  public void testWideSequence() {
+    List<Unifiable> lhs = new ArrayList<>();
+    List<Unifiable> rhs = new ArrayList<>();
+    List<Variable> variables = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      Variable variable = new Variable();
+      variables.add(variable);
+      lhs.add(variable);
+      rhs.add((i % 2 == 0) ? a : b);
+    }
+    Resolver result = UnionFindUnification.unify(new Sequence(lhs), new Sequence(rhs));
+    Assert.assertEquals(new Sequence(rhs), result.resolve(new Sequence(lhs)));
+    Assert.assertEquals(b, result.resolve(variables.get(99999)));
+  }
+
+  @Test
+  public void testDeeplyNestedSequence() {
+    // [a, [a, [a, ... X]]] = [Y, [a, [a, ... b]]]
+    Unifiable lhs = x;
+    Unifiable rhs = b;
+    for (int i = 0; i < 100000; i++) {
+      lhs = seq(a, lhs);
+      rhs = seq((i == 100000 - 1) ? y : a, rhs);
+    }
+    Resolver result = UnionFindUnification.unify(lhs, rhs);
+    Assert.assertEquals(b, result.resolve(x));
+    Assert.assertEquals(a, result.resolve(y));
+  }
+
+  @Test
+  public void testDeeplyNestedOccursCheck() {
+    // X = [a, [a, [a, ... X]]]
+    Unifiable rhs = x;
+    for (int i = 0; i < 100000; i++) {
+      rhs = seq(a, rhs);
+    }
+    Assert.assertNull(UnionFindUnification.unify(x, rhs));
+  }
+
+  @Test
+  public void testSlighlyTrickyFailure() {
+    Assert.assertNull(UnionFindUnification.unify(seq(a, x, x, z), seq(y, b, z, y)));
+  }
+
+  /**
+   * Generates random unification problems. Each problem starts from a random ground term. Both
+   * sides of the problem are copies of it in which some subterms are replaced by variables, with
+   * the same variable for every occurrence of a subterm in either side. Such problems always have
+   * a solution, and no variable can be bound to a term that contains it, which the substitution
+   * engine cannot handle. A problem is made unsolvable, in most cases, by replacing one atom in the
+   * right-hand side's ground term with another before introducing variables.
+   */
+  private static final class ProblemGenerator {
+    private final Random random;
+    private final List<Atom> atoms = new ArrayList<>();
+    private final Map<Unifiable, Variable> variables = new HashMap<>();
+
+    ProblemGenerator(Random random) {
+      this.random = random;
+      for (int i = 0; i < 4; i++) {
+        atoms.add(new Atom());
+      }
+    }
+
+    Unifiable groundTerm(int depth) {
+      if (depth == 0 || random.nextInt(3) == 0) {
+        return atoms.get(random.nextInt(atoms.size()));
+      }
+      List<Unifiable> items = new ArrayList<>();
+      items.add(atoms.get(random.nextInt(atoms.size())));
+      int arguments = random.nextInt(4);
+      for (int i = 0; i < arguments; i++) {
+        items.add(groundTerm(depth - 1));
+      }
+      return new Sequence(items);
+    }
+
+    /**
+     * Returns a copy of {@code ground} with one atom occurrence replaced by a random atom.
+     */
+    Unifiable perturb(Unifiable ground) {
+      List<Integer> path = new ArrayList<>();
+      Unifiable current = ground;
+      while (current instanceof Sequence) {
+        List<Unifiable> items = ((Sequence) current).items();
+        int index = random.nextInt(items.size());
+        path.add(index);
+        current = items.get(index);
+      }
+      return replace(ground, path, 0, atoms.get(random.nextInt(atoms.size())));
+    }
+
+    private Unifiable replace(Unifiable term, List<Integer> path, int depth, Atom atom) {
+      if (depth == path.size()) {
+        return atom;
+      }
+      List<Unifiable> items = new ArrayList<>(((Sequence) term).items());
+      int index = path.get(depth);
+      items.set(index, replace(items.get(index), path, depth + 1, atom));
+      return new Sequence(items);
+    }
+
+    Unifiable withVariables(Unifiable ground) {
+      if (random.nextInt(4) == 0) {
+        Variable variable = variables.get(ground);
+        if (variable == null) {
+          variable = new Variable();
+          variables.put(ground, variable);
+        }
+        return variable;
+      }
+      if (ground instanceof Sequence) {
+        List<Unifiable> items = new ArrayList<>();
+        for (Unifiable item : ((Sequence) ground).items()) {
+          items.add(withVariables(item));
+        }
+        return new Sequence(items);
+      }
+      return ground;
+    }
+
+    Set<Variable> variables() {
+      return new LinkedHashSet<>(variables.values());
+    }
+  }
+
+  /**
+   * Checks that {@code expected} and {@code actual} are the same term except for the names of
+   * variables, extending the renaming found so far in {@code renaming} and its inverse.
+   */
+  private static void assertEqualUpToRenaming(Unifiable expected, Unifiable actual,
+      Map<Variable, Variable> renaming, Map<Variable, Variable> inverse) {
+    if (expected instanceof Variable) {
+      Assert.assertTrue(actual instanceof Variable);
+      Variable renamed = renaming.get(expected);
+      if (renamed == null) {
+        Assert.assertFalse(inverse.containsKey(actual));
+        renaming.put((Variable) expected, (Variable) actual);
+        inverse.put((Variable) actual, (Variable) expected);
+      } else {
+        Assert.assertSame(renamed, actual);
+      }
+    } else if (expected instanceof Sequence) {
+      Assert.assertTrue(actual instanceof Sequence);
+      List<Unifiable> expectedItems = ((Sequence) expected).items();
+      List<Unifiable> actualItems = ((Sequence) actual).items();
+      Assert.assertEquals(expectedItems.size(), actualItems.size());
+      for (int i = 0; i < expectedItems.size(); i++) {
+        assertEqualUpToRenaming(expectedItems.get(i), actualItems.get(i), renaming, inverse);
+      }
+    } else {
+      Assert.assertSame(expected, actual);
+    }
+  }
+
+  @Test
+  public void testRandomProblemsMatchSubstitutionEngine() {
+    Random random = new Random(20150501);
+    int solved = 0;
+    int failed = 0;
+    for (int problem = 0; problem < 3000; problem++) {
+      ProblemGenerator generator = new ProblemGenerator(random);
+      Unifiable ground = generator.groundTerm(4);
+      Unifiable rhsGround = (problem % 3 == 0) ? generator.perturb(ground) : ground;
+      Unifiable lhs = generator.withVariables(ground);
+      Unifiable rhs = generator.withVariables(rhsGround);
+
+      Resolver expected = Unification.SUBSTITUTION.unify(lhs, rhs);
+      Resolver actual = Unification.UNION_FIND.unify(lhs, rhs);
+      String message = "problem " + problem + ": " + lhs + " = " + rhs;
+      if (expected == null) {
+        Assert.assertNull(message, actual);
+        failed++;
+        continue;
+      }
+      Assert.assertNotNull(message, actual);
+      solved++;
+
+      Map<Variable, Variable> renaming = new HashMap<>();
+      Map<Variable, Variable> inverse = new HashMap<>();
+      assertEqualUpToRenaming(expected.resolve(lhs), actual.resolve(lhs), renaming, inverse);
+      Assert.assertEquals(message, actual.resolve(lhs), actual.resolve(rhs));
+      for (Variable variable : generator.variables()) {
+        assertEqualUpToRenaming(
+            expected.resolve(variable), actual.resolve(variable), renaming, inverse);
+      }
+    }
+    // Make sure that both outcomes were exercised.
+    Assert.assertTrue(solved > 1000);
+    Assert.assertTrue(failed > 100);
+  }
+}
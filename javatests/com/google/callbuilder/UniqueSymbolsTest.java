@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class UniqueSymbolsTest {
+  @Test
+  public void firstSymbolHasIndexZero() {
+    UniqueSymbols symbols = new UniqueSymbols.Builder().addUserDefined("foo").build();
+    Assert.assertEquals("_gensym_0", symbols.get(""));
+    Assert.assertEquals("foo_gensym_0", symbols.get("foo"));
+  }
+
+  @Test
+  public void repeatedRequestsReturnDifferentSymbols() {
+    UniqueSymbols symbols = new UniqueSymbols.Builder().build();
+    Assert.assertEquals("x_gensym_0", symbols.get("x"));
+    Assert.assertEquals("x_gensym_1", symbols.get("x"));
+    Assert.assertEquals("y_gensym_0", symbols.get("y"));
+    Assert.assertEquals("x_gensym_2", symbols.get("x"));
+  }
+
+  @Test
+  public void skipsUserDefinedSymbols() {
+    UniqueSymbols symbols = new UniqueSymbols.Builder()
+        .addUserDefined("_gensym_0")
+        .addUserDefined("_gensym_1")
+        .addUserDefined("_gensym_3")
+        .build();
+    Assert.assertEquals("_gensym_2", symbols.get(""));
+    Assert.assertEquals("_gensym_4", symbols.get(""));
+  }
+
+  @Test
+  public void manyCollisionsAreEachTriedOnce() {
+    int count = 100000;
+    UniqueSymbols.Builder builder = new UniqueSymbols.Builder();
+    for (int i = 0; i < count; i++) {
+      builder.addUserDefined("_gensym_" + i);
+    }
+    UniqueSymbols symbols = builder.build();
+    Set<String> generated = new HashSet<>();
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals("_gensym_" + (count + i), symbols.get(""));
+      generated.add(symbols.get("a"));
+    }
+    Assert.assertEquals(count, generated.size());
+  }
+}
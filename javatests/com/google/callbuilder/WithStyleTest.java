@@ -13,7 +13,16 @@
  */
 package com.google.callbuilder;
 
+import com.google.callbuilder.benchmark.CorpusCompiler;
 import com.google.callbuilder.style.ArrayListAdding;
+import com.google.callbuilder.style.ChunkedCharSequenceAppending;
+import com.google.callbuilder.style.ChunkedStringAppending;
+import com.google.callbuilder.style.CompactListAdding;
+import com.google.callbuilder.style.CompactMapPutting;
+import com.google.callbuilder.style.DirectBufferPutting;
+import com.google.callbuilder.style.DoubleArrayAdding;
+import com.google.callbuilder.style.IntArrayAdding;
+import com.google.callbuilder.style.LongArrayAdding;
 import com.google.callbuilder.style.StringAppending;
 
 import org.junit.Assert;
@@ -21,8 +30,26 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
 
 @RunWith(JUnit4.class)
 public class WithStyleTest {
@@ -52,6 +79,83 @@ public class WithStyleTest {
     }
   }
 
+  static class Document {
+    final ArrayList<String> lines;
+    final String title;
+
+    @CallBuilder(freezable = true)
+    Document(
+        @BuilderField(style = ArrayListAdding.class) ArrayList<String> lines,
+        @BuilderField(style = StringAppending.class) String title) {
+      this.lines = lines;
+      this.title = title;
+    }
+  }
+
+  static class Lines {
+    @CallBuilder(className = "ReusableLinesBuilder", reusable = true, async = true)
+    static ArrayList<String> lines(
+        @BuilderField(style = ArrayListAdding.class) ArrayList<String> lines) {
+      return lines;
+    }
+  }
+
+  static class Tagged {
+    final List<String> tags;
+
+    @CallBuilder
+    Tagged(@BuilderField(style = CompactListAdding.class) List<String> tags) {
+      this.tags = tags;
+    }
+  }
+
+  static class Series {
+    final int[] counts;
+    final long[] ids;
+    final double[] values;
+
+    @CallBuilder
+    Series(
+        @BuilderField(style = IntArrayAdding.class) int[] counts,
+        @BuilderField(style = LongArrayAdding.class) long[] ids,
+        @BuilderField(style = DoubleArrayAdding.class) double[] values) {
+      this.counts = counts;
+      this.ids = ids;
+      this.values = values;
+    }
+  }
+
+  static class Payload {
+    final String text;
+    final CharSequence view;
+
+    @CallBuilder
+    Payload(
+        @BuilderField(style = ChunkedStringAppending.class) String text,
+        @BuilderField(style = ChunkedCharSequenceAppending.class) CharSequence view) {
+      this.text = text;
+      this.view = view;
+    }
+  }
+
+  static class Message {
+    final ByteBuffer payload;
+
+    @CallBuilder
+    Message(@BuilderField(style = DirectBufferPutting.class) ByteBuffer payload) {
+      this.payload = payload;
+    }
+  }
+
+  static class Attributes {
+    final Map<String, Integer> values;
+
+    @CallBuilder
+    Attributes(@BuilderField(style = CompactMapPutting.class) Map<String, Integer> values) {
+      this.values = values;
+    }
+  }
+
   @Test
   public void immutableListAddingFieldStyle() {
     TwoArrayLists lists = new TwoArrayListsBuilder()
@@ -94,4 +198,567 @@ public class WithStyleTest {
     Assert.assertEquals("Doe, John", hasBoth.name);
     Assert.assertEquals("1600 Amphitheatre Pkwy\nMountain View\n", hasBoth.address);
   }
+
+  @Test
+  public void styledFieldIsSetByModifiers() {
+    HasStringsBuilder builder = new HasStringsBuilder();
+    Assert.assertFalse(builder.isAddressSet());
+    builder.appendToAddress("");
+    Assert.assertTrue(builder.isAddressSet());
+    Assert.assertFalse(builder.isNameSet());
+  }
+
+  @Test
+  public void releasedBuilderStartsStyledFieldsAgain() {
+    ReusableLinesBuilder builder = ReusableLinesBuilder.acquire();
+    ArrayList<String> first = builder.addToLines("one").build();
+    ReusableLinesBuilder.release(builder);
+
+    ReusableLinesBuilder again = ReusableLinesBuilder.acquire();
+    Assert.assertSame(builder, again);
+    Assert.assertFalse(again.isLinesSet());
+    ArrayList<String> second = again.addToLines("two").build();
+    ReusableLinesBuilder.release(again);
+    Assert.assertEquals(Arrays.asList("one"), first);
+    Assert.assertEquals(Arrays.asList("two"), second);
+  }
+
+  @Test
+  public void builderCanBeReleasedAsSoonAsBuildAsyncReturns() throws Exception {
+    final List<Runnable> tasks = new ArrayList<>();
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    };
+    ReusableLinesBuilder builder = ReusableLinesBuilder.acquire();
+    Future<ArrayList<String>> lines = builder.addToLines("one").buildAsync(executor);
+    ReusableLinesBuilder.release(builder);
+    ReusableLinesBuilder.acquire().addToLines("two");
+
+    tasks.get(0).run();
+    Assert.assertEquals(Arrays.asList("one"), lines.get());
+    ReusableLinesBuilder.release(builder);
+  }
+
+  @Test
+  public void templateCopiesStyledFields() {
+    DocumentBuilder builder = new DocumentBuilder()
+        .addToLines("header")
+        .appendToTitle("Report");
+    DocumentBuilder.Template template = builder.freeze();
+    builder.addToLines("not in the template");
+
+    Document first = template.newBuilder().addToLines("first").appendToTitle(" 1").build();
+    Document second = template.newBuilder().addToLines("second").build();
+    Assert.assertEquals(Arrays.asList("header", "first"), first.lines);
+    Assert.assertEquals("Report 1", first.title);
+    Assert.assertEquals(Arrays.asList("header", "second"), second.lines);
+    Assert.assertEquals("Report", second.title);
+  }
+
+  @Test
+  public void freezableBuilderNeedsCopyableStyles() throws IOException {
+    JavaFileObject source = new SimpleJavaFileObject(
+        URI.create("string:///test/NoCopy.java"), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return "package test;\n"
+            + "public class NoCopy {\n"
+            + "  public static StringBuilder start() { return new StringBuilder(); }\n"
+            + "  public static String finish(StringBuilder from) { return from.toString(); }\n"
+            + "  @com.google.callbuilder.CallBuilder(freezable = true)\n"
+            + "  static String echo(\n"
+            + "      @com.google.callbuilder.BuilderField(style = NoCopy.class) String text) {\n"
+            + "    return text;\n"
+            + "  }\n"
+            + "}\n";
+      }
+    };
+    try {
+      CorpusCompiler.compile(
+          Collections.singletonList(source), Collections.<String>emptyList());
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+      Assert.assertTrue(expected.getMessage(), expected.getMessage().contains(
+          "style class test.NoCopy has no @BuilderStyle.Copy method, which freezable builders"
+              + " need"));
+    }
+  }
+
+  /**
+   * A style with a modifier named {@code copy} that takes and returns the accumulator, but is not
+   * annotated with {@link BuilderStyle.Copy}, so it is not the copy hook. Its copy hook, if any, is
+   * the method after it.
+   */
+  private static final String COPY_MODIFIER_STYLE = ""
+      + "package test;\n"
+      + "public class Repeating {\n"
+      + "  public static StringBuilder start() { return new StringBuilder(); }\n"
+      + "  public static String finish(StringBuilder from) { return from.toString(); }\n"
+      + "  public static StringBuilder copy(StringBuilder to) {\n"
+      + "    return to.append(to.toString());\n"
+      + "  }\n"
+      + "  %s\n"
+      + "  public static StringBuilder duplicate(StringBuilder from) {\n"
+      + "    return new StringBuilder(from);\n"
+      + "  }\n"
+      + "  @com.google.callbuilder.CallBuilder(freezable = %s)\n"
+      + "  static String echo(\n"
+      + "      @com.google.callbuilder.BuilderField(style = Repeating.class) String text) {\n"
+      + "    return text;\n"
+      + "  }\n"
+      + "}\n";
+
+  private static JavaFileObject repeatingSource(
+      final boolean copyHook, final boolean freezable) {
+    return new SimpleJavaFileObject(
+        URI.create("string:///test/Repeating.java"), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return String.format(COPY_MODIFIER_STYLE,
+            copyHook ? "@com.google.callbuilder.BuilderStyle.Copy" : "", freezable);
+      }
+    };
+  }
+
+  @Test
+  public void copyWithoutAnnotationIsAModifier() throws IOException {
+    String builder = CorpusCompiler.compile(
+        Collections.singletonList(repeatingSource(true, true)), Collections.<String>emptyList())
+        .generatedSources().get("test/EchoBuilder.java");
+    Assert.assertTrue(builder, builder.contains("copyText()"));
+    Assert.assertTrue(builder, builder.contains("test.Repeating.duplicate(builder.text)"));
+    Assert.assertTrue(builder, builder.contains("test.Repeating.copy(this.text)"));
+  }
+
+  @Test
+  public void copyWithoutAnnotationIsNotTheCopyHook() throws IOException {
+    try {
+      CorpusCompiler.compile(Collections.singletonList(repeatingSource(false, true)),
+          Collections.<String>emptyList());
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+      Assert.assertTrue(expected.getMessage(), expected.getMessage().contains(
+          "style class test.Repeating has no @BuilderStyle.Copy method"));
+    }
+  }
+
+  private static void assertImmutable(List<String> list) {
+    try {
+      list.add("more");
+      Assert.fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+  }
+
+  @Test
+  public void compactListOfEachShape() {
+    Assert.assertSame(Collections.emptyList(), new TaggedBuilder().build().tags);
+
+    List<String> one = new TaggedBuilder().addToTags(null).build().tags;
+    Assert.assertEquals(Collections.singletonList(null), one);
+    Assert.assertEquals(Collections.singletonList(null).getClass(), one.getClass());
+
+    List<List<String>> shapes = Arrays.asList(
+        Arrays.asList("a", "b"),
+        Arrays.asList(null, "b"),
+        Arrays.asList("a", null),
+        Arrays.asList((String) null, null),
+        Arrays.asList("a", "b", "c"),
+        Arrays.asList(null, "b", null),
+        Arrays.asList((String) null, null, null));
+    for (List<String> expected : shapes) {
+      TaggedBuilder builder = new TaggedBuilder();
+      for (String tag : expected) {
+        builder.addToTags(tag);
+      }
+      List<String> tags = builder.build().tags;
+      Assert.assertEquals(expected, tags);
+      Assert.assertEquals(tags, expected);
+      Assert.assertEquals(expected.hashCode(), tags.hashCode());
+      Assert.assertEquals(expected.indexOf(null), tags.indexOf(null));
+      Assert.assertArrayEquals(expected.toArray(), tags.toArray());
+      Assert.assertTrue(tags instanceof RandomAccess);
+      try {
+        tags.get(expected.size());
+        Assert.fail();
+      } catch (IndexOutOfBoundsException expectedException) {
+      }
+      assertImmutable(tags);
+    }
+  }
+
+  @Test
+  public void compactListOfThreeOrMoreKeepsItsArray() {
+    List<String> tags =
+        new TaggedBuilder().addToTags("a").addToTags("b").addToTags("c").build().tags;
+    Object[] array = tags.toArray();
+    array[0] = "changed";
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), tags);
+  }
+
+  @Test
+  public void compactListAddAll() {
+    List<String> tags = new TaggedBuilder()
+        .addToTags("a")
+        .addAllToTags(Arrays.asList("b", null, "d"))
+        .addAllToTags((Iterable<String>) Arrays.asList("e", "f"))
+        .build()
+        .tags;
+    Assert.assertEquals(Arrays.asList("a", "b", null, "d", "e", "f"), tags);
+    assertImmutable(tags);
+  }
+
+  @Test
+  public void primitiveArraysAreExactlySized() {
+    SeriesBuilder builder = new SeriesBuilder();
+    for (int i = 0; i < 20; i++) {
+      builder.addToCounts(i).addToIds(i * 1000000000000L).addToValues(i / 4.0);
+    }
+    Series series = builder.build();
+    Assert.assertEquals(20, series.counts.length);
+    Assert.assertEquals(19, series.counts[19]);
+    Assert.assertEquals(20, series.ids.length);
+    Assert.assertEquals(19000000000000L, series.ids[19]);
+    Assert.assertEquals(20, series.values.length);
+    Assert.assertEquals(4.75, series.values[19], 0.0);
+  }
+
+  @Test
+  public void primitiveArraysAddAll() {
+    Series series = new SeriesBuilder()
+        .addToCounts(1)
+        .addAllToCounts(new int[] {2, 3})
+        .addAllToCounts(IntStream.range(4, 6))
+        .addAllToIds(new long[] {7L})
+        .addAllToIds(LongStream.of(8L, 9L))
+        .addAllToValues(DoubleStream.of(0.5))
+        .addAllToValues(new double[] {1.5, 2.5})
+        .build();
+    Assert.assertArrayEquals(new int[] {1, 2, 3, 4, 5}, series.counts);
+    Assert.assertArrayEquals(new long[] {7L, 8L, 9L}, series.ids);
+    Assert.assertArrayEquals(new double[] {0.5, 1.5, 2.5}, series.values, 0.0);
+  }
+
+  @Test
+  public void primitiveArraysStartEmpty() {
+    Series empty = new SeriesBuilder().addAllToCounts(new int[0]).build();
+    Assert.assertEquals(0, empty.counts.length);
+    Assert.assertEquals(0, empty.ids.length);
+    Assert.assertEquals(0, empty.values.length);
+    Assert.assertSame(empty.counts, new SeriesBuilder().build().counts);
+    Assert.assertSame(empty.ids, new SeriesBuilder().build().ids);
+    Assert.assertSame(empty.values, new SeriesBuilder().build().values);
+  }
+
+  @Test
+  public void chunkedAppendingOfEachKind() {
+    StringBuilder view = new StringBuilder("view");
+    Payload payload = new PayloadBuilder()
+        .appendToText("abc")
+        .appendToText('-')
+        .appendToText(Integer.MIN_VALUE)
+        .appendToText(' ')
+        .appendToText(0)
+        .appendToText(' ')
+        .appendToText(Integer.MAX_VALUE)
+        .appendToText("[substring]", 1, 4)
+        .appendToText((CharSequence) null)
+        .appendToView(view, 0, 2)
+        .appendToView(new StringBuilder("ew"))
+        .build();
+    Assert.assertEquals("abc--2147483648 0 2147483647subnull", payload.text);
+    Assert.assertEquals("view", payload.view.toString());
+  }
+
+  @Test
+  public void chunkedAppendingOfLargeText() {
+    PayloadBuilder builder = new PayloadBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; expected.length() < 100000; i++) {
+      String line = " of a long payload\n";
+      builder.appendToText(-i).appendToText(line).appendToView(-i).appendToView(line);
+      expected.append(-i).append(line);
+    }
+    char[] block = new char[20000];
+    Arrays.fill(block, 'x');
+    String blockText = new String(block);
+    builder.appendToText(blockText).appendToView(blockText);
+    expected.append(blockText);
+
+    Payload payload = builder.build();
+    Assert.assertEquals(expected.toString(), payload.text);
+    Assert.assertEquals(expected.length(), payload.view.length());
+    for (int i = 0; i < expected.length(); i += 997) {
+      Assert.assertEquals(expected.charAt(i), payload.view.charAt(i));
+    }
+    Assert.assertEquals(expected.substring(8000, 25000), payload.view.subSequence(8000, 25000));
+    Assert.assertEquals(expected.toString(), payload.view.toString());
+  }
+
+  @Test
+  public void chunkedViewIsUnchangedByLaterAppends() {
+    PayloadBuilder builder = new PayloadBuilder().appendToView("first");
+    CharSequence first = builder.build().view;
+    char[] block = new char[10000];
+    CharSequence second = builder.appendToView(new String(block)).build().view;
+    Assert.assertEquals("first", first.toString());
+    Assert.assertEquals(10005, second.length());
+  }
+
+  @Test
+  public void chunkedAppendingAtTheChunkSize() {
+    for (int length : new int[] {8191, 8192, 8193, 16384}) {
+      char[] block = new char[length];
+      Arrays.fill(block, 'a');
+      String blockText = new String(block);
+      Payload payload = new PayloadBuilder()
+          .appendToText(blockText)
+          .appendToText('b')
+          .appendToView(blockText)
+          .appendToView('b')
+          .build();
+      Assert.assertEquals(blockText + "b", payload.text);
+      Assert.assertEquals(length + 1, payload.view.length());
+      Assert.assertEquals('a', payload.view.charAt(length - 1));
+      Assert.assertEquals('b', payload.view.charAt(length));
+      Assert.assertEquals("ab", payload.view.subSequence(length - 1, length + 1).toString());
+      Assert.assertEquals(blockText + "b", payload.view.toString());
+    }
+  }
+
+  @Test
+  public void chunkedAppendingOneCharAtATimeFillsAChunk() {
+    PayloadBuilder builder = new PayloadBuilder();
+    for (int i = 0; i < 8192; i++) {
+      char c = (char) ('a' + i % 26);
+      builder.appendToText(c).appendToView(c);
+    }
+    Payload payload = builder.appendToText("yz").appendToView("yz").build();
+    Assert.assertEquals(8194, payload.text.length());
+    Assert.assertEquals(payload.text, payload.view.toString());
+    Assert.assertEquals((char) ('a' + 8191 % 26), payload.view.charAt(8191));
+    Assert.assertEquals('y', payload.view.charAt(8192));
+    Assert.assertEquals("z", payload.view.subSequence(8193, 8194).toString());
+  }
+
+  @Test
+  public void chunkedCopyKeepsChunksWithinTheChunkSize() throws ReflectiveOperationException {
+    char[] block = new char[10000];
+    Arrays.fill(block, 'x');
+    ChunkedStringAppending.Chunks original = ChunkedStringAppending.appendTo(
+        ChunkedStringAppending.start(), new String(block));
+    ChunkedStringAppending.Chunks copy = ChunkedStringAppending.appendTo(
+        ChunkedStringAppending.copy(original), new String(block));
+    Assert.assertEquals(20000, ChunkedStringAppending.finish(copy).length());
+    Assert.assertEquals(10000, ChunkedStringAppending.finish(original).length());
+
+    Field chunks = ChunkedStringAppending.Chunks.class.getDeclaredField("chunks");
+    chunks.setAccessible(true);
+    for (Object chunk : (List<?>) chunks.get(copy)) {
+      Assert.assertTrue(((StringBuilder) chunk).capacity() <= 8192);
+    }
+  }
+
+  private static void assertDirectAndReadOnly(ByteBuffer buffer) {
+    Assert.assertTrue(buffer.isDirect());
+    Assert.assertTrue(buffer.isReadOnly());
+    try {
+      ByteBuffer copy = buffer.duplicate();
+      copy.clear();
+      copy.put((byte) 0);
+      Assert.fail();
+    } catch (ReadOnlyBufferException expected) {
+    }
+  }
+
+  @Test
+  public void directBufferOfPrimitives() {
+    ByteBuffer source = ByteBuffer.wrap(new byte[] {9, 8, 7});
+    source.position(1);
+    ByteBuffer payload = new MessageBuilder()
+        .putToPayload((byte) 1)
+        .putCharToPayload('c')
+        .putShortToPayload((short) 2)
+        .putIntToPayload(3)
+        .putLongToPayload(4L)
+        .putFloatToPayload(5.5f)
+        .putDoubleToPayload(6.5)
+        .putToPayload(new byte[] {1, 2, 3, 4}, 1, 2)
+        .putToPayload(source)
+        .putToPayload(new byte[0])
+        .build()
+        .payload;
+    assertDirectAndReadOnly(payload);
+    Assert.assertEquals(0, payload.position());
+    Assert.assertEquals(1 + 2 + 2 + 4 + 8 + 4 + 8 + 2 + 2, payload.remaining());
+    Assert.assertEquals(1, payload.get());
+    Assert.assertEquals('c', payload.getChar());
+    Assert.assertEquals(2, payload.getShort());
+    Assert.assertEquals(3, payload.getInt());
+    Assert.assertEquals(4L, payload.getLong());
+    Assert.assertEquals(5.5f, payload.getFloat(), 0.0f);
+    Assert.assertEquals(6.5, payload.getDouble(), 0.0);
+    Assert.assertEquals(2, payload.get());
+    Assert.assertEquals(3, payload.get());
+    Assert.assertEquals(8, payload.get());
+    Assert.assertEquals(7, payload.get());
+    Assert.assertEquals(1, source.position());
+  }
+
+  @Test
+  public void directBufferGrowsInPages() {
+    MessageBuilder builder = new MessageBuilder();
+    ByteBuffer empty = builder.build().payload;
+    assertDirectAndReadOnly(empty);
+    Assert.assertEquals(0, empty.remaining());
+
+    byte[] block = new byte[1000];
+    for (int i = 0; i < 10; i++) {
+      Arrays.fill(block, (byte) i);
+      builder.putToPayload(block);
+    }
+    ByteBuffer payload = builder.build().payload;
+    Assert.assertEquals(10000, payload.remaining());
+    Assert.assertEquals(0, payload.capacity() % 4096);
+    Assert.assertEquals(9, payload.get(9999));
+    builder.putIntToPayload(-1);
+    Assert.assertEquals(10000, payload.remaining());
+    Assert.assertEquals(10004, builder.build().payload.remaining());
+  }
+
+  @Test
+  public void directBufferReservedUpFront() {
+    MessageBuilder builder = new MessageBuilder().reserveToPayload(10000);
+    for (int i = 0; i < 2500; i++) {
+      builder.putIntToPayload(i);
+    }
+    ByteBuffer payload = builder.build().payload;
+    Assert.assertEquals(10000, payload.remaining());
+    Assert.assertEquals(12288, payload.capacity());
+    Assert.assertEquals(2499, payload.getInt(9996));
+  }
+
+  @Test
+  public void directBufferRoundsToWholePages() {
+    Assert.assertEquals(4096,
+        new MessageBuilder().putToPayload((byte) 1).build().payload.capacity());
+    Assert.assertEquals(4096,
+        new MessageBuilder().reserveToPayload(4096).build().payload.capacity());
+    Assert.assertEquals(8192,
+        new MessageBuilder().reserveToPayload(4097).build().payload.capacity());
+
+    // A full buffer grows to twice its size, not to the next page that fits one more byte.
+    MessageBuilder builder = new MessageBuilder().putToPayload(new byte[12288]);
+    Assert.assertEquals(12288, builder.build().payload.capacity());
+    ByteBuffer payload = builder.putToPayload((byte) 7).build().payload;
+    Assert.assertEquals(24576, payload.capacity());
+    Assert.assertEquals(12289, payload.remaining());
+    Assert.assertEquals(7, payload.get(12288));
+    assertDirectAndReadOnly(payload);
+  }
+
+  @Test
+  public void directBufferResultIsReadOnlyView() {
+    MessageBuilder builder = new MessageBuilder().putIntToPayload(42);
+    ByteBuffer first = builder.build().payload;
+    ByteBuffer second = builder.build().payload;
+    assertDirectAndReadOnly(first);
+    first.getInt();
+    Assert.assertEquals(0, first.remaining());
+    Assert.assertEquals(4, second.remaining());
+    Assert.assertEquals(42, second.getInt(0));
+  }
+
+  @Test
+  public void compactMapOfEachSize() {
+    Assert.assertSame(Collections.emptyMap(), new AttributesBuilder().build().values);
+
+    Map<String, Integer> one = new AttributesBuilder().putToValues("a", 1).build().values;
+    Assert.assertEquals(Collections.singletonMap("a", 1), one);
+    Assert.assertEquals(Collections.singletonMap("a", 1).getClass(), one.getClass());
+
+    for (int size = 2; size <= 40; size++) {
+      AttributesBuilder builder = new AttributesBuilder().putToValues(null, null);
+      Map<String, Integer> expected = new HashMap<>();
+      expected.put(null, null);
+      for (int i = 2; i <= size; i++) {
+        builder.putToValues("k" + i, i);
+        expected.put("k" + i, i);
+      }
+      Map<String, Integer> values = builder.build().values;
+      Assert.assertEquals(expected, values);
+      Assert.assertEquals(values, expected);
+      Assert.assertEquals(expected.hashCode(), values.hashCode());
+      for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+        Assert.assertTrue(values.containsKey(entry.getKey()));
+        Assert.assertEquals(entry.getValue(), values.get(entry.getKey()));
+      }
+      Assert.assertFalse(values.containsKey("missing"));
+      Assert.assertNull(values.get("missing"));
+      try {
+        values.put("k", 0);
+        Assert.fail();
+      } catch (UnsupportedOperationException expectedException) {
+      }
+      try {
+        values.entrySet().iterator().next().setValue(0);
+        Assert.fail();
+      } catch (UnsupportedOperationException expectedException) {
+      }
+    }
+  }
+
+  @Test
+  public void compactMapIndexesMoreThanEightEntries() throws ReflectiveOperationException {
+    // These keys all have the same hash code, so they share one probe sequence in the index, and
+    // so does "BBBB", which is never put.
+    List<String> colliding = Arrays.asList("AaAa", "AaBB", "BBAa");
+    for (int size = 8; size <= 10; size++) {
+      AttributesBuilder builder = new AttributesBuilder().putToValues(null, 0);
+      Map<String, Integer> expected = new HashMap<>();
+      expected.put(null, 0);
+      for (int i = 1; i < size; i++) {
+        String key = (i <= colliding.size()) ? colliding.get(i - 1) : "k" + i;
+        builder.putToValues(key, i);
+        expected.put(key, i);
+      }
+      Map<String, Integer> values = builder.build().values;
+      Assert.assertEquals(expected, values);
+      for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+        Assert.assertEquals(entry.getValue(), values.get(entry.getKey()));
+      }
+      Assert.assertFalse(values.containsKey("BBBB"));
+
+      Field indexField = values.getClass().getDeclaredField("index");
+      indexField.setAccessible(true);
+      int[] index = (int[]) indexField.get(values);
+      if (size <= 8) {
+        Assert.assertNull(index);
+      } else {
+        Assert.assertEquals(1, Integer.bitCount(index.length));
+        Assert.assertTrue(4 * size < 3 * index.length);
+      }
+    }
+  }
+
+  @Test
+  public void compactMapPresizeAndPutAll() {
+    Map<String, Integer> more = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      more.put("m" + i, i);
+    }
+    Map<String, Integer> values = new AttributesBuilder()
+        .putToValues("a", 1)
+        .presizeToValues(101)
+        .putAllToValues(more)
+        .putToValues("a", 2)
+        .build()
+        .values;
+    Assert.assertEquals(101, values.size());
+    Assert.assertEquals(Integer.valueOf(2), values.get("a"));
+    Assert.assertEquals(Integer.valueOf(99), values.get("m99"));
+  }
 }
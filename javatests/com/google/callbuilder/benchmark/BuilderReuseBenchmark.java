@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.benchmark;
+
+import com.google.callbuilder.BuilderField;
+import com.google.callbuilder.CallBuilder;
+import com.google.callbuilder.style.ArrayListAdding;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building values through a new builder for each value with building them through a
+ * builder acquired from the thread's pool. Run with {@code -prof gc} to compare the allocation
+ * rate, which is the point of pooling; {@code gc.alloc.rate.norm} is the number of bytes allocated
+ * per value. Add {@code -jvmArgs -XX:-DoEscapeAnalysis} to see the allocation of builders that
+ * escape analysis cannot remove.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BuilderReuseBenchmark {
+  static final class Measurement {
+    final String name;
+    final long timestamp;
+    final double value;
+    final boolean valid;
+
+    @CallBuilder(className = "MeasurementBuilder", reusable = true)
+    Measurement(String name, long timestamp, double value, boolean valid) {
+      this.name = name;
+      this.timestamp = timestamp;
+      this.value = value;
+      this.valid = valid;
+    }
+  }
+
+  static final class Tags {
+    @CallBuilder(className = "TagCounter", reusable = true)
+    static int count(@BuilderField(style = ArrayListAdding.class) ArrayList<String> tags) {
+      return tags.size();
+    }
+  }
+
+  private long next;
+
+  @Benchmark
+  public Measurement newBuilder() {
+    next++;
+    return new MeasurementBuilder()
+        .setName("latency")
+        .setTimestamp(next)
+        .setValue(0.5)
+        .setValid(true)
+        .build();
+  }
+
+  @Benchmark
+  public Measurement pooledBuilder() {
+    next++;
+    MeasurementBuilder builder = MeasurementBuilder.acquire();
+    try {
+      return builder
+          .setName("latency")
+          .setTimestamp(next)
+          .setValue(0.5)
+          .setValid(true)
+          .build();
+    } finally {
+      MeasurementBuilder.release(builder);
+    }
+  }
+
+  @Benchmark
+  public int newStyledBuilder() {
+    return new TagCounter()
+        .addToTags("a")
+        .addToTags("b")
+        .build();
+  }
+
+  @Benchmark
+  public int pooledStyledBuilder() {
+    TagCounter builder = TagCounter.acquire();
+    try {
+      return builder
+          .addToTags("a")
+          .addToTags("b")
+          .build();
+    } finally {
+      TagCounter.release(builder);
+    }
+  }
+}
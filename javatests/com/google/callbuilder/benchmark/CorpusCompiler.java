@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.benchmark;
+
+import com.google.callbuilder.CallBuilderProcessor;
+import com.google.callbuilder.ProcessorStatistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles sources in-process with {@link CallBuilderProcessor}, using the class path of the
+ * current JVM so the annotations and styles are available to the compiled code.
+ */
+public final class CorpusCompiler {
+  private CorpusCompiler() {}
+
+  /**
+   * The outcome of a successful compilation.
+   */
+  public static final class Result {
+    private final long wallNanos;
+    private final long allocatedBytes;
+    private final long peakHeapBytes;
+    private final Map<String, String> generatedSources;
+    private final ProcessorStatistics statistics;
+
+    Result(long wallNanos, long allocatedBytes, long peakHeapBytes,
+        Map<String, String> generatedSources, ProcessorStatistics statistics) {
+      this.wallNanos = wallNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.peakHeapBytes = peakHeapBytes;
+      this.generatedSources = Collections.unmodifiableMap(generatedSources);
+      this.statistics = statistics;
+    }
+
+    /**
+     * The time taken by the whole compilation, including parsing, processing and code generation.
+     */
+    public long wallNanos() {
+      return wallNanos;
+    }
+
+    /**
+     * The number of bytes allocated by the compiling thread during the compilation, or -1 if the
+     * JVM cannot measure it. Allocations by the threads that render builders in parallel are not
+     * included.
+     */
+    public long allocatedBytes() {
+      return allocatedBytes;
+    }
+
+    /**
+     * The highest heap usage reached during the compilation, summed over the heap memory pools, or
+     * -1 if the JVM does not report it. This includes whatever was live before the compilation
+     * started.
+     */
+    public long peakHeapBytes() {
+      return peakHeapBytes;
+    }
+
+    /**
+     * The content of each generated source file, keyed by its path relative to the source output
+     * directory.
+     */
+    public Map<String, String> generatedSources() {
+      return generatedSources;
+    }
+
+    /**
+     * The statistics of the processor instance that ran during the compilation.
+     */
+    public ProcessorStatistics statistics() {
+      return statistics;
+    }
+  }
+
+  /**
+   * Compiles {@code sources} with the given javac options, such as {@code -A} options for the
+   * processor.
+   *
+   * @throws IllegalStateException if compilation fails, with the compiler's errors in its message
+   */
+  public static Result compile(List<JavaFileObject> sources, List<String> options)
+      throws IOException {
+    Path outputDir = Files.createTempDirectory("callbuilder-corpus");
+    try {
+      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      try (StandardJavaFileManager fileManager =
+          compiler.getStandardFileManager(null, null, null)) {
+        List<File> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+          classPath.add(new File(entry));
+        }
+        fileManager.setLocation(StandardLocation.CLASS_PATH, classPath);
+        fileManager.setLocation(
+            StandardLocation.CLASS_OUTPUT, Collections.singletonList(outputDir.toFile()));
+        fileManager.setLocation(
+            StandardLocation.SOURCE_OUTPUT, Collections.singletonList(outputDir.toFile()));
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaCompiler.CompilationTask task =
+            compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+        CallBuilderProcessor processor = new CallBuilderProcessor();
+        task.setProcessors(Collections.singletonList(processor));
+        resetPeakHeap();
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        boolean success = task.call();
+        long wallNanos = System.nanoTime() - start;
+        long endBytes = allocatedBytes();
+        long peakHeapBytes = peakHeap();
+        if (!success) {
+          StringBuilder message = new StringBuilder("compilation of the corpus failed");
+          for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+              message.append('\n').append(diagnostic.getMessage(null));
+            }
+          }
+          throw new IllegalStateException(message.toString());
+        }
+        return new Result(wallNanos,
+            (startBytes < 0 || endBytes < 0) ? -1 : (endBytes - startBytes),
+            peakHeapBytes,
+            readSources(outputDir),
+            processor.statistics());
+      }
+    } finally {
+      deleteRecursively(outputDir);
+    }
+  }
+
+  /**
+   * Returns the bytes allocated so far by the current thread, or -1 if the JVM cannot tell.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean) threads;
+      if (hotspotThreads.isThreadAllocatedMemorySupported()
+          && hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+        return hotspotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  private static void resetPeakHeap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  private static long peakHeap() {
+    long peak = 0;
+    boolean reported = false;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+        peak += pool.getPeakUsage().getUsed();
+        reported = true;
+      }
+    }
+    return reported ? peak : -1;
+  }
+
+  private static Map<String, String> readSources(final Path root) throws IOException {
+    final Map<String, String> sources = new TreeMap<>();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (file.toString().endsWith(".java")) {
+          sources.put(root.relativize(file).toString(),
+              new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return sources;
+  }
+
+  private static void deleteRecursively(Path root) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.benchmark;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * Compiles a {@link SyntheticCorpus} with several values of {@code -Acallbuilder.parallelism} and
+ * prints the best compile time for each, after checking that every setting generates the same
+ * sources as sequential processing.
+ *
+ * <p>Usage: {@code ParallelismBenchmark [classes] [buildersPerClass] [parallelism...]}
+ */
+public final class ParallelismBenchmark {
+  private ParallelismBenchmark() {}
+
+  private static final int WARMUP_RUNS = 3;
+  private static final int MEASURED_RUNS = 5;
+
+  public static void main(String[] args) throws IOException {
+    int classes = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+    int buildersPerClass = (args.length > 1) ? Integer.parseInt(args[1]) : 15;
+    int[] parallelisms = {1, 2, 4, Runtime.getRuntime().availableProcessors()};
+    if (args.length > 2) {
+      parallelisms = new int[args.length - 2];
+      for (int i = 2; i < args.length; i++) {
+        parallelisms[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+
+    List<JavaFileObject> corpus = SyntheticCorpus.generate(classes, buildersPerClass);
+    System.out.printf("corpus: %d classes, %d builders%n", classes, classes * buildersPerClass);
+
+    CorpusCompiler.Result sequential = CorpusCompiler.compile(corpus, options(1));
+    for (int parallelism : parallelisms) {
+      long best = Long.MAX_VALUE;
+      for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+        CorpusCompiler.Result result = CorpusCompiler.compile(corpus, options(parallelism));
+        if (!result.generatedSources().equals(sequential.generatedSources())) {
+          throw new AssertionError("parallelism " + parallelism + " changed the generated sources");
+        }
+        if (run >= WARMUP_RUNS) {
+          best = Math.min(best, result.wallNanos());
+        }
+      }
+      System.out.printf("parallelism %2d: %6d ms%n",
+          parallelism, TimeUnit.NANOSECONDS.toMillis(best));
+    }
+  }
+
+  private static List<String> options(int parallelism) {
+    return (parallelism == 1)
+        ? Collections.<String>emptyList()
+        : Arrays.asList("-Acallbuilder.parallelism=" + parallelism);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * Compiles {@link SyntheticCorpus synthetic corpora} of increasing size and prints, for each size,
+ * the compile time, the time attributed to the processor, the bytes allocated by the compiling
+ * thread and the peak heap usage. The per-builder and per-field columns should stay flat as the
+ * corpus grows; a column that grows with the corpus size points at work that does not scale, such
+ * as inference problems being solved again for every field.
+ *
+ * <p>Each size is compiled a number of times, and the run with the lowest wall time is reported.
+ *
+ * <p>Usage: {@code ProcessorThroughputBenchmark [buildersPerClass] [plain:generic:styled]
+ * [classes...]}
+ */
+public final class ProcessorThroughputBenchmark {
+  private ProcessorThroughputBenchmark() {}
+
+  private static final int WARMUP_RUNS = 3;
+  private static final int MEASURED_RUNS = 5;
+  private static final double NANOS_PER_MILLI = 1e6;
+  private static final double NANOS_PER_MICRO = 1e3;
+  private static final double BYTES_PER_MIB = 1024 * 1024;
+
+  public static void main(String[] args) throws IOException {
+    int buildersPerClass = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+    SyntheticCorpus.Mix mix =
+        (args.length > 1) ? SyntheticCorpus.Mix.parse(args[1]) : SyntheticCorpus.Mix.EVEN;
+    int[] sizes = {10, 50, 200, 800};
+    if (args.length > 2) {
+      sizes = new int[args.length - 2];
+      for (int i = 2; i < args.length; i++) {
+        sizes[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.printf("%d builders per class, plain:generic:styled = %s%n", buildersPerClass, mix);
+    System.out.printf("%8s %8s %10s %10s %10s %12s %12s %10s%n",
+        "classes", "builders", "wall ms", "proc ms", "proc us/b", "proc us/fld", "alloc MiB",
+        "peak MiB");
+    for (int classes : sizes) {
+      List<JavaFileObject> corpus = SyntheticCorpus.generate(classes, buildersPerClass, mix);
+      CorpusCompiler.Result best = null;
+      for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+        System.gc();
+        CorpusCompiler.Result result =
+            CorpusCompiler.compile(corpus, Collections.<String>emptyList());
+        if (run >= WARMUP_RUNS && (best == null || result.wallNanos() < best.wallNanos())) {
+          best = result;
+        }
+      }
+
+      long builders = best.statistics().elements();
+      long fields = best.statistics().fields();
+      long processorNanos = best.statistics().totalNanos();
+      System.out.printf("%8d %8d %10.1f %10.1f %10.1f %12.1f %12s %10s%n",
+          classes, builders,
+          best.wallNanos() / NANOS_PER_MILLI,
+          processorNanos / NANOS_PER_MILLI,
+          (builders == 0) ? 0.0 : processorNanos / NANOS_PER_MICRO / builders,
+          (fields == 0) ? 0.0 : processorNanos / NANOS_PER_MICRO / fields,
+          mebibytes(best.allocatedBytes()),
+          mebibytes(best.peakHeapBytes()));
+    }
+  }
+
+  private static String mebibytes(long bytes) {
+    return (bytes < 0) ? "n/a" : String.format("%.1f", bytes / BYTES_PER_MIB);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.benchmark;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Generates source files that use {@code @CallBuilder} heavily, for measuring the processor. Each
+ * class has one annotated constructor and a number of annotated methods, which cycle through plain
+ * parameters, generic parameters and parameters with field styles in the proportions given by a
+ * {@link Mix}.
+ */
+public final class SyntheticCorpus {
+  private SyntheticCorpus() {}
+
+  public static final String PACKAGE = "synthetic";
+
+  /**
+   * The kinds of annotated methods in the corpus.
+   */
+  private enum Kind {
+    /** A static method with three parameters of non-generic types. */
+    PLAIN,
+    /** A generic method whose parameters use its own and the class's type parameters. */
+    GENERIC,
+    /** An instance method with two {@code ArrayListAdding} and one {@code StringAppending} field. */
+    STYLED,
+  }
+
+  /**
+   * The relative number of plain, generic and styled methods in each class. Methods follow a fixed
+   * cycle, so a mix of {@code 2:1:1} generates two plain methods, then a generic one, then a styled
+   * one, and repeats.
+   */
+  public static final class Mix {
+    /** One method of each kind in turn. */
+    public static final Mix EVEN = of(1, 1, 1);
+
+    private final int plain;
+    private final int generic;
+    private final int styled;
+    private final Kind[] cycle;
+
+    private Mix(int plain, int generic, int styled) {
+      this.plain = plain;
+      this.generic = generic;
+      this.styled = styled;
+      List<Kind> cycle = new ArrayList<>();
+      cycle.addAll(Collections.nCopies(plain, Kind.PLAIN));
+      cycle.addAll(Collections.nCopies(generic, Kind.GENERIC));
+      cycle.addAll(Collections.nCopies(styled, Kind.STYLED));
+      this.cycle = cycle.toArray(new Kind[cycle.size()]);
+    }
+
+    public static Mix of(int plain, int generic, int styled) {
+      if (plain < 0 || generic < 0 || styled < 0 || plain + generic + styled == 0) {
+        throw new IllegalArgumentException(String.format(
+            "mix must be non-negative and not all zero: %d:%d:%d", plain, generic, styled));
+      }
+      return new Mix(plain, generic, styled);
+    }
+
+    /**
+     * Parses a mix written as {@code plain:generic:styled}, such as {@code 2:1:1}.
+     */
+    public static Mix parse(String mix) {
+      String[] parts = mix.split(":", -1);
+      if (parts.length != 3) {
+        throw new IllegalArgumentException("expected plain:generic:styled but got " + mix);
+      }
+      return of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+          Integer.parseInt(parts[2]));
+    }
+
+    private Kind kindOf(int method) {
+      return cycle[method % cycle.length];
+    }
+
+    @Override
+    public String toString() {
+      return plain + ":" + generic + ":" + styled;
+    }
+  }
+
+  /**
+   * Returns {@code classes} source files, each of which declares {@code buildersPerClass}
+   * annotated constructors and methods, with an {@link Mix#EVEN even} mix of methods.
+   */
+  public static List<JavaFileObject> generate(int classes, int buildersPerClass) {
+    return generate(classes, buildersPerClass, Mix.EVEN);
+  }
+
+  /**
+   * Returns {@code classes} source files, each of which declares {@code buildersPerClass}
+   * annotated constructors and methods, with methods in the proportions given by {@code mix}.
+   */
+  public static List<JavaFileObject> generate(int classes, int buildersPerClass, Mix mix) {
+    List<JavaFileObject> sources = new ArrayList<>();
+    for (int i = 0; i < classes; i++) {
+      sources.add(source("Class" + i, classSource(i, buildersPerClass, mix)));
+    }
+    return sources;
+  }
+
+  private static String classSource(int index, int buildersPerClass, Mix mix) {
+    String className = "Class" + index;
+    StringBuilder source = new StringBuilder()
+        .append("package ").append(PACKAGE).append(";\n")
+        .append("import com.google.callbuilder.BuilderField;\n")
+        .append("import com.google.callbuilder.CallBuilder;\n")
+        .append("import com.google.callbuilder.style.ArrayListAdding;\n")
+        .append("import com.google.callbuilder.style.StringAppending;\n")
+        .append("import java.util.ArrayList;\n")
+        .append("import java.util.List;\n")
+        .append("import java.util.Map;\n")
+        .append("public class ").append(className).append("<T> {\n");
+    if (buildersPerClass > 0) {
+      source.append("  @CallBuilder\n")
+          .append("  ").append(className).append("(String name, int count, T value) {}\n");
+    }
+    for (int j = 1; j < buildersPerClass; j++) {
+      switch (mix.kindOf(j)) {
+        case PLAIN:
+          source.append("  @CallBuilder(className = \"").append(className).append("Plain")
+              .append(j).append("\")\n")
+              .append("  static String plain").append(j)
+              .append("(String first, long second, Map<String, List<Integer>> third) {\n")
+              .append("    return first;\n")
+              .append("  }\n");
+          break;
+        case GENERIC:
+          source.append("  @CallBuilder(className = \"").append(className).append("Generic")
+              .append(j).append("\")\n")
+              .append("  <E extends T> List<T> generic").append(j)
+              .append("(E first, E second, List<E> rest) {\n")
+              .append("    return null;\n")
+              .append("  }\n");
+          break;
+        case STYLED:
+          source.append("  @CallBuilder(className = \"").append(className).append("Styled")
+              .append(j).append("\")\n")
+              .append("  int styled").append(j).append("(\n")
+              .append("      @BuilderField(style = ArrayListAdding.class)\n")
+              .append("      ArrayList<String> names,\n")
+              .append("      @BuilderField(style = ArrayListAdding.class)\n")
+              .append("      ArrayList<T> values,\n")
+              .append("      @BuilderField(style = StringAppending.class)\n")
+              .append("      String text) {\n")
+              .append("    return names.size();\n")
+              .append("  }\n");
+          break;
+      }
+    }
+    return source.append("}\n").toString();
+  }
+
+  /**
+   * Returns a source file in the {@link #PACKAGE synthetic package} with the given content.
+   */
+  public static JavaFileObject source(String simpleName, final String content) {
+    return new SimpleJavaFileObject(
+        URI.create("string:///" + PACKAGE + "/" + simpleName + ".java"),
+        JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.callbuilder.style;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ArrayBuffersTest {
+  @Test
+  public void keepsCapacityThatHoldsTheItems() {
+    assertEquals(0, ArrayBuffers.grownCapacity(0, 0));
+    assertEquals(16, ArrayBuffers.grownCapacity(16, 16));
+  }
+
+  @Test
+  public void growsToAtLeastEightAndDoubles() {
+    assertEquals(8, ArrayBuffers.grownCapacity(0, 1));
+    assertEquals(32, ArrayBuffers.grownCapacity(16, 17));
+    assertEquals(100, ArrayBuffers.grownCapacity(16, 100));
+  }
+
+  @Test
+  public void growsNoFurtherThanTheLargestArray() {
+    assertEquals(ArrayBuffers.MAX_CAPACITY,
+        ArrayBuffers.grownCapacity(Integer.MAX_VALUE / 2 + 1, Integer.MAX_VALUE / 2 + 2));
+  }
+
+  @Test
+  public void overflowIsAnError() {
+    for (int needed : new int[] {-1, Integer.MIN_VALUE, ArrayBuffers.MAX_CAPACITY + 1}) {
+      try {
+        ArrayBuffers.grownCapacity(16, needed);
+        fail();
+      } catch (OutOfMemoryError expected) {
+      }
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.callbuilder.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ValueType} with the implementation it replaced, which gathered the fields of
+ * both instances into new lists on every {@code equals} and walked the fields on every
+ * {@code hashCode}. The value classes have four fields, like {@code FieldStyle}. Run with
+ * {@code -prof gc} to compare allocation as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ValueTypeBenchmark {
+  /** The implementation of {@link ValueType} before hash codes and fields were cached. */
+  abstract static class ListBasedValueType {
+    private static final class ReceiverIntoList implements ValueType.FieldReceiver {
+      private final List<Object> list = new ArrayList<Object>();
+
+      @Override
+      public void add(String name, Object value) {
+        list.add(name);
+        list.add(value);
+      }
+    }
+
+    private static final class ReceiverIntoHashCode implements ValueType.FieldReceiver {
+      private int hashCode = 1;
+
+      private void add(Object value) {
+        hashCode *= 31;
+        hashCode += (value == null) ? 0 : value.hashCode();
+      }
+
+      @Override
+      public void add(String name, Object value) {
+        add(name);
+        add(value);
+      }
+    }
+
+    protected abstract void addFields(ValueType.FieldReceiver fields);
+
+    @Override
+    public final boolean equals(Object obj) {
+      if ((obj == null) || (obj.getClass() != this.getClass())) {
+        return false;
+      }
+      ReceiverIntoList a = new ReceiverIntoList();
+      ReceiverIntoList b = new ReceiverIntoList();
+      this.addFields(a);
+      ((ListBasedValueType) obj).addFields(b);
+      return a.list.equals(b.list);
+    }
+
+    @Override
+    public final int hashCode() {
+      ReceiverIntoHashCode receiver = new ReceiverIntoHashCode();
+      addFields(receiver);
+      return receiver.hashCode;
+    }
+  }
+
+  static final class ListBasedStyle extends ListBasedValueType {
+    private final String styleClass;
+    private final List<String> modifiers;
+    private final String start;
+    private final String finish;
+
+    ListBasedStyle(String styleClass, List<String> modifiers, String start, String finish) {
+      this.styleClass = styleClass;
+      this.modifiers = modifiers;
+      this.start = start;
+      this.finish = finish;
+    }
+
+    @Override
+    protected void addFields(ValueType.FieldReceiver fields) {
+      fields.add("styleClass", styleClass);
+      fields.add("modifiers", modifiers);
+      fields.add("start", start);
+      fields.add("finish", finish);
+    }
+  }
+
+  static final class Style extends ValueType {
+    private final String styleClass;
+    private final List<String> modifiers;
+    private final String start;
+    private final String finish;
+
+    Style(boolean immutable,
+        String styleClass, List<String> modifiers, String start, String finish) {
+      super(immutable);
+      this.styleClass = styleClass;
+      this.modifiers = modifiers;
+      this.start = start;
+      this.finish = finish;
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("styleClass", styleClass);
+      fields.add("modifiers", modifiers);
+      fields.add("start", start);
+      fields.add("finish", finish);
+    }
+  }
+
+  private static final int KEYS = 64;
+
+  private final List<ListBasedStyle> listBased = new ArrayList<>();
+  private final List<Style> mutable = new ArrayList<>();
+  private final List<Style> immutable = new ArrayList<>();
+  private final Map<ListBasedStyle, Integer> listBasedMap = new HashMap<>();
+  private final Map<Style, Integer> immutableMap = new HashMap<>();
+  private int next;
+
+  /**
+   * Creates two equal but distinct instances of each key, so that lookups and comparisons cannot
+   * stop at a reference comparison.
+   */
+  @Setup
+  public void setUp() {
+    for (int copy = 0; copy < 2; copy++) {
+      for (int i = 0; i < KEYS; i++) {
+        String styleClass = "com.example.Style" + i;
+        List<String> modifiers = Arrays.asList("addTo", "addAllTo", "clear");
+        listBased.add(new ListBasedStyle(styleClass, modifiers, "start", "finish"));
+        mutable.add(new Style(false, styleClass, modifiers, "start", "finish"));
+        immutable.add(new Style(true, styleClass, modifiers, "start", "finish"));
+      }
+    }
+    for (int i = 0; i < KEYS; i++) {
+      listBasedMap.put(listBased.get(i), i);
+      immutableMap.put(immutable.get(i), i);
+    }
+  }
+
+  private int nextKey() {
+    next = (next + 1) % KEYS;
+    return next;
+  }
+
+  @Benchmark
+  public boolean equalsListBased() {
+    int i = nextKey();
+    return listBased.get(i).equals(listBased.get(i + KEYS));
+  }
+
+  @Benchmark
+  public boolean equalsMutable() {
+    int i = nextKey();
+    return mutable.get(i).equals(mutable.get(i + KEYS));
+  }
+
+  @Benchmark
+  public boolean equalsImmutable() {
+    int i = nextKey();
+    return immutable.get(i).equals(immutable.get(i + KEYS));
+  }
+
+  @Benchmark
+  public int hashCodeListBased() {
+    return listBased.get(nextKey()).hashCode();
+  }
+
+  @Benchmark
+  public int hashCodeImmutable() {
+    return immutable.get(nextKey()).hashCode();
+  }
+
+  @Benchmark
+  public Integer mapLookupListBased() {
+    return listBasedMap.get(listBased.get(nextKey() + KEYS));
+  }
+
+  @Benchmark
+  public Integer mapLookupImmutable() {
+    return immutableMap.get(immutable.get(nextKey() + KEYS));
+  }
+}
@@ -69,6 +69,36 @@ public class ValueTypeTest {
     }
   }
 
+  private final class ImmutablePairThatOmitsNull extends ValueType {
+    private final Object first;
+    private final Object second;
+
+    ImmutablePairThatOmitsNull(Object first, Object second) {
+      super(true);
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      if (first != null) {
+        fields.add("first", first);
+      }
+      if (second != null) {
+        fields.add("second", second);
+      }
+    }
+  }
+
+  private final class Counter extends ValueType {
+    private int count;
+
+    @Override
+    protected void addFields(FieldReceiver fields) {
+      fields.add("count", count);
+    }
+  }
+
   @Test
   public void toString_noValues() {
     assertEquals("Empty{}", new Empty().toString());
@@ -125,4 +155,50 @@ public class ValueTypeTest {
 
     assertMutuallyUnequal(distinctItems);
   }
+
+  @Test
+  public void hashAndEquals_immutable() {
+    List<List<Object>> equalityGroups = new ArrayList<>();
+    equalityGroups.add(Arrays.asList(
+        new ImmutablePairThatOmitsNull(null, 42), new ImmutablePairThatOmitsNull(null, 42)));
+    equalityGroups.add(Arrays.asList(
+        new ImmutablePairThatOmitsNull(42, null), new ImmutablePairThatOmitsNull(42, null)));
+    equalityGroups.add(Arrays.asList(
+        new ImmutablePairThatOmitsNull(42, 42), new ImmutablePairThatOmitsNull(42, 42)));
+    equalityGroups.add(Arrays.asList(
+        new ImmutablePairThatOmitsNull(42, 43), new ImmutablePairThatOmitsNull(42, 43)));
+    equalityGroups.add(Arrays.asList(
+        new ImmutablePairThatOmitsNull(null, null), new ImmutablePairThatOmitsNull(null, null)));
+
+    List<Object> distinctItems = new ArrayList<>();
+    for (List<Object> group : equalityGroups) {
+      assertMutuallyEqual(group);
+      distinctItems.add(group.get(0));
+    }
+
+    assertMutuallyUnequal(distinctItems);
+  }
+
+  @Test
+  public void hashCode_immutableMatchesMutable() {
+    assertEquals(new PairThatOmitsNull(42, "x").hashCode(),
+        new ImmutablePairThatOmitsNull(42, "x").hashCode());
+    assertEquals(new PairThatOmitsNull(null, "x").hashCode(),
+        new ImmutablePairThatOmitsNull(null, "x").hashCode());
+  }
+
+  @Test
+  public void hashAndEquals_mutableFieldChanges() {
+    Counter a = new Counter();
+    Counter b = new Counter();
+    assertMutuallyEqual(Arrays.<Object>asList(a, b));
+
+    int hashCodeBefore = a.hashCode();
+    a.count++;
+    assertNotEquals(hashCodeBefore, a.hashCode());
+    assertMutuallyUnequal(Arrays.<Object>asList(a, b));
+
+    b.count++;
+    assertMutuallyEqual(Arrays.<Object>asList(a, b));
+  }
 }